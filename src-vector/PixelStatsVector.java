@@ -0,0 +1,67 @@
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD kernel for {@link PixelStats} on the incubating Vector API. Optional: it lives outside src so the
+ * app builds without jdk.incubator.vector, and is only loaded when it was compiled in and the module is
+ * present at runtime.
+ */
+class PixelStatsVector implements PixelStats.Kernel {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    // Iterations after which the int lane sums are flushed to longs (255 * 2^22 < 2^31)
+    private static final int FLUSH_INTERVAL = 1 << 22;
+
+    @Override
+    public void accumulate(PixelStats stats, int[] argb, int offset, int length) {
+        IntVector zero = IntVector.zero(SPECIES);
+        IntVector allBits = IntVector.broadcast(SPECIES, -1);
+        IntVector count = zero, red = zero, green = zero, blue = zero, luma = zero, value = zero;
+
+        int i = offset;
+        int bound = offset + SPECIES.loopBound(length);
+        int sinceFlush = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            IntVector p = IntVector.fromArray(SPECIES, argb, i);
+            // All ones in lanes with a non-zero alpha; and-ing with it zeroes the transparent pixels
+            // without masked operations, which are slow on hardware without mask registers
+            VectorMask<Integer> visible = p.lanewise(VectorOperators.LSHR, 24).compare(VectorOperators.NE, 0);
+            IntVector keep = zero.blend(allBits, visible);
+            IntVector rgb = p.and(keep);
+
+            IntVector r = rgb.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+            IntVector g = rgb.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+            IntVector b = rgb.and(0xFF);
+
+            count = count.sub(keep);
+            red = red.add(r);
+            green = green.add(g);
+            blue = blue.add(b);
+            luma = luma.add(r.mul(54).add(g.mul(183)).add(b.mul(19)).lanewise(VectorOperators.LSHR, 8));
+            value = value.add(r.max(g).max(b));
+
+            if (++sinceFlush == FLUSH_INTERVAL) {
+                flush(stats, count, red, green, blue, luma, value);
+                count = red = green = blue = luma = value = zero;
+                sinceFlush = 0;
+            }
+        }
+        flush(stats, count, red, green, blue, luma, value);
+
+        // Leftover pixels that don't fill a whole vector
+        stats.accumulateScalar(argb, i, offset + length - i);
+    }
+
+    private static void flush(PixelStats stats, IntVector count, IntVector red, IntVector green,
+                              IntVector blue, IntVector luma, IntVector value) {
+        stats.count += count.reduceLanesToLong(VectorOperators.ADD);
+        stats.sumRed += red.reduceLanesToLong(VectorOperators.ADD);
+        stats.sumGreen += green.reduceLanesToLong(VectorOperators.ADD);
+        stats.sumBlue += blue.reduceLanesToLong(VectorOperators.ADD);
+        stats.sumLuma += luma.reduceLanesToLong(VectorOperators.ADD);
+        stats.sumValue += value.reduceLanesToLong(VectorOperators.ADD);
+    }
+}
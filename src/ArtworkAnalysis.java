@@ -0,0 +1,226 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Everything the player screen derives from a cover image: average brightness (for the blurred
+ * background), the dominant color of the top rows (for the top bar) and the palette (for text colors).
+ *
+ * Each cover is analyzed once, on a background thread, decoding only the pixels the analysis uses. Results are kept in memory and in a
+ * small binary file next to the cover ({@code artwork/<hash>.theme}), tagged with the artwork's
+ * size and modification time, so switching tracks only applies precomputed values on the FX thread.
+ */
+public class ArtworkAnalysis {
+
+    static final int MAGIC = 0x4F4D5441; // "OMTA"
+    static final int VERSION = 1;
+
+    private static final int PALETTE_COLORS = 6;
+
+    // Where analyses came from: memory, the .theme file, or computed from the image
+    private static final Metrics.Counter MEMORY_HITS = Metrics.counter("analysis.cache.memory");
+    private static final Metrics.Counter DISK_HITS = Metrics.counter("analysis.cache.disk");
+    private static final Metrics.Counter MISSES = Metrics.counter("analysis.cache.miss");
+    private static final Metrics.Histogram ANALYZE_TIME = Metrics.histogram("analysis.compute");
+
+    private static final Map<String, ArtworkAnalysis> memoryCache = new ConcurrentHashMap<>();
+
+    // One low-priority thread, so analysis never competes with decoding the playing track
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "artwork-analysis");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // Average HSB brightness of the cover in the range [0, 1]
+    public final double brightness;
+
+    // Most common color in the top rows, as 0xRRGGBB
+    public final int topRgb;
+
+    public final AverageColorFinder.Palette palette;
+
+    public ArtworkAnalysis(double brightness, int topRgb, AverageColorFinder.Palette palette) {
+        this.brightness = brightness;
+        this.topRgb = topRgb;
+        this.palette = palette;
+    }
+
+    /**
+     * Returns the analysis for a cover if it has already been computed, without doing any I/O.
+     *
+     * @param artworkPath Path of the cover image
+     * @return The analysis, or null if it isn't in memory yet
+     */
+    public static ArtworkAnalysis getCached(String artworkPath) {
+        return memoryCache.get(artworkPath);
+    }
+
+    /**
+     * Looks the analysis up in memory, then on disk, and computes it if neither has it.
+     * Everything runs on the analysis thread.
+     *
+     * @param artworkPath Path of the cover image
+     * @return Future completed with the analysis, or exceptionally if the image can't be read
+     */
+    public static CompletableFuture<ArtworkAnalysis> analyzeAsync(String artworkPath) {
+        ArtworkAnalysis cached = memoryCache.get(artworkPath);
+        if (cached != null) {
+            MEMORY_HITS.increment();
+            return CompletableFuture.completedFuture(cached);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            ArtworkAnalysis analysis = memoryCache.get(artworkPath);
+            if (analysis != null) {
+                MEMORY_HITS.increment();
+                return analysis;
+            }
+            File artwork = new File(artworkPath);
+            analysis = readCached(artwork);
+            if (analysis != null) {
+                DISK_HITS.increment();
+            } else {
+                MISSES.increment();
+                try {
+                    analysis = analyze(artwork);
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not analyze artwork " + artworkPath, e);
+                }
+                try {
+                    analysis.writeCache(artwork);
+                } catch (IOException e) {
+                    Log.warn("Could not cache artwork analysis: %s", e.getMessage());
+                }
+            }
+            memoryCache.put(artworkPath, analysis);
+            return analysis;
+        }, executor);
+    }
+
+    /**
+     * Computes brightness, top color and palette of a cover. It is decoded twice, but never in full: once
+     * subsampled to the palette's sample count (brightness and palette are read from that) and once for
+     * the top rows only, at full resolution.
+     *
+     * @param artwork Cover image
+     * @return The analysis
+     * @throws IOException If the image can't be read
+     */
+    public static ArtworkAnalysis analyze(File artwork) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage sampled = ImageDecoder.readSampled(artwork, AverageColorFinder.MAX_PALETTE_SAMPLES);
+        BufferedImage top = ImageDecoder.readTopRows(artwork, AverageColorFinder.TOP_ROWS);
+        if (sampled == null || top == null) {
+            throw new IOException("Unsupported image format: " + artwork);
+        }
+        double brightness = PixelStats.of(sampled).averageBrightness();
+        int topRgb = Integer.parseInt(AverageColorFinder.findDominantColorTop(top).substring(1), 16);
+        AverageColorFinder.Palette palette = AverageColorFinder.findPalette(sampled, PALETTE_COLORS);
+        ANALYZE_TIME.recordSince(start);
+        return new ArtworkAnalysis(brightness, topRgb, palette);
+    }
+
+    /**
+     * @param artwork Cover image
+     * @return Location of the cover's cached analysis file
+     */
+    public static File cacheFileFor(File artwork) {
+        String name = artwork.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return new File(artwork.getParentFile(), baseName + ".theme");
+    }
+
+    /**
+     * Reads the cached analysis for a cover if it exists and still matches the image on disk.
+     *
+     * @param artwork Cover image
+     * @return The cached analysis, or null if it is missing or stale
+     */
+    public static ArtworkAnalysis readCached(File artwork) {
+        File cacheFile = cacheFileFor(artwork);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            if (in.readLong() != artwork.length() || in.readLong() != artwork.lastModified()) {
+                return null;
+            }
+            double brightness = in.readFloat();
+            int topRgb = in.readInt();
+            int swatchCount = in.readUnsignedByte();
+            List<AverageColorFinder.Swatch> swatches = new ArrayList<>(swatchCount);
+            for (int i = 0; i < swatchCount; i++) {
+                swatches.add(new AverageColorFinder.Swatch(in.readInt(), in.readInt()));
+            }
+            int pairCount = in.readUnsignedByte();
+            List<AverageColorFinder.ColorPair> pairs = new ArrayList<>(pairCount);
+            for (int i = 0; i < pairCount; i++) {
+                pairs.add(new AverageColorFinder.ColorPair(in.readInt(), in.readInt(), in.readFloat()));
+            }
+            AverageColorFinder.Palette palette = new AverageColorFinder.Palette(
+                    Collections.unmodifiableList(swatches), Collections.unmodifiableList(pairs));
+            return new ArtworkAnalysis(brightness, topRgb, palette);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes this analysis to the cover's cache file.
+     *
+     * @param artwork Cover image the analysis was computed from
+     * @throws IOException If the cache file cannot be written
+     */
+    public void writeCache(File artwork) throws IOException {
+        Path cacheFile = cacheFileFor(artwork).toPath();
+        // Unique temp name, so two threads writing the same entry never write into one file
+        Path temp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(artwork.length());
+            out.writeLong(artwork.lastModified());
+            out.writeFloat((float) brightness);
+            out.writeInt(topRgb);
+            out.writeByte(palette.swatches.size());
+            for (AverageColorFinder.Swatch swatch : palette.swatches) {
+                out.writeInt(swatch.rgb);
+                out.writeInt(swatch.population);
+            }
+            out.writeByte(palette.pairs.size());
+            for (AverageColorFinder.ColorPair pair : palette.pairs) {
+                out.writeInt(pair.background);
+                out.writeInt(pair.foreground);
+                out.writeFloat((float) pair.contrast);
+            }
+        }
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Drops a cover's in-memory analysis, e.g. after it was renamed or rewritten.
+     */
+    public static void invalidate(String artworkPath) {
+        memoryCache.remove(artworkPath);
+    }
+}
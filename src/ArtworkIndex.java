@@ -0,0 +1,228 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the tracks of one music folder to their cover in a content-addressed artwork store.
+ *
+ * Covers are stored once as {@code artwork/<hash>.png}, where the hash is taken over the embedded image
+ * bytes, so all tracks of an album share one file (and with it one decode, one analysis and one blurred
+ * background). The track-to-cover mapping lives in {@code artwork/index.bin}, tagged with each track's
+ * size and modification time so a retagged track is looked at again. Tracks without artwork are recorded
+ * too, so they aren't re-parsed on every play.
+ *
+ * One index per artwork folder; all methods are synchronized.
+ */
+public class ArtworkIndex {
+
+    private static final int MAGIC = 0x4F4D4149; // "OMAI"
+    private static final int VERSION = 1;
+
+    // Hex characters kept from the SHA-256 of the image bytes (128 bits)
+    private static final int HASH_LENGTH = 32;
+
+    // Value of Entry.hash for tracks that have no embedded artwork
+    public static final String NO_ARTWORK = "";
+
+    private static final Map<File, ArtworkIndex> indexes = new HashMap<>();
+
+    /**
+     * A track's cover, valid while the track's size and modification time are unchanged.
+     */
+    public static class Entry {
+        public final long size;
+        public final long modified;
+        public final String hash;
+
+        public Entry(long size, long modified, String hash) {
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+        }
+    }
+
+    private final File artworkDir;
+    private final File indexFile;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty = false;
+
+    // Package-private so benchmarks can time a fresh load; the app goes through forDirectory
+    ArtworkIndex(File artworkDir) {
+        this.artworkDir = artworkDir;
+        this.indexFile = new File(artworkDir, "index.bin");
+        load();
+    }
+
+    /**
+     * @param artworkDir The artwork folder of a music folder
+     * @return The index for that folder, loaded from disk on first use
+     */
+    public static synchronized ArtworkIndex forDirectory(File artworkDir) {
+        return indexes.computeIfAbsent(artworkDir.getAbsoluteFile(), ArtworkIndex::new);
+    }
+
+    /**
+     * Writes every index with unsaved changes.
+     */
+    public static synchronized void saveAll() {
+        for (ArtworkIndex index : indexes.values()) {
+            index.save();
+        }
+    }
+
+    /**
+     * @param track Audio file
+     * @return The track's entry, or null if it is unknown or the track changed since it was recorded
+     */
+    public synchronized Entry lookup(File track) {
+        Entry entry = entries.get(track.getName());
+        if (entry == null || entry.size != track.length() || entry.modified != track.lastModified()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Records a track's cover hash, or {@link #NO_ARTWORK}.
+     */
+    public synchronized void put(File track, String hash) {
+        entries.put(track.getName(), new Entry(track.length(), track.lastModified(), hash));
+        dirty = true;
+    }
+
+    /**
+     * Gives a new file the same cover as another, e.g. the MP3 a FLAC track was converted to.
+     */
+    public synchronized void copyEntry(File from, File to) {
+        Entry entry = entries.get(from.getName());
+        if (entry != null) {
+            put(to, entry.hash);
+        }
+    }
+
+    /**
+     * Moves a track's entry to its new file name after a rename. The cover itself doesn't move.
+     */
+    public synchronized void rename(String oldName, String newName) {
+        Entry entry = entries.remove(oldName);
+        if (entry != null) {
+            entries.put(newName, entry);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Drops the entries of tracks that are no longer in the folder and collects the covers still in use.
+     *
+     * @param trackNames File names of the folder's tracks
+     * @param referenced Receives the hash of every cover that some remaining track points to
+     * @return Number of entries dropped
+     */
+    public synchronized int retain(Set<String> trackNames, Set<String> referenced) {
+        int before = entries.size();
+        entries.keySet().retainAll(trackNames);
+        for (Entry entry : entries.values()) {
+            if (!entry.hash.equals(NO_ARTWORK)) {
+                referenced.add(entry.hash);
+            }
+        }
+        if (entries.size() != before) {
+            dirty = true;
+        }
+        return before - entries.size();
+    }
+
+    /**
+     * @return Location of the stored cover with this hash
+     */
+    public File imageFile(String hash) {
+        return new File(artworkDir, hash + ".png");
+    }
+
+    /**
+     * @return Whether a file in the artwork folder is a content-addressed cover (as opposed to the
+     *         per-track {@code <track name>.png} files of the old layout)
+     */
+    public static boolean isHashName(String fileName) {
+        return fileName.length() == HASH_LENGTH + 4 && fileName.endsWith(".png")
+                && fileName.substring(0, HASH_LENGTH).chars().allMatch(c -> (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'));
+    }
+
+    /**
+     * @param imageData Encoded image bytes as embedded in the track
+     * @return Content hash used as the cover's file name
+     */
+    public static String hash(byte[] imageData) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(imageData);
+            StringBuilder hex = new StringBuilder(HASH_LENGTH);
+            for (int i = 0; i < HASH_LENGTH / 2; i++) {
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xF, 16));
+                hex.append(Character.forDigit(digest[i] & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Writes the index if it has unsaved changes.
+     */
+    public synchronized void save() {
+        if (!dirty) {
+            return;
+        }
+        Path target = indexFile.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(target.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeByte(VERSION);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeLong(e.getValue().size);
+                    out.writeLong(e.getValue().modified);
+                    out.writeUTF(e.getValue().hash);
+                }
+            }
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+        } catch (IOException e) {
+            Log.warn("Could not save artwork index: %s", e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!indexFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                entries.put(name, new Entry(in.readLong(), in.readLong(), in.readUTF()));
+            }
+        } catch (IOException e) {
+            // A damaged index only costs re-reading the tracks' tags
+            Log.warn("Could not read artwork index: %s", e.getMessage());
+            entries.clear();
+        }
+    }
+}
@@ -1,79 +1,280 @@
-import org.jaudiotagger.audio.AudioFile;
 import org.jaudiotagger.audio.AudioFileIO;
 import org.jaudiotagger.tag.Tag;
 import org.jaudiotagger.tag.images.Artwork;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Extracts embedded cover art into the content-addressed store {@code artwork/<hash>.png} next to the
+ * track (see {@link ArtworkIndex}); tracks with identical covers share one file.
+ *
+ * Covers are read with jaudiotagger from MP3, FLAC, MP4/M4A and WAV files alike, so FLAC and M4A
+ * tracks don't have to be converted to MP3 first.
+ */
 public class AudioArtworkExtractor {
 
-    public static String extractArtwork(String mp3FilePath) {
-        if (!mp3FilePath.toLowerCase().endsWith(".mp3")) {
-            System.out.println("Skipping non-MP3 file: " + mp3FilePath);
+    // Embedded pictures larger than this are treated as corrupt
+    private static final int MAX_PICTURE_BYTES = 32 * 1024 * 1024;
+
+    // Longest edge of a stored cover
+    private static final int MAX_STORED_EDGE = 1600;
+
+    // Tracks whose cover (or lack of one) was already known, and tracks whose tags had to be read
+    private static final Metrics.Counter CACHE_HITS = Metrics.counter("artwork.cache.hit");
+    private static final Metrics.Counter CACHE_MISSES = Metrics.counter("artwork.cache.miss");
+    private static final Metrics.Histogram EXTRACT_TIME = Metrics.histogram("artwork.extract");
+
+    // Picture type of the front cover (ID3 and FLAC); MP4 covers have no type
+    private static final int FRONT_COVER = 3;
+
+    /**
+     * @return Whether artwork can be extracted from this kind of file
+     */
+    public static boolean isSupported(String audioFilePath) {
+        String lower = audioFilePath.toLowerCase();
+        return lower.endsWith(".mp3") || lower.endsWith(".flac") || lower.endsWith(".m4a")
+                || lower.endsWith(".mp4") || lower.endsWith(".wav");
+    }
+
+    /**
+     * Returns the path of a track's cover, extracting it into the artwork store if needed.
+     *
+     * @param audioFilePath Audio file
+     * @return Path of the stored cover, or null if the track has none
+     */
+    public static String extractArtwork(String audioFilePath) {
+        return extractArtwork(audioFilePath, true);
+    }
+
+    /**
+     * @param saveIndex Whether to write the artwork index right away; callers that extract many tracks in
+     *                  a row pass false and call {@link ArtworkIndex#saveAll()} themselves
+     */
+    public static String extractArtwork(String audioFilePath, boolean saveIndex) {
+        if (!isSupported(audioFilePath)) {
+            Log.debug("Skipping unsupported file: %s", audioFilePath);
             return null;
         }
 
         try {
-            File mp3File = new File(mp3FilePath);
-            String baseName = mp3File.getName().substring(0, mp3File.getName().lastIndexOf('.'));
+            File audioFile = new File(audioFilePath);
+            String baseName = audioFile.getName().substring(0, audioFile.getName().lastIndexOf('.'));
 
             // Create artwork directory if it doesn't exist
-            Path artworkDir = Paths.get(mp3File.getParent(), "artwork");
-            if (!Files.exists(artworkDir)) {
-                Files.createDirectory(artworkDir);
-            }
+            File artworkDir = CacheLocations.artworkDir(audioFile.getParentFile());
+            Files.createDirectories(artworkDir.toPath());
+            ArtworkIndex index = ArtworkIndex.forDirectory(artworkDir);
 
-            // Output path for the artwork
-            Path artworkPath = artworkDir.resolve(baseName + ".png");
-
-            // Skip if artwork already exists
-            if (Files.exists(artworkPath)) {
-                System.out.println("Artwork already exists for: " + baseName);
-                return artworkPath.toString();
+            // Skip if this version of the track has been looked at before
+            ArtworkIndex.Entry entry = index.lookup(audioFile);
+            if (entry != null && entry.hash.equals(ArtworkIndex.NO_ARTWORK)) {
+                CACHE_HITS.increment();
+                return null;
             }
+            if (entry != null && index.imageFile(entry.hash).exists()) {
+                CACHE_HITS.increment();
+                return index.imageFile(entry.hash).getPath();
+            }
+            CACHE_MISSES.increment();
+            long start = System.nanoTime();
 
-            AudioFile f = AudioFileIO.read(mp3File);
-            Tag tag = f.getTag();
-
-            if (tag != null) {
-                Artwork artwork = tag.getFirstArtwork();
-                if (artwork != null) {
-                    byte[] imageData = artwork.getBinaryData();
-                    BufferedImage img = ImageIO.read(new ByteArrayInputStream(imageData));
+            byte[] imageData = readEmbeddedPicture(audioFile);
+            String artworkPath = null;
+            if (imageData != null) {
+                String hash = ArtworkIndex.hash(imageData);
+                File stored = index.imageFile(hash);
+                File legacy = new File(artworkDir, baseName + ".png");
+                if (stored.exists()) {
+                    Log.debug("Artwork already stored for: %s", baseName);
+                    // The old per-track copy is a duplicate now
+                    deleteLegacy(legacy);
+                    artworkPath = stored.getPath();
+                } else if (legacy.exists() && moveLegacy(legacy, stored)) {
+                    // Old layout: keep the already-decoded PNG under its content name
+                    Log.debug("Migrated artwork for: %s", baseName);
+                    artworkPath = stored.getPath();
+                } else {
+                    // Huge covers are stored subsampled; they are never shown larger than the window
+                    BufferedImage img = ImageDecoder.readFitting(imageData, MAX_STORED_EDGE);
                     if (img != null) {
-                        ImageIO.write(img, "png", artworkPath.toFile());
-                        System.out.println("Extracted artwork for: " + baseName);
-                        return artworkPath.toString();
+                        // Tracks of one album may be extracted on several workers at once; each writes its own temp file
+                        Path temp = Files.createTempFile(artworkDir.toPath(), hash, ".png.tmp");
+                        ImageIO.write(img, "png", temp.toFile());
+                        Files.move(temp, stored.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                        Log.debug("Extracted artwork for: %s", baseName);
+                        artworkPath = stored.getPath();
                     }
                 }
+                if (artworkPath != null) {
+                    index.put(audioFile, hash);
+                }
+            }
+            if (artworkPath == null) {
+                Log.debug("No artwork found for: %s", baseName);
+                index.put(audioFile, ArtworkIndex.NO_ARTWORK);
+            }
+            if (saveIndex) {
+                index.save();
             }
+            EXTRACT_TIME.recordSince(start);
+            return artworkPath;
 
-            System.out.println("No artwork found for: " + baseName);
+        } catch (Exception e) {
+            Log.error("Error extracting artwork from: %s", audioFilePath, e);
             return null;
+        }
+    }
 
-        } catch (Exception e) {
-            System.err.println("Error extracting artwork from: " + mp3FilePath);
-            e.printStackTrace();
+    /**
+     * Looks a track's cover up in the artwork index, without reading the track itself.
+     *
+     * @return Path of the stored cover, {@link ArtworkIndex#NO_ARTWORK} if the track is known to have
+     *         none, or null if it hasn't been extracted yet (or has changed since)
+     */
+    public static String cachedArtwork(File audioFile) {
+        ArtworkIndex index = ArtworkIndex.forDirectory(CacheLocations.artworkDir(audioFile.getParentFile()));
+        ArtworkIndex.Entry entry = index.lookup(audioFile);
+        if (entry == null) {
             return null;
         }
+        if (entry.hash.equals(ArtworkIndex.NO_ARTWORK)) {
+            return ArtworkIndex.NO_ARTWORK;
+        }
+        File image = index.imageFile(entry.hash);
+        return image.exists() ? image.getPath() : null;
+    }
+
+    /**
+     * Points a converted copy of a track at the original's cover, so it isn't looked for again in a
+     * file that may not carry it.
+     */
+    public static void carryOver(File original, File converted) {
+        ArtworkIndex index = ArtworkIndex.forDirectory(CacheLocations.artworkDir(original.getParentFile()));
+        index.copyEntry(original, converted);
+        index.save();
+    }
+
+    /**
+     * Moves the covers of the old {@code artwork/<track name>.png} layout into the content-addressed
+     * store. Each old file is matched to its track by name; duplicates of an album's cover are deleted
+     * and the cover's cached analysis moves with it. Old files without a matching track are left alone.
+     *
+     * @param musicDir Music folder whose artwork folder should be migrated
+     * @return Number of old files that were migrated or removed as duplicates
+     */
+    public static int migrateLegacyArtwork(File musicDir) {
+        File[] legacy = CacheLocations.artworkDir(musicDir).listFiles((dir, name) ->
+                name.endsWith(".png") && !ArtworkIndex.isHashName(name));
+        File[] tracks = musicDir.listFiles((dir, name) -> isSupported(name));
+        if (legacy == null || legacy.length == 0 || tracks == null) {
+            return 0;
+        }
+        Map<String, File> tracksByBaseName = new HashMap<>();
+        for (File track : tracks) {
+            String name = track.getName();
+            tracksByBaseName.putIfAbsent(name.substring(0, name.lastIndexOf('.')), track);
+        }
+        int migrated = 0;
+        for (File png : legacy) {
+            String baseName = png.getName().substring(0, png.getName().length() - ".png".length());
+            File track = tracksByBaseName.get(baseName);
+            if (track != null) {
+                extractArtwork(track.getAbsolutePath(), false);
+                if (!png.exists()) {
+                    migrated++;
+                }
+            }
+        }
+        ArtworkIndex.saveAll();
+        return migrated;
+    }
+
+    /**
+     * Moves an old per-track cover, and its cached analysis, to its content name. Migration and
+     * extraction for playback, preloading or the library pass can reach the same old file at once;
+     * losing that race is fine, as long as the cover ends up stored.
+     *
+     * @return Whether the cover is stored now, by this call or a concurrent one; if not, the caller
+     *         stores it from the track's tags
+     */
+    private static boolean moveLegacy(File legacy, File stored) throws IOException {
+        try {
+            Files.move(legacy.toPath(), stored.toPath());
+        } catch (FileAlreadyExistsException e) {
+            // Stored meanwhile from another track of the album; the old copy is a duplicate
+            deleteLegacy(legacy);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Moved or deleted meanwhile by another thread
+            return stored.exists();
+        }
+        File legacyTheme = ArtworkAnalysis.cacheFileFor(legacy);
+        try {
+            Files.move(legacyTheme.toPath(), ArtworkAnalysis.cacheFileFor(stored).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (NoSuchFileException e) {
+            // Never analyzed; the analysis is computed again when needed
+        }
+        return true;
+    }
+
+    private static void deleteLegacy(File legacy) throws IOException {
+        Files.deleteIfExists(legacy.toPath());
+        Files.deleteIfExists(ArtworkAnalysis.cacheFileFor(legacy).toPath());
     }
 
     public static void extractAllArtwork(String musicDirPath) {
         try {
             Files.walk(Paths.get(musicDirPath))
                     .filter(Files::isRegularFile)
-                    .filter(path -> path.toString().toLowerCase().endsWith(".mp3"))
-                    .forEach(path -> extractArtwork(path.toString()));
+                    .filter(path -> isSupported(path.toString()))
+                    .forEach(path -> extractArtwork(path.toString(), false));
+            ArtworkIndex.saveAll();
         } catch (IOException e) {
-            System.err.println("Error walking through music directory");
-            e.printStackTrace();
+            Log.error("Error walking through music directory", e);
+        }
+    }
+    /**
+     * Reads the raw bytes of a file's embedded cover with jaudiotagger, which parses the tags of every
+     * supported format (ID3 in MP3 and WAV, FLAC PICTURE blocks, MP4 {@code covr} atoms) without decoding
+     * audio. The front cover is preferred; otherwise the first embedded picture is used.
+     *
+     * @return Encoded image bytes (JPEG, PNG, ...), or null if the file has no picture
+     * @throws Exception If the file can't be read or its tags are corrupt
+     */
+    static byte[] readEmbeddedPicture(File file) throws Exception {
+        Tag tag = AudioFileIO.read(file).getTag();
+        if (tag == null) {
+            return null;
+        }
+        byte[] first = null;
+        for (Artwork artwork : tag.getArtworkList()) {
+            // Linked pictures (a URL instead of image data) have no bytes
+            byte[] data = artwork.getBinaryData();
+            if (data == null || data.length == 0) {
+                continue;
+            }
+            if (data.length > MAX_PICTURE_BYTES) {
+                throw new IOException("Embedded picture of " + data.length + " bytes is out of range");
+            }
+            if (artwork.getPictureType() == FRONT_COVER) {
+                return data;
+            }
+            if (first == null) {
+                first = data;
+            }
         }
+        return first;
     }
-}
\ No newline at end of file
+}
@@ -1,13 +1,106 @@
-import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import javax.imageio.ImageIO;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 public class AverageColorFinder {
 
+    // Samples kept from a cover before building the histogram; larger covers are read with a stride
+    public static final int MAX_PALETTE_SAMPLES = 256 * 256;
+
+    // Samples decoded for the average color
+    private static final int MAX_AVERAGE_SAMPLES = 512 * 512;
+
+    // Stride of the most-common-color count
+    private static final int DOMINANT_STRIDE = 5;
+
+    // Rows the top color is taken from
+    public static final int TOP_ROWS = 5;
+
+    // Sampled pixel count above which the histogram is built with fork/join
+    private static final int PARALLEL_THRESHOLD = 32 * 1024;
+
+    private static final Metrics.Histogram TOP_COLOR_TIME = Metrics.histogram("color.top");
+    private static final Metrics.Histogram PALETTE_TIME = Metrics.histogram("color.palette");
+
+    // WCAG AA contrast ratio for normal text
+    public static final double MIN_CONTRAST = 4.5;
+
+    /**
+     * A palette color and the number of sampled pixels it stands for.
+     */
+    public static class Swatch {
+        public final int rgb;
+        public final int population;
+
+        public Swatch(int rgb, int population) {
+            this.rgb = rgb;
+            this.population = population;
+        }
+
+        public String toHex() {
+            return AverageColorFinder.toHex(rgb);
+        }
+    }
+
+    /**
+     * A background color with a foreground that is readable on it.
+     */
+    public static class ColorPair {
+        public final int background;
+        public final int foreground;
+        public final double contrast;
+
+        public ColorPair(int background, int foreground, double contrast) {
+            this.background = background;
+            this.foreground = foreground;
+            this.contrast = contrast;
+        }
+    }
+
+    /**
+     * Palette colors ranked by population, plus a readable foreground for each of them.
+     */
+    public static class Palette {
+        public final List<Swatch> swatches;
+        public final List<ColorPair> pairs;
+
+        public Palette(List<Swatch> swatches, List<ColorPair> pairs) {
+            this.swatches = swatches;
+            this.pairs = pairs;
+        }
+
+        /**
+         * Picks the palette color with the best contrast against a background, falling back to white or
+         * black when no palette color reaches {@link #MIN_CONTRAST}.
+         *
+         * @param background RGB background color
+         * @return RGB foreground color
+         */
+        public int bestForeground(int background) {
+            int best = -1;
+            double bestContrast = 0;
+            for (Swatch swatch : swatches) {
+                double contrast = contrastRatio(swatch.rgb, background);
+                if (contrast > bestContrast) {
+                    bestContrast = contrast;
+                    best = swatch.rgb;
+                }
+            }
+            if (best >= 0 && bestContrast >= MIN_CONTRAST) {
+                return best;
+            }
+            return contrastRatio(0xFFFFFF, background) >= contrastRatio(0x000000, background) ? 0xFFFFFF : 0x000000;
+        }
+    }
+
     public static void main(String[] args) {
         if (args.length < 1) {
             System.out.println("Usage: java AverageColorFinder <image_path>");
@@ -23,68 +116,40 @@ public class AverageColorFinder {
             String dominantColorHex = findDominantColor(imagePath);
             String combinedColorHex = combineColors(averageColorHex, dominantColorHex);
             String topColorHex = findDominantColorTop(imagePath);
+            Palette palette = findPalette(imagePath, 6);
 
             System.out.println("Average color: " + averageColorHex);
             System.out.println("Most common color: " + dominantColorHex);
             System.out.println("Combined color (average of both): " + combinedColorHex);
             System.out.println("Top color: " + topColorHex);
+            for (Swatch swatch : palette.swatches) {
+                System.out.println("Palette color: " + swatch.toHex() + " (" + swatch.population + " px)");
+            }
+            for (ColorPair pair : palette.pairs) {
+                System.out.printf("Readable pair: %s on %s (contrast %.1f:1)%n",
+                        toHex(pair.foreground), toHex(pair.background), pair.contrast);
+            }
         } catch (IOException e) {
             System.err.println("Error processing image: " + e.getMessage());
         }
     }
 
     /**
-     * Calculates the average color of all pixels in an image.
+     * Calculates the average color of an image. Large images are decoded subsampled to about
+     * {@link #MAX_AVERAGE_SAMPLES} pixels, which is plenty for an average; every decoded pixel is read
+     * (fully transparent ones are skipped) through {@link PixelStats}, which is vectorized when the
+     * Vector API is available.
      *
      * @param imagePath Path to the image file
      * @return Hex representation of the average color
      * @throws IOException If there is an error reading the image
      */
     public static String findAverageColor(String imagePath) throws IOException {
-        // Load the image
-        BufferedImage image = ImageIO.read(new File(imagePath));
-
-        long totalRed = 0;
-        long totalGreen = 0;
-        long totalBlue = 0;
-        int pixelCount = 0;
-
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        // Sum up all RGB values
-        for (int y = 0; y < height; y+=5) {
-            for (int x = 0; x < width; x+=5) {
-                int rgb = image.getRGB(x, y);
-
-                // Skip fully transparent pixels if the image has an alpha channel
-                if ((rgb >>> 24) == 0) {
-                    continue;
-                }
-
-                // Extract RGB components
-                int red = (rgb >> 16) & 0xFF;
-                int green = (rgb >> 8) & 0xFF;
-                int blue = rgb & 0xFF;
-
-                // Add to totals
-                totalRed += red;
-                totalGreen += green;
-                totalBlue += blue;
-                pixelCount++;
-            }
-        }
+        // Load the image, subsampled if large
+        BufferedImage image = ImageDecoder.readSampled(new File(imagePath), MAX_AVERAGE_SAMPLES);
 
-        // Calculate averages
-        int avgRed = (int)(totalRed / pixelCount);
-        int avgGreen = (int)(totalGreen / pixelCount);
-        int avgBlue = (int)(totalBlue / pixelCount);
-
-        // Combine into RGB value
-        int averageRGB = (avgRed << 16) | (avgGreen << 8) | avgBlue;
-
-        // Convert to hex
-        return String.format("#%06X", averageRGB);
+        // Sum up all RGB values and convert the average to hex
+        return String.format("#%06X", PixelStats.of(image).averageRgb());
     }
 
     /**
@@ -95,8 +160,8 @@ public class AverageColorFinder {
      * @throws IOException If there is an error reading the image
      */
     public static String findDominantColor(String imagePath) throws IOException {
-        // Load the image
-        BufferedImage image = ImageIO.read(new File(imagePath));
+        // Load only every 5th pixel of every 5th row; the others aren't counted
+        BufferedImage image = ImageDecoder.readStride(new File(imagePath), DOMINANT_STRIDE);
 
         // Count color occurrences
         Map<Integer, Integer> colorCounts = new HashMap<>();
@@ -104,10 +169,9 @@ public class AverageColorFinder {
         int width = image.getWidth();
         int height = image.getHeight();
 
-        // Sample every pixel to find color frequencies
-        // For very large images, you might want to sample every nth pixel instead
-        for (int y = 0; y < height; y+=5) {
-            for (int x = 0; x < width; x+=5) {
+        // Count every decoded pixel to find color frequencies
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
                 int rgb = image.getRGB(x, y);
 
                 // Skip fully transparent pixels if the image has an alpha channel
@@ -180,18 +244,24 @@ public class AverageColorFinder {
      * @throws IOException If there is an error reading the image
      */
     public static String findDominantColorTop(String imagePath) throws IOException {
-        // Load the image
-        BufferedImage image = ImageIO.read(new File(imagePath));
+        // Load only the rows that are looked at
+        BufferedImage image = ImageDecoder.readTopRows(new File(imagePath), TOP_ROWS);
+        return findDominantColorTop(image);
+    }
 
+    /**
+     * Same as {@link #findDominantColorTop(String)} for an image that is already decoded.
+     */
+    public static String findDominantColorTop(BufferedImage image) {
+        long start = System.nanoTime();
         // Count color occurrences
         Map<Integer, Integer> colorCounts = new HashMap<>();
 
         int width = image.getWidth();
         int height = image.getHeight();
 
-        // Sample every pixel to find color frequencies
-        // For very large images, you might want to sample every nth pixel instead
-        for (int y = 0; y < 5; y++) {
+        // Sample every pixel of the top rows to find color frequencies
+        for (int y = 0; y < Math.min(TOP_ROWS, height); y++) {
             for (int x = 0; x < width; x++) {
                 int rgb = image.getRGB(x, y);
 
@@ -219,7 +289,249 @@ public class AverageColorFinder {
             }
         }
 
+        TOP_COLOR_TIME.recordSince(start);
         // Convert to hex
         return String.format("#%06X", dominantColor);
     }
-}
\ No newline at end of file
+
+    /**
+     * Extracts a multi-color palette with median cut over a downsampled 15-bit color histogram.
+     * Large covers are sampled with a stride and their histogram is built in parallel with fork/join.
+     *
+     * @param imagePath Path to the image file
+     * @param maxColors Maximum number of palette colors
+     * @return Palette ranked by population, with contrast-checked color pairs
+     * @throws IOException If there is an error reading the image
+     */
+    public static Palette findPalette(String imagePath, int maxColors) throws IOException {
+        // Decode with the same stride the histogram would use, so the result is the same as from the full image
+        BufferedImage image = ImageDecoder.readSampled(new File(imagePath), MAX_PALETTE_SAMPLES);
+        return findPalette(image, maxColors);
+    }
+
+    /**
+     * Same as {@link #findPalette(String, int)} for an image that is already decoded.
+     */
+    public static Palette findPalette(BufferedImage image, int maxColors) {
+        long start = System.nanoTime();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        // Downsample by reading every step-th pixel of every step-th row
+        int step = ImageDecoder.stepFor(width, height, MAX_PALETTE_SAMPLES);
+        HistogramTask task = new HistogramTask(image, 0, height, step);
+        int sampled = ((height + step - 1) / step) * ((width + step - 1) / step);
+        int[] histogram = sampled > PARALLEL_THRESHOLD ? ForkJoinPool.commonPool().invoke(task) : task.compute();
+
+        // Median cut: keep splitting the most populous box until there are enough colors
+        PriorityQueue<ColorBox> boxes = new PriorityQueue<>((a, b) -> Long.compare(b.population, a.population));
+        ColorBox whole = ColorBox.of(histogram, 0, 31, 0, 31, 0, 31);
+        if (whole.population > 0) {
+            boxes.add(whole);
+        }
+        List<ColorBox> done = new ArrayList<>();
+        while (!boxes.isEmpty() && boxes.size() + done.size() < maxColors) {
+            ColorBox box = boxes.poll();
+            ColorBox[] halves = box.split(histogram);
+            if (halves == null) {
+                done.add(box);
+                continue;
+            }
+            // Empty halves (all pixels on one side of the cut) are dropped
+            for (ColorBox half : halves) {
+                if (half.population > 0) {
+                    boxes.add(half);
+                }
+            }
+        }
+        done.addAll(boxes);
+
+        List<Swatch> swatches = new ArrayList<>();
+        for (ColorBox box : done) {
+            swatches.add(new Swatch(box.averageColor(histogram), (int) box.population));
+        }
+        swatches.sort((a, b) -> Integer.compare(b.population, a.population));
+
+        List<ColorPair> pairs = new ArrayList<>();
+        Palette palette = new Palette(Collections.unmodifiableList(swatches), pairs);
+        for (Swatch swatch : swatches) {
+            int foreground = palette.bestForeground(swatch.rgb);
+            pairs.add(new ColorPair(swatch.rgb, foreground, contrastRatio(foreground, swatch.rgb)));
+        }
+        PALETTE_TIME.recordSince(start);
+        return palette;
+    }
+
+    /**
+     * WCAG 2 contrast ratio between two colors, from 1:1 (identical) to 21:1 (black on white).
+     */
+    public static double contrastRatio(int rgb1, int rgb2) {
+        double l1 = relativeLuminance(rgb1);
+        double l2 = relativeLuminance(rgb2);
+        return (Math.max(l1, l2) + 0.05) / (Math.min(l1, l2) + 0.05);
+    }
+
+    private static double relativeLuminance(int rgb) {
+        return 0.2126 * linearize((rgb >> 16) & 0xFF)
+                + 0.7152 * linearize((rgb >> 8) & 0xFF)
+                + 0.0722 * linearize(rgb & 0xFF);
+    }
+
+    private static double linearize(int channel) {
+        double c = channel / 255.0;
+        return c <= 0.03928 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+
+    private static String toHex(int rgb) {
+        return String.format("#%06X", rgb & 0xFFFFFF);
+    }
+
+    /**
+     * Builds a 32x32x32 color histogram of the sampled rows, splitting the rows across fork/join workers.
+     */
+    private static class HistogramTask extends RecursiveTask<int[]> {
+        private static final long serialVersionUID = 1L;
+
+        private static final int ROWS_PER_TASK = 32;
+
+        private final BufferedImage image;
+        private final int fromRow;
+        private final int toRow;
+        private final int step;
+
+        HistogramTask(BufferedImage image, int fromRow, int toRow, int step) {
+            this.image = image;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.step = step;
+        }
+
+        @Override
+        protected int[] compute() {
+            int rows = (toRow - fromRow + step - 1) / step;
+            if (rows > ROWS_PER_TASK && getPool() != null) {
+                int mid = fromRow + (rows / 2) * step;
+                HistogramTask top = new HistogramTask(image, fromRow, mid, step);
+                HistogramTask bottom = new HistogramTask(image, mid, toRow, step);
+                top.fork();
+                int[] merged = bottom.compute();
+                int[] other = top.join();
+                for (int i = 0; i < merged.length; i++) {
+                    merged[i] += other[i];
+                }
+                return merged;
+            }
+
+            int width = image.getWidth();
+            int[] histogram = new int[32 * 32 * 32];
+            int[] row = new int[width];
+            for (int y = fromRow; y < toRow; y += step) {
+                image.getRGB(0, y, width, 1, row, 0, width);
+                for (int x = 0; x < width; x += step) {
+                    int rgb = row[x];
+                    // Skip fully transparent pixels if the image has an alpha channel
+                    if ((rgb >>> 24) == 0) {
+                        continue;
+                    }
+                    histogram[((rgb >> 9) & 0x7C00) | ((rgb >> 6) & 0x03E0) | ((rgb >> 3) & 0x001F)]++;
+                }
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * A box in the 5-bit-per-channel color cube, for median cut.
+     */
+    private static class ColorBox {
+        final int r1, r2, g1, g2, b1, b2;
+        final long population;
+
+        private ColorBox(int r1, int r2, int g1, int g2, int b1, int b2, long population) {
+            this.r1 = r1;
+            this.r2 = r2;
+            this.g1 = g1;
+            this.g2 = g2;
+            this.b1 = b1;
+            this.b2 = b2;
+            this.population = population;
+        }
+
+        static ColorBox of(int[] histogram, int r1, int r2, int g1, int g2, int b1, int b2) {
+            long population = 0;
+            for (int r = r1; r <= r2; r++) {
+                for (int g = g1; g <= g2; g++) {
+                    for (int b = b1; b <= b2; b++) {
+                        population += histogram[(r << 10) | (g << 5) | b];
+                    }
+                }
+            }
+            return new ColorBox(r1, r2, g1, g2, b1, b2, population);
+        }
+
+        /**
+         * Splits the box along its longest side at the population median.
+         *
+         * @return The two halves, or null if the box holds a single color
+         */
+        ColorBox[] split(int[] histogram) {
+            int rLen = r2 - r1;
+            int gLen = g2 - g1;
+            int bLen = b2 - b1;
+            if (rLen == 0 && gLen == 0 && bLen == 0) {
+                return null;
+            }
+            int axis = rLen >= gLen && rLen >= bLen ? 0 : (gLen >= bLen ? 1 : 2);
+            int lo = axis == 0 ? r1 : axis == 1 ? g1 : b1;
+            int hi = axis == 0 ? r2 : axis == 1 ? g2 : b2;
+
+            long half = population / 2;
+            long running = 0;
+            int cut = lo;
+            for (int v = lo; v < hi; v++) {
+                running += slice(histogram, axis, v);
+                cut = v;
+                if (running >= half) {
+                    break;
+                }
+            }
+            return switch (axis) {
+                case 0 -> new ColorBox[]{of(histogram, r1, cut, g1, g2, b1, b2), of(histogram, cut + 1, r2, g1, g2, b1, b2)};
+                case 1 -> new ColorBox[]{of(histogram, r1, r2, g1, cut, b1, b2), of(histogram, r1, r2, cut + 1, g2, b1, b2)};
+                default -> new ColorBox[]{of(histogram, r1, r2, g1, g2, b1, cut), of(histogram, r1, r2, g1, g2, cut + 1, b2)};
+            };
+        }
+
+        private long slice(int[] histogram, int axis, int v) {
+            long count = 0;
+            for (int r = axis == 0 ? v : r1; r <= (axis == 0 ? v : r2); r++) {
+                for (int g = axis == 1 ? v : g1; g <= (axis == 1 ? v : g2); g++) {
+                    for (int b = axis == 2 ? v : b1; b <= (axis == 2 ? v : b2); b++) {
+                        count += histogram[(r << 10) | (g << 5) | b];
+                    }
+                }
+            }
+            return count;
+        }
+
+        int averageColor(int[] histogram) {
+            long rSum = 0, gSum = 0, bSum = 0, total = 0;
+            for (int r = r1; r <= r2; r++) {
+                for (int g = g1; g <= g2; g++) {
+                    for (int b = b1; b <= b2; b++) {
+                        int count = histogram[(r << 10) | (g << 5) | b];
+                        total += count;
+                        // Use the center of each 8-wide histogram cell
+                        rSum += (long) count * ((r << 3) + 4);
+                        gSum += (long) count * ((g << 3) + 4);
+                        bSum += (long) count * ((b << 3) + 4);
+                    }
+                }
+            }
+            if (total == 0) {
+                return 0;
+            }
+            return ((int) (rSum / total) << 16) | ((int) (gSum / total) << 8) | (int) (bSum / total);
+        }
+    }
+}
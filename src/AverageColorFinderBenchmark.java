@@ -0,0 +1,113 @@
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Compares palette extraction against the existing single-color methods in AverageColorFinder.
+ *
+ * Usage: java AverageColorFinderBenchmark [image_path ...]
+ * Without arguments, synthetic covers of 500, 1500, 3000 and 4000 px are generated in the temp folder.
+ * Every method is timed end to end (decode included), after a warm-up, and reported in ms and MB
+ * allocated per call. The full analysis is also run on a full-resolution ImageIO decode, to show what
+ * decoding only the used pixels saves.
+ */
+public class AverageColorFinderBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 5;
+    private static final int MEASURED_ITERATIONS = 20;
+
+    private interface ColorMethod {
+        Object run(String imagePath) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> images = new ArrayList<>();
+        if (args.length > 0) {
+            images.addAll(List.of(args));
+        } else {
+            for (int size : new int[]{500, 1500, 3000, 4000}) {
+                images.add(createSyntheticCover(size).getAbsolutePath());
+            }
+        }
+
+        System.out.printf("%-12s %-30s %10s %10s%n", "Image", "Method", "ms/op", "MB/op");
+        for (String image : images) {
+            BufferedImage decoded = ImageIO.read(new File(image));
+            String label = decoded.getWidth() + "x" + decoded.getHeight();
+            time(label, "findAverageColor", AverageColorFinder::findAverageColor, image);
+            time(label, "findDominantColor", AverageColorFinder::findDominantColor, image);
+            time(label, "findDominantColorTop", AverageColorFinder::findDominantColorTop, image);
+            time(label, "findPalette (6 colors)", path -> AverageColorFinder.findPalette(path, 6), image);
+
+            // Same comparison without the decode, which dominates for large covers
+            time(label, "findPalette, pre-decoded", path -> AverageColorFinder.findPalette(decoded, 6), image);
+
+            // Whole cover analysis, from a full decode and through the subsampled/region decode
+            time(label, "analysis, full decode", path -> {
+                BufferedImage full = ImageIO.read(new File(path));
+                PixelStats.of(full).averageBrightness();
+                AverageColorFinder.findDominantColorTop(full);
+                return AverageColorFinder.findPalette(full, 6);
+            }, image);
+            time(label, "ArtworkAnalysis.analyze", path -> ArtworkAnalysis.analyze(new File(path)), image);
+        }
+    }
+
+    private static void time(String image, String name, ColorMethod method, String path) throws IOException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            method.run(path);
+        }
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            method.run(path);
+        }
+        double msPerOp = (System.nanoTime() - start) / 1e6 / MEASURED_ITERATIONS;
+        double mbPerOp = (allocatedBytes() - allocatedBefore) / 1048576.0 / MEASURED_ITERATIONS;
+        System.out.printf("%-12s %-30s %10.2f %10.1f%n", image, name, msPerOp, mbPerOp);
+    }
+
+    /**
+     * @return Bytes allocated by this thread so far (palette histograms built on the common pool are not
+     *         counted), or 0 where the JVM doesn't report it
+     */
+    private static long allocatedBytes() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean) {
+            return bean.getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    /**
+     * Draws a cover-like test image: a gradient background with a few solid shapes and some noise.
+     */
+    private static File createSyntheticCover(int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(30, 60, 120), size, size, new Color(220, 120, 40)));
+        g.fillRect(0, 0, size, size);
+        Random random = new Random(size);
+        for (int i = 0; i < 12; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            int w = size / 4 + random.nextInt(size / 4);
+            g.fillOval(random.nextInt(size), random.nextInt(size), w, w);
+        }
+        g.dispose();
+        for (int i = 0; i < size * size / 20; i++) {
+            image.setRGB(random.nextInt(size), random.nextInt(size), random.nextInt(0xFFFFFF));
+        }
+
+        File file = File.createTempFile("cover" + size + "_", ".png");
+        file.deleteOnExit();
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+}
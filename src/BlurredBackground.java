@@ -0,0 +1,155 @@
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Renders the player screen's blurred, darkened cover background on a background thread.
+ *
+ * The cover is decoded subsampled and stretched to a quarter of the pane's size, darkened like the
+ * theme's {@code ColorAdjust}, and blurred with a stack blur (a triangle kernel, done as two box
+ * passes per axis) that clamps at the edges, so there is no transparent fringe. The result is small
+ * and is scaled up to fill the pane; the blur hides the scaling.
+ */
+public final class BlurredBackground {
+
+    // The background is rendered at 1/SCALE of the pane size in each direction
+    private static final int SCALE = 4;
+
+    // Box radius of each pass; two passes at this scale come close to a GaussianBlur(30) at full size
+    private static final int BOX_RADIUS = 3;
+
+    // Enough source pixels for a quarter-size render of a large window
+    private static final int MAX_SOURCE_PIXELS = 256 * 256;
+
+    private static final Metrics.Histogram RENDER_TIME = Metrics.histogram("background.render");
+
+    // One low-priority thread; a newer track's background waits behind at most one render
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "background-blur");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private BlurredBackground() {
+    }
+
+    /**
+     * @param artwork    Cover image file
+     * @param width      Width of the pane the background fills
+     * @param height     Height of the pane the background fills
+     * @param brightness Average brightness of the cover in [0, 1], from its {@link ArtworkAnalysis}
+     * @return Future completed with the image, or exceptionally if the cover can't be read
+     */
+    public static CompletableFuture<WritableImage> renderAsync(File artwork, double width, double height,
+                                                               double brightness) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return render(artwork, width, height, brightness);
+            } catch (IOException e) {
+                throw new RuntimeException("Could not render background from " + artwork, e);
+            }
+        }, executor);
+    }
+
+    static WritableImage render(File artwork, double width, double height, double brightness) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage source = ImageDecoder.readSampled(artwork, MAX_SOURCE_PIXELS);
+        if (source == null) {
+            throw new IOException("Unsupported image format");
+        }
+        int w = Math.max(1, (int) Math.ceil(width / SCALE));
+        int h = Math.max(1, (int) Math.ceil(height / SCALE));
+
+        BufferedImage scaled = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(source, 0, 0, w, h, null);
+        g.dispose();
+        int[] pixels = scaled.getRGB(0, 0, w, h, null, 0, w);
+
+        // Very bright covers are darkened a little less but keep their saturation
+        if (brightness > 0.8) {
+            darken(pixels, -0.6, 0);
+        } else {
+            darken(pixels, -0.7, 0.3);
+        }
+        stackBlur(pixels, w, h, BOX_RADIUS);
+
+        WritableImage image = new WritableImage(w, h);
+        image.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels, 0, w);
+        RENDER_TIME.recordSince(start);
+        return image;
+    }
+
+    /**
+     * Applies brightness and saturation offsets the way {@code ColorAdjust} does: a negative offset scales
+     * the component down, a positive one moves it towards 1.
+     */
+    static void darken(int[] pixels, double brightness, double saturation) {
+        float[] hsb = new float[3];
+        for (int i = 0; i < pixels.length; i++) {
+            int rgb = pixels[i];
+            java.awt.Color.RGBtoHSB((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF, hsb);
+            hsb[1] = (float) adjust(hsb[1], saturation);
+            hsb[2] = (float) adjust(hsb[2], brightness);
+            pixels[i] = 0xFF000000 | java.awt.Color.HSBtoRGB(hsb[0], hsb[1], hsb[2]);
+        }
+    }
+
+    private static double adjust(double value, double offset) {
+        return offset < 0 ? value * (1 + offset) : value + (1 - value) * offset;
+    }
+
+    /**
+     * Blurs opaque ARGB pixels in place with a triangle kernel of radius 2 * radius.
+     */
+    static void stackBlur(int[] pixels, int width, int height, int radius) {
+        int[] buffer = new int[pixels.length];
+        for (int pass = 0; pass < 2; pass++) {
+            boxBlur(pixels, buffer, width, height, radius, true);
+            boxBlur(buffer, pixels, width, height, radius, false);
+        }
+    }
+
+    /**
+     * One box pass along rows (horizontal) or columns, with a running sum and edge pixels repeated.
+     */
+    private static void boxBlur(int[] in, int[] out, int width, int height, int radius, boolean horizontal) {
+        int lines = horizontal ? height : width;
+        int length = horizontal ? width : height;
+        int stride = horizontal ? 1 : width;
+        int window = 2 * radius + 1;
+        for (int line = 0; line < lines; line++) {
+            int base = horizontal ? line * width : line;
+            int r = 0;
+            int g = 0;
+            int b = 0;
+            for (int i = -radius; i <= radius; i++) {
+                int rgb = in[base + clamp(i, length) * stride];
+                r += (rgb >> 16) & 0xFF;
+                g += (rgb >> 8) & 0xFF;
+                b += rgb & 0xFF;
+            }
+            for (int i = 0; i < length; i++) {
+                out[base + i * stride] = 0xFF000000 | (r / window) << 16 | (g / window) << 8 | b / window;
+                int added = in[base + clamp(i + radius + 1, length) * stride];
+                int removed = in[base + clamp(i - radius, length) * stride];
+                r += ((added >> 16) & 0xFF) - ((removed >> 16) & 0xFF);
+                g += ((added >> 8) & 0xFF) - ((removed >> 8) & 0xFF);
+                b += (added & 0xFF) - (removed & 0xFF);
+            }
+        }
+    }
+
+    private static int clamp(int index, int length) {
+        return index < 0 ? 0 : Math.min(index, length - 1);
+    }
+}
@@ -0,0 +1,54 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Where the per-folder caches (cover store, waveform files) of a music folder live.
+ *
+ * By default they sit inside the music folder itself ({@code artwork/}, {@code waveforms/}), so each
+ * library root carries its own caches. With -Dcache.dir=<folder> they go to one central folder instead,
+ * with a subfolder per music folder ({@code <name>-<hash of its path>}). That keeps read-only or slow
+ * roots (a network share, a spinning disk) free of cache writes and puts all caches on the fastest disk.
+ */
+public final class CacheLocations {
+
+    private static final File centralDir = System.getProperty("cache.dir") == null
+            ? null : new File(System.getProperty("cache.dir")).getAbsoluteFile();
+
+    private CacheLocations() {
+    }
+
+    /**
+     * @return The central cache folder, or null if caches are kept per music folder
+     */
+    public static File getCentralDir() {
+        return centralDir;
+    }
+
+    /**
+     * @param musicFolder Folder containing audio files
+     * @return Folder the music folder's caches are kept under
+     */
+    public static File cacheRoot(File musicFolder) {
+        if (centralDir == null) {
+            return musicFolder;
+        }
+        File folder = musicFolder.getAbsoluteFile();
+        String name = folder.getName().isEmpty() ? "root" : folder.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        String key = ArtworkIndex.hash(folder.getPath().getBytes(StandardCharsets.UTF_8)).substring(0, 8);
+        return new File(centralDir, name + "-" + key);
+    }
+
+    /**
+     * @return The content-addressed cover store of a music folder
+     */
+    public static File artworkDir(File musicFolder) {
+        return new File(cacheRoot(musicFolder), "artwork");
+    }
+
+    /**
+     * @return The folder holding a music folder's waveform files
+     */
+    public static File waveformDir(File musicFolder) {
+        return new File(cacheRoot(musicFolder), "waveforms");
+    }
+}
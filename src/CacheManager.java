@@ -0,0 +1,353 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the on-disk caches of a music folder (see {@link CacheLocations}) consistent with the folder.
+ *
+ * Each cache file already validates itself when read: covers are named by the hash of the embedded image
+ * and mapped to tracks by size and modification time in the {@link ArtworkIndex}, and cover analyses
+ * ({@code .theme}) and waveforms ({@code .wave}) carry the size and modification time of their source. What
+ * those checks can't do is clean up: files of deleted tracks, covers no track uses any more and files in
+ * an old format stay on disk forever. This class adds:
+ *
+ * - a manifest per cache folder ({@code cache.manifest}) recording the format version of each kind of
+ *   file and when garbage was last collected. When a format version changes, every file of that kind is
+ *   known to be stale and is removed; without a manifest (caches from before it existed) file headers
+ *   are checked one by one.
+ * - a garbage collection pass that removes those stale files and orphans (waveforms and old per-track
+ *   covers of tracks that are gone, covers no index entry points to, analyses of missing covers, leftover
+ *   temp files). It runs on one low-priority thread, at most once a day per folder, and is limited to
+ *   -Dcache.gcRate file operations per second (default 100; 0 turns it off), so it never competes with
+ *   playback or the library scan for the disk.
+ *
+ * Files changed after a pass has started are never removed, so caches written while it runs are safe.
+ */
+public final class CacheManager {
+
+    private static final int MAGIC = 0x4F4D434D; // "OMCM"
+    private static final int VERSION = 1;
+
+    private static final long GC_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    // Temp files older than this belong to a write that was interrupted
+    private static final long TEMP_FILE_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    // Some file systems store modification times in whole (or even two) seconds
+    private static final long MTIME_SLACK_MILLIS = 2000;
+
+    private static final int GC_RATE = Integer.getInteger("cache.gcRate", 100);
+
+    /**
+     * Kinds of cache file with a versioned binary format, and the header that identifies it.
+     */
+    enum Kind {
+        THEME(ArtworkAnalysis.MAGIC, ArtworkAnalysis.VERSION),
+        WAVEFORM(WaveformData.MAGIC, WaveformData.VERSION);
+
+        final int magic;
+        final int version;
+
+        Kind(int magic, int version) {
+            this.magic = magic;
+            this.version = version;
+        }
+    }
+
+    private static final ExecutorService collector = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "cache-gc");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final File musicFolder;
+    private final File manifestFile;
+    private final RateLimiter limiter;
+
+    // Format versions of the files on disk, null while unknown (no manifest yet)
+    private final Map<Kind, Integer> versions = new EnumMap<>(Kind.class);
+    private long lastCollected = 0;
+
+    /**
+     * Result of one pass.
+     */
+    public static final class Stats {
+        public int orphans;
+        public int stale;
+        public int tempFiles;
+        public int indexEntries;
+        public long bytes;
+
+        @Override
+        public String toString() {
+            return String.format("%d orphans, %d stale, %d temp files, %d index entries, %.1f MB freed",
+                    orphans, stale, tempFiles, indexEntries, bytes / 1048576.0);
+        }
+    }
+
+    // Package-private so benchmarks and tools can run a pass directly at their own rate
+    CacheManager(File musicFolder, int opsPerSecond) {
+        this.musicFolder = musicFolder.getAbsoluteFile();
+        this.manifestFile = new File(CacheLocations.cacheRoot(this.musicFolder), "cache.manifest");
+        this.limiter = new RateLimiter(opsPerSecond);
+        load();
+    }
+
+    /**
+     * Queues a garbage collection pass for a music folder if it is due.
+     *
+     * @param musicFolder Folder whose caches to collect
+     * @param tracks      The folder's audio files, as just scanned; nothing is collected if this is empty,
+     *                    since an empty listing may just be an unmounted drive
+     */
+    public static void collectInBackground(File musicFolder, List<File> tracks) {
+        if (GC_RATE <= 0 || tracks.isEmpty()) {
+            return;
+        }
+        collector.execute(() -> {
+            CacheManager manager = new CacheManager(musicFolder, GC_RATE);
+            if (!manager.isDue()) {
+                return;
+            }
+            try {
+                Stats stats = manager.collect(tracks);
+                Log.info("Cache cleanup of %s: %s", musicFolder, stats);
+            } catch (IOException e) {
+                Log.warn("Cache cleanup of %s failed: %s", musicFolder, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * @return Whether a pass is due: the last one was over a day ago, or some format changed since
+     */
+    boolean isDue() {
+        for (Kind kind : Kind.values()) {
+            Integer version = versions.get(kind);
+            if (version == null || version != kind.version) {
+                return true;
+            }
+        }
+        return System.currentTimeMillis() - lastCollected >= GC_INTERVAL_MILLIS;
+    }
+
+    /**
+     * Runs one pass over the folder's caches and records it in the manifest.
+     *
+     * @param tracks The folder's audio files
+     * @return What was removed
+     */
+    Stats collect(List<File> tracks) throws IOException {
+        long started = System.currentTimeMillis();
+        Stats stats = new Stats();
+
+        Set<String> trackNames = new HashSet<>(tracks.size() * 2);
+        Set<String> baseNames = new HashSet<>(tracks.size() * 2);
+        for (File track : tracks) {
+            String name = track.getName();
+            trackNames.add(name);
+            int dot = name.lastIndexOf('.');
+            baseNames.add(dot > 0 ? name.substring(0, dot) : name);
+        }
+
+        // Covers: forget tracks that are gone, then drop covers nobody points to
+        File artworkDir = CacheLocations.artworkDir(musicFolder);
+        ArtworkIndex index = ArtworkIndex.forDirectory(artworkDir);
+        Set<String> referenced = new HashSet<>();
+        stats.indexEntries = index.retain(trackNames, referenced);
+        index.save();
+        String[] artworkFiles = list(artworkDir);
+        Set<String> covers = new HashSet<>();
+        for (String name : artworkFiles) {
+            File file = new File(artworkDir, name);
+            if (name.endsWith(".tmp")) {
+                deleteTemp(file, started, stats);
+            } else if (name.endsWith(".png")) {
+                String baseName = name.substring(0, name.length() - ".png".length());
+                // Content-named covers are kept while referenced; old per-track covers while their track
+                // exists (migration moves those into the store)
+                boolean used = ArtworkIndex.isHashName(name) ? referenced.contains(baseName) : baseNames.contains(baseName);
+                if (used || !delete(file, started, stats, false)) {
+                    covers.add(baseName);
+                }
+            }
+        }
+        for (String name : artworkFiles) {
+            if (name.endsWith(".theme")) {
+                File file = new File(artworkDir, name);
+                if (!covers.contains(name.substring(0, name.length() - ".theme".length()))) {
+                    delete(file, started, stats, false);
+                } else if (isStale(file, Kind.THEME)) {
+                    delete(file, started, stats, true);
+                }
+            }
+        }
+
+        // Waveforms are named after their track
+        File waveformDir = CacheLocations.waveformDir(musicFolder);
+        for (String name : list(waveformDir)) {
+            File file = new File(waveformDir, name);
+            if (name.endsWith(".tmp")) {
+                deleteTemp(file, started, stats);
+            } else if (name.endsWith(".wave")) {
+                if (!baseNames.contains(name.substring(0, name.length() - ".wave".length()))) {
+                    delete(file, started, stats, false);
+                } else if (isStale(file, Kind.WAVEFORM)) {
+                    delete(file, started, stats, true);
+                }
+            }
+        }
+
+        for (Kind kind : Kind.values()) {
+            versions.put(kind, kind.version);
+        }
+        lastCollected = started;
+        save();
+        return stats;
+    }
+
+    /**
+     * Whether a cache file is in an older format: certain if the manifest recorded a different version,
+     * unknown without a manifest (then the header is read), and never if the versions match.
+     */
+    private boolean isStale(File file, Kind kind) {
+        Integer version = versions.get(kind);
+        if (version != null) {
+            return version != kind.version;
+        }
+        limiter.acquire();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file.toPath()))) {
+            return in.readInt() != kind.magic || in.readUnsignedByte() != kind.version;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void deleteTemp(File file, long started, Stats stats) {
+        limiter.acquire();
+        if (started - file.lastModified() >= TEMP_FILE_AGE_MILLIS) {
+            long length = file.length();
+            if (file.delete()) {
+                stats.tempFiles++;
+                stats.bytes += length;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the file was deleted
+     */
+    private boolean delete(File file, long started, Stats stats, boolean stale) {
+        limiter.acquire();
+        // Written (or rewritten) since the pass started: it belongs to a track we didn't know about yet
+        long modified = file.lastModified();
+        if (modified == 0 || modified >= started - MTIME_SLACK_MILLIS) {
+            return false;
+        }
+        long length = file.length();
+        limiter.acquire();
+        if (!file.delete()) {
+            return false;
+        }
+        if (stale) {
+            stats.stale++;
+        } else {
+            stats.orphans++;
+        }
+        stats.bytes += length;
+        return true;
+    }
+
+    private String[] list(File dir) {
+        limiter.acquire();
+        String[] names = dir.list();
+        return names == null ? new String[0] : names;
+    }
+
+    private void load() {
+        if (!manifestFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return;
+            }
+            lastCollected = in.readLong();
+            int count = in.readUnsignedByte();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                int version = in.readInt();
+                for (Kind kind : Kind.values()) {
+                    if (kind.name().equals(name)) {
+                        versions.put(kind, version);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Without a manifest the next pass checks file headers instead
+            Log.warn("Could not read cache manifest: %s", e.getMessage());
+            versions.clear();
+        }
+    }
+
+    private void save() throws IOException {
+        Path target = manifestFile.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.createDirectories(target.getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(lastCollected);
+            out.writeByte(versions.size());
+            for (Map.Entry<Kind, Integer> e : versions.entrySet()) {
+                out.writeUTF(e.getKey().name());
+                out.writeInt(e.getValue());
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Spaces file operations evenly at a fixed rate by sleeping before each one.
+     */
+    private static final class RateLimiter {
+        private final long intervalNanos;
+        private long next = System.nanoTime();
+
+        RateLimiter(int opsPerSecond) {
+            this.intervalNanos = opsPerSecond <= 0 ? 0 : TimeUnit.SECONDS.toNanos(1) / opsPerSecond;
+        }
+
+        void acquire() {
+            if (intervalNanos == 0) {
+                return;
+            }
+            long now = System.nanoTime();
+            // Time not used while idle isn't saved up for a burst later
+            next = Math.max(next, now) + intervalNanos;
+            long wait = next - intervalNanos - now;
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
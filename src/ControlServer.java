@@ -0,0 +1,319 @@
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.AclEntry;
+import java.nio.file.attribute.AclEntryPermission;
+import java.nio.file.attribute.AclEntryType;
+import java.nio.file.attribute.AclFileAttributeView;
+import java.nio.file.attribute.FileOwnerAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Local control socket of the {@link PlaybackDaemon}. The protocol is plain text: the client sends one
+ * command per line and gets one reply line per command, starting with {@code OK} or {@code ERR}, so it
+ * can be driven by hand with {@code nc -U offlinemusic.sock} or {@code java PlaybackDaemon status}.
+ *
+ * It listens on a Unix-domain socket (-Ddaemon.socket, default {@code offlinemusic.sock} in the working
+ * directory), which only the owner can connect to. Where those aren't available, or when -Ddaemon.port
+ * is set, it listens on that port (default 47390) on the loopback interface instead. Any local user (and
+ * any web page, through the browser) can reach that port, so there the first line must be
+ * {@code auth <token>}, with the random token the daemon writes to a file only its owner can read
+ * (-Ddaemon.token, default {@code offlinemusic.token}). A connection whose first line isn't that, such
+ * as an HTTP request, is closed without running anything. {@link #send} does this itself.
+ *
+ * Each client gets its own thread; there are only ever a few (scripts, a status check).
+ */
+public final class ControlServer implements Closeable {
+
+    private static final int DEFAULT_PORT = 47390;
+    private static final int TOKEN_BYTES = 32;
+
+    // Longer lines are cut off; no command needs more than a file path
+    private static final int MAX_LINE = 4096;
+
+    private final ServerSocketChannel server;
+    private final Path socketFile;
+    // Required first line on the loopback port, or null on a Unix-domain socket
+    private final byte[] token;
+    private final Function<String, String> handler;
+    private volatile boolean closed = false;
+
+    private ControlServer(ServerSocketChannel server, Path socketFile, byte[] token,
+                          Function<String, String> handler) {
+        this.server = server;
+        this.socketFile = socketFile;
+        this.token = token;
+        this.handler = handler;
+    }
+
+    /**
+     * Binds the configured address and starts accepting clients.
+     *
+     * @param handler Turns a command line into its reply line (without the line break); called on the
+     *                client's thread. An exception becomes an {@code ERR} reply.
+     * @throws IOException If the address is taken, e.g. by a daemon that is already running
+     */
+    public static ControlServer start(Function<String, String> handler) throws IOException {
+        ControlServer control;
+        Path socketFile = socketPath();
+        if (socketFile != null) {
+            ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            if (Files.exists(socketFile)) {
+                removeStaleSocket(socketFile);
+            }
+            channel.bind(UnixDomainSocketAddress.of(socketFile));
+            try {
+                Files.setPosixFilePermissions(socketFile, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException e) {
+                // Not a POSIX file system (Windows); the socket keeps the folder's permissions
+            }
+            control = new ControlServer(channel, socketFile, null, handler);
+            Log.info("Control socket listening on %s", socketFile.toAbsolutePath());
+        } else {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port()));
+            String token;
+            try {
+                token = writeToken();
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            control = new ControlServer(channel, null, token.getBytes(StandardCharsets.UTF_8), handler);
+            Log.info("Control socket listening on %s, token in %s", channel.getLocalAddress(),
+                    tokenPath().toAbsolutePath());
+        }
+        Thread acceptor = new Thread(control::acceptLoop, "control-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return control;
+    }
+
+    /**
+     * Sends one command to a running daemon at the configured address.
+     *
+     * @return The reply line
+     * @throws IOException If no daemon is listening, or its token file can't be read
+     */
+    public static String send(String command) throws IOException {
+        Path socketFile = socketPath();
+        SocketAddress address = socketFile != null ? UnixDomainSocketAddress.of(socketFile)
+                : new InetSocketAddress(InetAddress.getLoopbackAddress(), port());
+        String auth = socketFile != null ? null : "auth " + Files.readString(tokenPath(), StandardCharsets.UTF_8).trim();
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel),
+                    StandardCharsets.UTF_8));
+            if (auth != null) {
+                out.write(auth + "\n");
+                out.flush();
+                String reply = in.readLine();
+                if (reply == null || !reply.startsWith("OK")) {
+                    return reply != null ? reply : "ERR connection closed";
+                }
+            }
+            out.write(command + "\n");
+            out.flush();
+            String reply = in.readLine();
+            return reply != null ? reply : "ERR connection closed";
+        }
+    }
+
+    /**
+     * Stops accepting clients and removes the socket or token file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+            if (socketFile != null) {
+                Files.deleteIfExists(socketFile);
+            }
+            if (token != null) {
+                Files.deleteIfExists(tokenPath());
+            }
+        } catch (IOException e) {
+            Log.warn("Could not close the control socket: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * @return Path of the Unix-domain socket, or null to use the loopback port
+     */
+    private static Path socketPath() {
+        if (System.getProperty("daemon.port") != null) {
+            return null;
+        }
+        try {
+            // Fails where the platform has no Unix-domain sockets
+            SocketChannel.open(StandardProtocolFamily.UNIX).close();
+        } catch (UnsupportedOperationException | IOException e) {
+            return null;
+        }
+        return Paths.get(System.getProperty("daemon.socket", "offlinemusic.sock"));
+    }
+
+    private static int port() {
+        return Integer.getInteger("daemon.port", DEFAULT_PORT);
+    }
+
+    private static Path tokenPath() {
+        return Paths.get(System.getProperty("daemon.token", "offlinemusic.token"));
+    }
+
+    /**
+     * Writes a new random token to the token file, readable by the owner only. On POSIX file systems the
+     * file is created with those permissions; elsewhere its ACL is replaced by a single entry for the
+     * owner before the token is written into it.
+     *
+     * @return The token
+     */
+    private static String writeToken() throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        String token = HexFormat.of().formatHex(random);
+
+        Path file = tokenPath().toAbsolutePath();
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        try {
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(temp);
+            AclFileAttributeView acl = Files.getFileAttributeView(temp, AclFileAttributeView.class);
+            if (acl == null) {
+                Files.delete(temp);
+                throw new IOException("Cannot restrict access to " + file + " on this file system");
+            }
+            acl.setAcl(List.of(AclEntry.newBuilder()
+                    .setType(AclEntryType.ALLOW)
+                    .setPrincipal(Files.getFileAttributeView(temp, FileOwnerAttributeView.class).getOwner())
+                    .setPermissions(EnumSet.allOf(AclEntryPermission.class))
+                    .build()));
+        }
+        Files.writeString(temp, token, StandardCharsets.UTF_8);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return token;
+    }
+
+    /**
+     * A socket file is left behind when a daemon is killed. It's only removed if nothing answers on it.
+     */
+    private static void removeStaleSocket(Path socketFile) throws IOException {
+        boolean live;
+        try {
+            SocketChannel.open(UnixDomainSocketAddress.of(socketFile)).close();
+            live = true;
+        } catch (IOException e) {
+            live = false;
+        }
+        if (live) {
+            throw new IOException("A daemon is already listening on " + socketFile);
+        }
+        Files.deleteIfExists(socketFile);
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                SocketChannel client = server.accept();
+                Thread thread = new Thread(() -> serve(client), "control-client");
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    Log.warn("Control socket stopped accepting: %s", e.getMessage());
+                }
+                return;
+            }
+        }
+    }
+
+    private void serve(SocketChannel client) {
+        try (client) {
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client),
+                    StandardCharsets.UTF_8));
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(client), StandardCharsets.UTF_8);
+            if (token != null && !authenticate(readLine(in))) {
+                // Nothing has run; drop the connection rather than answering whatever follows
+                out.write("ERR unauthorized\n");
+                out.flush();
+                Log.warn("Rejected an unauthenticated control connection");
+                return;
+            }
+            if (token != null) {
+                out.write("OK\n");
+                out.flush();
+            }
+            String line;
+            while ((line = readLine(in)) != null) {
+                line = line.trim();
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String reply;
+                try {
+                    reply = handler.apply(line);
+                } catch (RuntimeException e) {
+                    reply = "ERR " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+                }
+                out.write(reply.replace('\n', ' ') + "\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            Log.debug("Control client disconnected: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * @param line First line from a loopback client, or null if it sent none
+     * @return Whether it is {@code auth} with this daemon's token
+     */
+    private boolean authenticate(String line) {
+        if (line == null || !line.startsWith("auth ")) {
+            return false;
+        }
+        // Constant-time comparison, so the token can't be guessed byte by byte from reply timings
+        return MessageDigest.isEqual(token, line.substring(5).trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Like {@link BufferedReader#readLine}, but keeps at most MAX_LINE characters of a line.
+     */
+    private static String readLine(BufferedReader in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                return line.toString();
+            }
+            if (c != '\r' && line.length() < MAX_LINE) {
+                line.append((char) c);
+            }
+        }
+        return line.length() > 0 ? line.toString() : null;
+    }
+}
@@ -0,0 +1,231 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Reads an MP3's duration from its headers instead of decoding it, so the library can show track lengths
+ * before a track has ever been played.
+ *
+ * Only a few KB are read per file: the ID3v2 header (to skip the tag, which may hold a large cover), then
+ * a window at the start of the audio holding the first MPEG frame. If that frame carries a Xing/Info or
+ * VBRI header, the duration comes from its frame count, minus the encoder delay and padding from a LAME
+ * tag when there is one. Otherwise the file is taken to be CBR and the duration is estimated from the
+ * audio size and the first frame's bitrate.
+ *
+ * Other formats are not probed; their duration is filled in when they are first played.
+ * Thread-safe; meant to be run over the whole library on the library roots' worker pools.
+ */
+public final class DurationProbe {
+
+    // Bytes searched for the first frame after the ID3v2 tag (covers leading junk and the Xing/LAME header)
+    private static final int WINDOW = 8 * 1024;
+
+    // Bitrates in kbps by [MPEG-1 ? 0 : 1][layer - 1][index]
+    private static final int[][][] BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    // One read buffer per worker thread
+    private static final ThreadLocal<ByteBuffer> buffers = ThreadLocal.withInitial(() -> ByteBuffer.allocate(WINDOW));
+
+    private DurationProbe() {
+    }
+
+    /**
+     * @param file Audio file
+     * @return Duration in milliseconds, or {@link TrackStore#UNKNOWN} if the file isn't an MP3 or has no
+     *         readable frame
+     */
+    public static int probe(File file) {
+        if (!file.getName().toLowerCase(Locale.ROOT).endsWith(".mp3")) {
+            return TrackStore.UNKNOWN;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return probe(channel);
+        } catch (IOException e) {
+            Log.debug("Could not probe the duration of %s: %s", file, e.getMessage());
+            return TrackStore.UNKNOWN;
+        }
+    }
+
+    private static int probe(FileChannel channel) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer = buffers.get();
+
+        // Skip the ID3v2 tag: 10-byte header with a syncsafe size, plus a 10-byte footer if flagged
+        long audioStart = 0;
+        if (read(channel, buffer, 0, 10) == 10 && buffer.get(0) == 'I' && buffer.get(1) == 'D' && buffer.get(2) == '3') {
+            audioStart = 10 + ((buffer.get(6) & 0x7F) << 21 | (buffer.get(7) & 0x7F) << 14
+                    | (buffer.get(8) & 0x7F) << 7 | (buffer.get(9) & 0x7F));
+            if ((buffer.get(5) & 0x10) != 0) {
+                audioStart += 10;
+            }
+        }
+
+        // ID3v1 tag at the very end
+        long audioEnd = size;
+        if (size - audioStart >= 128 && read(channel, buffer, size - 128, 3) == 3
+                && buffer.get(0) == 'T' && buffer.get(1) == 'A' && buffer.get(2) == 'G') {
+            audioEnd -= 128;
+        }
+
+        int length = read(channel, buffer, audioStart, WINDOW);
+        for (int i = 0; i + 4 <= length; i++) {
+            int header = buffer.getInt(i);
+            int frameBytes = frameLength(header);
+            if (frameBytes <= 0) {
+                continue;
+            }
+            // A lone sync pattern can occur in junk; require the next frame to match when it's in the window
+            int next = i + frameBytes;
+            if (next + 4 <= length && !sameStream(header, buffer.getInt(next))) {
+                continue;
+            }
+            return duration(buffer, i, length, header, audioEnd - (audioStart + i));
+        }
+        return TrackStore.UNKNOWN;
+    }
+
+    /**
+     * Duration from a Xing/Info or VBRI header in the first frame if there is one, else a CBR estimate.
+     *
+     * @param frame      Offset of the first frame in the buffer
+     * @param length     Bytes in the buffer
+     * @param audioBytes Bytes from the first frame to the end of the audio
+     */
+    private static int duration(ByteBuffer buffer, int frame, int length, int header, long audioBytes) {
+        boolean mpeg1 = version(header) == 3;
+        boolean mono = ((header >>> 6) & 3) == 3;
+        int layer = layer(header);
+        int sampleRate = sampleRate(header);
+        int samplesPerFrame = layer == 1 ? 384 : (layer == 3 && !mpeg1 ? 576 : 1152);
+
+        // Xing (VBR) or Info (CBR written by LAME) follows the side information
+        int xing = frame + 4 + (mpeg1 ? (mono ? 17 : 32) : (mono ? 9 : 17));
+        if (xing + 16 <= length) {
+            int tag = buffer.getInt(xing);
+            int flags = buffer.getInt(xing + 4);
+            if ((tag == 0x58696E67 || tag == 0x496E666F) && (flags & 1) != 0) {
+                long samples = (buffer.getInt(xing + 8) & 0xFFFFFFFFL) * samplesPerFrame;
+                // The LAME tag follows the optional fields the flags announce: frames, bytes, TOC and quality
+                int lame = xing + 8 + ((flags & 1) != 0 ? 4 : 0) + ((flags & 2) != 0 ? 4 : 0)
+                        + ((flags & 4) != 0 ? 100 : 0) + ((flags & 8) != 0 ? 4 : 0);
+                // LAME tag: 12-bit encoder delay and 12-bit padding, 21 bytes in
+                if (lame + 24 <= length && isLameTag(buffer, lame)) {
+                    int delay = (buffer.get(lame + 21) & 0xFF) << 4 | (buffer.get(lame + 22) & 0xF0) >> 4;
+                    int padding = (buffer.get(lame + 22) & 0x0F) << 8 | (buffer.get(lame + 23) & 0xFF);
+                    if (samples > delay + padding) {
+                        samples -= delay + padding;
+                    }
+                }
+                if (samples > 0) {
+                    return (int) Math.min(Integer.MAX_VALUE, samples * 1000 / sampleRate);
+                }
+            }
+        }
+
+        // VBRI (Fraunhofer) sits at a fixed 32 bytes after the header
+        int vbri = frame + 36;
+        if (vbri + 18 <= length && buffer.getInt(vbri) == 0x56425249) {
+            long frames = buffer.getInt(vbri + 14) & 0xFFFFFFFFL;
+            if (frames > 0) {
+                return (int) Math.min(Integer.MAX_VALUE, frames * samplesPerFrame * 1000 / sampleRate);
+            }
+        }
+
+        // CBR: kbps is bits per millisecond
+        int kbps = bitrate(header);
+        return (int) Math.min(Integer.MAX_VALUE, audioBytes * 8 / kbps);
+    }
+
+    private static boolean isLameTag(ByteBuffer buffer, int at) {
+        int id = buffer.getInt(at);
+        // "LAME", or "Lavf"/"Lavc" from FFmpeg's LAME-compatible tag
+        return id == 0x4C414D45 || (id & 0xFFFFFF00) == 0x4C617600;
+    }
+
+    /**
+     * @return Frame size in bytes, or 0 if the header isn't a valid Layer I-III frame header
+     */
+    private static int frameLength(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000 || version(header) == 1 || layer(header) == 0) {
+            return 0;
+        }
+        int bitrateIndex = (header >>> 12) & 0xF;
+        if (bitrateIndex == 0 || bitrateIndex == 15 || ((header >>> 10) & 3) == 3) {
+            // Free-format streams have no fixed frame size to estimate from
+            return 0;
+        }
+        int bitrate = bitrate(header) * 1000;
+        int sampleRate = sampleRate(header);
+        int padding = (header >>> 9) & 1;
+        int layer = layer(header);
+        if (layer == 1) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        }
+        boolean mpeg1 = version(header) == 3;
+        return (layer == 3 && !mpeg1 ? 72 : 144) * bitrate / sampleRate + padding;
+    }
+
+    private static boolean sameStream(int header, int next) {
+        // Sync, version, layer and sample rate stay the same from frame to frame
+        return frameLength(next) > 0 && (header & 0xFFFE0C00) == (next & 0xFFFE0C00);
+    }
+
+    /**
+     * @return 3 for MPEG-1, 2 for MPEG-2, 0 for MPEG-2.5 (1 is reserved)
+     */
+    private static int version(int header) {
+        return (header >>> 19) & 3;
+    }
+
+    /**
+     * @return Layer 1-3, or 0 if reserved
+     */
+    private static int layer(int header) {
+        int bits = (header >>> 17) & 3;
+        return bits == 0 ? 0 : 4 - bits;
+    }
+
+    private static int bitrate(int header) {
+        return BITRATES[version(header) == 3 ? 0 : 1][layer(header) - 1][(header >>> 12) & 0xF];
+    }
+
+    private static int sampleRate(int header) {
+        int rate = SAMPLE_RATES[(header >>> 10) & 3];
+        return switch (version(header)) {
+            case 3 -> rate;
+            case 2 -> rate / 2;
+            default -> rate / 4;
+        };
+    }
+
+    /**
+     * Reads up to count bytes at a position into the start of the buffer.
+     *
+     * @return Bytes read
+     */
+    private static int read(FileChannel channel, ByteBuffer buffer, long position, int count) throws IOException {
+        buffer.clear().limit(count);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+}
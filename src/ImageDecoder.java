@@ -0,0 +1,165 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Decodes only the pixels of an image that are going to be used.
+ *
+ * {@link ImageIO#read} always decodes the whole image, so a 4000x4000 cover costs 64 MB of pixels even
+ * when analysis then looks at every 16th one or at the top few rows. These methods read the size from the
+ * header first and let the {@link ImageReader} skip the rest while decoding: a source subsampling (stride)
+ * keeps every n-th pixel of every n-th row, and a source region keeps a rectangle. The decoded image is
+ * the size of what is kept. The PNG reader keeps inflating to the end of the file after the region is
+ * done, so a region decode of a PNG is stopped as soon as its last row has been delivered.
+ *
+ * All methods return null if no installed reader recognizes the format, like {@link ImageIO#read}.
+ */
+public final class ImageDecoder {
+
+    private static final String PNG_METADATA = "javax_imageio_png_1.0";
+
+    private interface ParamSetter {
+        void configure(ImageReadParam param, int width, int height);
+    }
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Stride that brings an image down to at most about maxPixels pixels.
+     *
+     * @return Keep every step-th pixel of every step-th row (1 keeps all)
+     */
+    public static int stepFor(int width, int height, int maxPixels) {
+        return (int) Math.max(1, Math.ceil(Math.sqrt((double) width * height / maxPixels)));
+    }
+
+    /**
+     * @param file      Image file
+     * @param maxPixels Upper bound on the decoded pixel count (see {@link #stepFor})
+     * @return The image, subsampled with an even stride if it is larger than maxPixels
+     */
+    public static BufferedImage readSampled(File file, int maxPixels) throws IOException {
+        return decode(file, (param, width, height) -> subsample(param, stepFor(width, height, maxPixels)));
+    }
+
+    /**
+     * @param file Image file
+     * @param step Keep every step-th pixel of every step-th row, starting at (0, 0)
+     */
+    public static BufferedImage readStride(File file, int step) throws IOException {
+        return decode(file, (param, width, height) -> subsample(param, step));
+    }
+
+    /**
+     * @param file Image file
+     * @param rows Number of rows to decode, at full resolution
+     * @return The top rows of the image (fewer if the image is shorter)
+     */
+    public static BufferedImage readTopRows(File file, int rows) throws IOException {
+        return decode(file, (param, width, height) ->
+                param.setSourceRegion(new Rectangle(0, 0, width, Math.min(rows, height))));
+    }
+
+    /**
+     * @param data    Encoded image, e.g. an embedded cover
+     * @param maxEdge Longest edge to keep; larger images are subsampled with the smallest stride that fits
+     */
+    public static BufferedImage readFitting(byte[] data, int maxEdge) throws IOException {
+        return decode(new ByteArrayInputStream(data),
+                (param, width, height) -> subsample(param, (Math.max(width, height) + maxEdge - 1) / maxEdge));
+    }
+
+    /**
+     * Aborts a read once the last row of the destination image has been filled. An aborted read still
+     * returns the image.
+     */
+    private static final class StopAfterLastRow implements IIOReadUpdateListener {
+        @Override
+        public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int width, int height,
+                                int periodX, int periodY, int[] bands) {
+            if (minY + height >= image.getHeight()) {
+                source.abort();
+            }
+        }
+
+        @Override
+        public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass,
+                                int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void passComplete(ImageReader source, BufferedImage image) {
+        }
+
+        @Override
+        public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass,
+                                         int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY, int width,
+                                    int height, int periodX, int periodY, int[] bands) {
+        }
+
+        @Override
+        public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+        }
+    }
+
+    /**
+     * Whether rows arrive top to bottom in one pass and the reader doesn't stop by itself after the source
+     * region. Interlaced PNGs fill the whole image in every pass, so they can't be stopped early; JPEG
+     * readers already stop after the region.
+     */
+    private static boolean needsEarlyStop(ImageReader reader) throws IOException {
+        if (!reader.getFormatName().equalsIgnoreCase("png")) {
+            return false;
+        }
+        IIOMetadata metadata = reader.getImageMetadata(0);
+        Node ihdr = metadata == null ? null : metadata.getAsTree(PNG_METADATA).getFirstChild();
+        return ihdr instanceof Element header && header.getNodeName().equals("IHDR")
+                && header.getAttribute("interlaceMethod").equals("none");
+    }
+
+    private static void subsample(ImageReadParam param, int step) {
+        if (step > 1) {
+            param.setSourceSubsampling(step, step, 0, 0);
+        }
+    }
+
+    private static BufferedImage decode(Object input, ParamSetter setter) throws IOException {
+        try (ImageInputStream stream = ImageIO.createImageInputStream(input)) {
+            if (stream == null) {
+                throw new IOException("Can't open image: " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                setter.configure(param, reader.getWidth(0), reader.getHeight(0));
+                if (param.getSourceRegion() != null && needsEarlyStop(reader)) {
+                    reader.addIIOReadUpdateListener(new StopAfterLastRow());
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.scene.image.Image;
+
+import java.io.File;
+import java.lang.ref.SoftReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Loads and caches the app's JavaFX images under one global memory budget.
+ *
+ * Images are decoded at the size they are shown at (not at the cover's full resolution) and in the
+ * background, using JavaFX's own background-loading Image constructor. Every decoded image is counted
+ * as width * height * 4 bytes. Once the total goes over the budget, the least recently used images are
+ * evicted softly: the cache stops holding them strongly but keeps a SoftReference, so an image that is
+ * still on screen (or that the GC hasn't needed to collect) can be picked up again without a decode.
+ *
+ * Not thread-safe: use from the JavaFX application thread only.
+ */
+public class ImageService {
+
+    private static final long DEFAULT_BUDGET_BYTES = 64L * 1024 * 1024;
+
+    private final long budgetBytes;
+    private long residentBytes = 0;
+
+    // Strongly held images in access order, with their decoded size (0 while still loading)
+    private final LinkedHashMap<String, Image> resident = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, Long> sizes = new HashMap<>();
+    private final Map<String, SoftReference<Image>> evicted = new HashMap<>();
+
+    private long hits = 0;
+    private long softHits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Creates a service with the budget from -DimageBudgetMb, or 64 MB.
+     */
+    public ImageService() {
+        this(Long.getLong("imageBudgetMb", DEFAULT_BUDGET_BYTES / (1024 * 1024)) * 1024 * 1024);
+    }
+
+    public ImageService(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+    }
+
+    /**
+     * Returns an image decoded to fit in the given size (aspect ratio preserved). Cached images are
+     * returned immediately; otherwise decoding starts in the background and the returned image fills
+     * in when it is done (see {@link #whenLoaded}).
+     *
+     * @param file   Image file
+     * @param width  Width the image is shown at
+     * @param height Height the image is shown at
+     * @return The image, possibly still loading
+     */
+    public Image load(File file, double width, double height) {
+        String key = file.getAbsolutePath() + '@' + (int) width + 'x' + (int) height;
+        Image image = resident.get(key);
+        if (image != null) {
+            hits++;
+            return image;
+        }
+        SoftReference<Image> ref = evicted.remove(key);
+        image = ref == null ? null : ref.get();
+        if (image != null) {
+            softHits++;
+            put(key, image);
+            return image;
+        }
+
+        misses++;
+        Image loading = new Image(file.toURI().toString(), width, height, true, true, true);
+        resident.put(key, loading);
+        sizes.put(key, 0L);
+        whenLoaded(loading, () -> {
+            if (loading.isError()) {
+                remove(key);
+            } else if (resident.get(key) == loading) {
+                account(key, loading);
+            }
+        });
+        return loading;
+    }
+
+    /**
+     * Counts an image the app created itself (such as a rendered snapshot) against the budget.
+     * Registering a new image under the same key releases the previous one.
+     *
+     * @param key   Name of the image slot, e.g. "background"
+     * @param image Fully rendered image
+     */
+    public void register(String key, Image image) {
+        remove(key);
+        put(key, image);
+    }
+
+    /**
+     * Stops counting an image registered with {@link #register}, e.g. when it is no longer shown.
+     */
+    public void release(String key) {
+        remove(key);
+    }
+
+    /**
+     * Runs an action on the FX thread once an image has finished loading (or failed), or right away
+     * if it already has.
+     */
+    public static void whenLoaded(Image image, Runnable action) {
+        if (image.getProgress() >= 1.0 || image.isError()) {
+            action.run();
+            return;
+        }
+        // A load that fails can stop short of full progress, so the error flag is watched too; whichever
+        // fires first runs the action and removes the listener from both
+        InvalidationListener listener = new InvalidationListener() {
+            private boolean done = false;
+
+            @Override
+            public void invalidated(Observable observable) {
+                if (done || (image.getProgress() < 1.0 && !image.isError())) {
+                    return;
+                }
+                done = true;
+                image.progressProperty().removeListener(this);
+                image.errorProperty().removeListener(this);
+                action.run();
+            }
+        };
+        image.progressProperty().addListener(listener);
+        image.errorProperty().addListener(listener);
+    }
+
+    /**
+     * @return Decoded bytes of the images currently held strongly
+     */
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public int getResidentCount() {
+        return resident.size();
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return Requests served from a softly evicted image the GC hadn't collected yet
+     */
+    public long getSoftHits() {
+        return softHits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return One-line summary of the cache metrics
+     */
+    public String describe() {
+        return String.format("images: %d resident, %.1f / %.1f MB, %d hits, %d soft hits, %d misses, %d evictions",
+                resident.size(), residentBytes / 1048576.0, budgetBytes / 1048576.0, hits, softHits, misses, evictions);
+    }
+
+    private void put(String key, Image image) {
+        resident.put(key, image);
+        sizes.put(key, 0L);
+        if (image.getProgress() >= 1.0) {
+            account(key, image);
+        }
+    }
+
+    private void account(String key, Image image) {
+        long bytes = (long) image.getWidth() * (long) image.getHeight() * 4;
+        Long previous = sizes.put(key, bytes);
+        residentBytes += bytes - (previous == null ? 0 : previous);
+        trim(key);
+    }
+
+    private void remove(String key) {
+        if (resident.remove(key) != null) {
+            Long bytes = sizes.remove(key);
+            residentBytes -= bytes == null ? 0 : bytes;
+        }
+        evicted.remove(key);
+    }
+
+    /**
+     * Softly evicts least recently used images until the total fits the budget again. The image that
+     * was just accounted is never evicted, even if it alone is over the budget.
+     */
+    private void trim(String keep) {
+        Iterator<Map.Entry<String, Image>> it = resident.entrySet().iterator();
+        while (residentBytes > budgetBytes && it.hasNext()) {
+            Map.Entry<String, Image> eldest = it.next();
+            // Images still loading hold no pixels yet
+            if (eldest.getKey().equals(keep) || sizes.get(eldest.getKey()) == 0) {
+                continue;
+            }
+            it.remove();
+            residentBytes -= sizes.remove(eldest.getKey());
+            evicted.put(eldest.getKey(), new SoftReference<>(eldest.getValue()));
+            evictions++;
+        }
+        evicted.values().removeIf(ref -> ref.get() == null);
+    }
+}
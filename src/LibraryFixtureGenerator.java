@@ -0,0 +1,283 @@
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * Generates a synthetic music library for scale testing: small but valid MP3, WAV and FLAC files with
+ * randomized tags and embedded covers of varied sizes.
+ *
+ * Tracks are grouped into albums of about 12 tracks that share one cover, like a real library. Audio is
+ * a fraction of a second of silence, so 100k tracks stay a few GB even with covers embedded.
+ * Output is deterministic for a given seed.
+ *
+ * Usage: java LibraryFixtureGenerator <output_dir> <track_count> [seed]
+ */
+public class LibraryFixtureGenerator {
+
+    private static final String[] WORDS = {
+            "Midnight", "Echo", "Neon", "River", "Glass", "Summer", "Static", "Velvet", "Ghost", "Paper",
+            "Golden", "Signal", "Falling", "Electric", "Silver", "Ocean", "Hollow", "Wild", "Quiet", "Fire",
+            "Northern", "Lights", "Heart", "City", "Dream", "Shadow", "Motion", "Stone", "Blue", "Horizon"
+    };
+
+    // Cover edge lengths, weighted towards the sizes real libraries mostly have
+    private static final int[] COVER_SIZES = {300, 500, 500, 600, 600, 1000, 1400};
+
+    private static final int TRACKS_PER_ALBUM = 12;
+
+    // MPEG-1 Layer III, 128 kbps, 44.1 kHz, mono: 417-byte frames of silence
+    private static final byte[] MP3_FRAME_HEADER = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, (byte) 0xC4};
+    private static final int MP3_FRAME_BYTES = 417;
+    private static final int MP3_FRAMES = 20;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java LibraryFixtureGenerator <output_dir> <track_count> [seed]");
+            return;
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        long start = System.nanoTime();
+        generate(new File(args[0]), Integer.parseInt(args[1]), seed);
+        System.out.printf("Generated %s tracks in %.1f s%n", args[1], (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Writes a library of the given size into a folder, rotating through MP3, FLAC and WAV.
+     *
+     * @param dir    Output folder (created if needed)
+     * @param tracks Number of tracks
+     * @param seed   Random seed
+     * @throws IOException If a file can't be written
+     */
+    public static void generate(File dir, int tracks, long seed) throws IOException {
+        Files.createDirectories(dir.toPath());
+        Random random = new Random(seed);
+        String artist = null;
+        String album = null;
+        byte[] cover = null;
+        for (int i = 0; i < tracks; i++) {
+            if (i % TRACKS_PER_ALBUM == 0) {
+                // Artists release a few albums each
+                if (artist == null || random.nextInt(3) == 0) {
+                    artist = words(random, 1 + random.nextInt(2));
+                }
+                album = words(random, 1 + random.nextInt(3));
+                cover = createCover(random, COVER_SIZES[random.nextInt(COVER_SIZES.length)]);
+            }
+            String title = words(random, 1 + random.nextInt(4));
+            int trackNumber = i % TRACKS_PER_ALBUM + 1;
+            String year = String.valueOf(1970 + random.nextInt(55));
+            String baseName = String.format("%06d %s - %s", i, artist, title);
+
+            File file;
+            byte[] data;
+            switch (i % 3) {
+                case 0 -> {
+                    file = new File(dir, baseName + ".mp3");
+                    data = mp3(id3Tag(title, artist, album, trackNumber, year, cover));
+                }
+                case 1 -> {
+                    file = new File(dir, baseName + ".flac");
+                    data = flac(title, artist, album, trackNumber, year, cover);
+                }
+                default -> {
+                    file = new File(dir, baseName + ".wav");
+                    data = wav(id3Tag(title, artist, album, trackNumber, year, cover));
+                }
+            }
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file.toPath()))) {
+                out.write(data);
+            }
+        }
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Draws a cover-like JPEG: a gradient with a few solid shapes.
+     */
+    private static byte[] createCover(Random random, int size) throws IOException {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(random.nextInt(0xFFFFFF)),
+                size, size, new Color(random.nextInt(0xFFFFFF))));
+        g.fillRect(0, 0, size, size);
+        for (int i = 0; i < 4; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            int w = size / 5 + random.nextInt(size / 3);
+            g.fillOval(random.nextInt(size), random.nextInt(size), w, w);
+        }
+        g.dispose();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * ID3v2.3 tag with title, artist, album, track, year and a front cover.
+     */
+    private static byte[] id3Tag(String title, String artist, String album, int track, String year, byte[] cover)
+            throws IOException {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        textFrame(frames, "TIT2", title);
+        textFrame(frames, "TPE1", artist);
+        textFrame(frames, "TALB", album);
+        textFrame(frames, "TRCK", String.valueOf(track));
+        textFrame(frames, "TYER", year);
+
+        ByteArrayOutputStream apic = new ByteArrayOutputStream();
+        apic.write(0); // ISO-8859-1
+        apic.write("image/jpeg".getBytes(StandardCharsets.ISO_8859_1));
+        apic.write(0);
+        apic.write(3); // front cover
+        apic.write(0); // empty description
+        apic.write(cover);
+        frame(frames, "APIC", apic.toByteArray());
+
+        ByteArrayOutputStream tag = new ByteArrayOutputStream();
+        int size = frames.size();
+        tag.write(new byte[]{'I', 'D', '3', 3, 0, 0,
+                (byte) ((size >> 21) & 0x7F), (byte) ((size >> 14) & 0x7F),
+                (byte) ((size >> 7) & 0x7F), (byte) (size & 0x7F)});
+        frames.writeTo(tag);
+        return tag.toByteArray();
+    }
+
+    private static void textFrame(ByteArrayOutputStream out, String id, String text) throws IOException {
+        byte[] value = text.getBytes(StandardCharsets.ISO_8859_1);
+        byte[] body = new byte[value.length + 1];
+        System.arraycopy(value, 0, body, 1, value.length);
+        frame(out, id, body);
+    }
+
+    private static void frame(ByteArrayOutputStream out, String id, byte[] body) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(id.getBytes(StandardCharsets.ISO_8859_1));
+        data.writeInt(body.length);
+        data.writeShort(0);
+        data.write(body);
+    }
+
+    private static byte[] mp3(byte[] tag) {
+        byte[] file = new byte[tag.length + MP3_FRAMES * MP3_FRAME_BYTES];
+        System.arraycopy(tag, 0, file, 0, tag.length);
+        for (int i = 0; i < MP3_FRAMES; i++) {
+            System.arraycopy(MP3_FRAME_HEADER, 0, file, tag.length + i * MP3_FRAME_BYTES, MP3_FRAME_HEADER.length);
+        }
+        return file;
+    }
+
+    /**
+     * 8 kHz mono 16-bit PCM, a quarter second of silence, with the ID3 tag in an "id3 " chunk.
+     */
+    private static byte[] wav(byte[] tag) throws IOException {
+        int sampleRate = 8000;
+        int dataBytes = sampleRate / 2;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write("WAVE".getBytes(StandardCharsets.US_ASCII));
+        body.write("fmt ".getBytes(StandardCharsets.US_ASCII));
+        writeLittleEndian(body, 16, 4);
+        writeLittleEndian(body, 1, 2);              // PCM
+        writeLittleEndian(body, 1, 2);              // mono
+        writeLittleEndian(body, sampleRate, 4);
+        writeLittleEndian(body, sampleRate * 2, 4); // byte rate
+        writeLittleEndian(body, 2, 2);              // block align
+        writeLittleEndian(body, 16, 2);             // bits per sample
+        body.write("data".getBytes(StandardCharsets.US_ASCII));
+        writeLittleEndian(body, dataBytes, 4);
+        body.write(new byte[dataBytes]);
+        body.write("id3 ".getBytes(StandardCharsets.US_ASCII));
+        writeLittleEndian(body, tag.length, 4);
+        body.write(tag);
+        if ((tag.length & 1) != 0) {
+            body.write(0);
+        }
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write("RIFF".getBytes(StandardCharsets.US_ASCII));
+        writeLittleEndian(file, body.size(), 4);
+        body.writeTo(file);
+        return file.toByteArray();
+    }
+
+    /**
+     * FLAC stream with STREAMINFO, Vorbis comments and a front cover PICTURE, and no audio frames.
+     */
+    private static byte[] flac(String title, String artist, String album, int track, String year, byte[] cover)
+            throws IOException {
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write("fLaC".getBytes(StandardCharsets.US_ASCII));
+
+        // STREAMINFO: 4096-sample blocks, 44.1 kHz, mono, 16 bit, 0 samples, no MD5
+        ByteArrayOutputStream info = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(info);
+        out.writeShort(4096);
+        out.writeShort(4096);
+        out.write(new byte[6]); // min/max frame size unknown
+        // 20 bits sample rate, 3 bits channels - 1, 5 bits bits per sample - 1, 36 bits total samples
+        out.writeLong((44100L << 44) | (15L << 36));
+        out.write(new byte[16]);
+        metadataBlock(file, 0, info.toByteArray(), false);
+
+        ByteArrayOutputStream comments = new ByteArrayOutputStream();
+        String[] fields = {"TITLE=" + title, "ARTIST=" + artist, "ALBUM=" + album,
+                "TRACKNUMBER=" + track, "DATE=" + year};
+        byte[] vendor = "OfflineMusic fixture".getBytes(StandardCharsets.UTF_8);
+        writeLittleEndian(comments, vendor.length, 4);
+        comments.write(vendor);
+        writeLittleEndian(comments, fields.length, 4);
+        for (String field : fields) {
+            byte[] value = field.getBytes(StandardCharsets.UTF_8);
+            writeLittleEndian(comments, value.length, 4);
+            comments.write(value);
+        }
+        metadataBlock(file, 4, comments.toByteArray(), false);
+
+        ByteArrayOutputStream picture = new ByteArrayOutputStream();
+        out = new DataOutputStream(picture);
+        out.writeInt(3); // front cover
+        byte[] mime = "image/jpeg".getBytes(StandardCharsets.US_ASCII);
+        out.writeInt(mime.length);
+        out.write(mime);
+        out.writeInt(0); // description
+        out.write(new byte[16]);
+        out.writeInt(cover.length);
+        out.write(cover);
+        metadataBlock(file, 6, picture.toByteArray(), true);
+        return file.toByteArray();
+    }
+
+    private static void metadataBlock(ByteArrayOutputStream out, int type, byte[] body, boolean last) throws IOException {
+        out.write((last ? 0x80 : 0) | type);
+        out.write((body.length >> 16) & 0xFF);
+        out.write((body.length >> 8) & 0xFF);
+        out.write(body.length & 0xFF);
+        out.write(body);
+    }
+
+    private static void writeLittleEndian(ByteArrayOutputStream out, int value, int bytes) {
+        for (int i = 0; i < bytes; i++) {
+            out.write((value >> (8 * i)) & 0xFF);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One configured music folder and the worker pool that does its background I/O (scan, tags, artwork,
+ * waveform analysis).
+ *
+ * Pools are per storage device, not per folder, and sized by the kind of device: an SSD gets several
+ * workers, a spinning disk exactly one (parallel reads there only add seeks), and a network mount a
+ * couple, enough to hide latency without flooding the link. Roots on the same device share one pool.
+ *
+ * Roots come from -Dlibrary.roots, a list separated by the platform's path separator (':' or ';'),
+ * where each entry may end in =ssd, =hdd or =network to override the detected device type, e.g.
+ * {@code -Dlibrary.roots=music:/mnt/archive/Music=hdd:/net/nas/music}. Without it the library is the
+ * {@code music} folder, as before.
+ */
+public class LibraryRoot {
+
+    public enum DeviceType { SSD, HDD, NETWORK }
+
+    // File system types that are served over the network
+    private static final Set<String> NETWORK_FS = Set.of("nfs", "nfs4", "cifs", "smb", "smbfs", "smb2", "afpfs",
+            "webdav", "davfs", "fuse.sshfs", "fuse.rclone", "9p");
+
+    private static final List<String> AUDIO_EXTENSIONS = Arrays.asList(".mp3", ".wav", ".m4a", ".flac");
+
+    // One pool per device (file store), shared by all roots on it
+    private static final Map<Object, ExecutorService> pools = new HashMap<>();
+
+    public final File dir;
+    public final DeviceType deviceType;
+    private final ExecutorService executor;
+
+    private LibraryRoot(File dir, DeviceType deviceType, Object deviceKey) {
+        this.dir = dir;
+        this.deviceType = deviceType;
+        this.executor = poolFor(deviceKey, deviceType);
+    }
+
+    /**
+     * Reads the configured roots. Folders that don't exist are skipped with a warning.
+     *
+     * @return The roots, in configured order
+     */
+    public static List<LibraryRoot> fromConfig() {
+        String config = System.getProperty("library.roots", "music");
+        List<LibraryRoot> roots = new ArrayList<>();
+        for (String entry : config.split(File.pathSeparator)) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            DeviceType configured = null;
+            int eq = entry.lastIndexOf('=');
+            if (eq > 0) {
+                try {
+                    configured = DeviceType.valueOf(entry.substring(eq + 1).trim().toUpperCase(Locale.ROOT));
+                    entry = entry.substring(0, eq).trim();
+                } catch (IllegalArgumentException e) {
+                    // Not a device type; '=' is part of the folder name
+                }
+            }
+            File dir = new File(entry).getAbsoluteFile();
+            if (!dir.isDirectory()) {
+                Log.warn("Library root not found: %s", dir);
+                continue;
+            }
+            roots.add(open(dir, configured));
+        }
+        return roots;
+    }
+
+    /**
+     * @param dir        Music folder
+     * @param deviceType Device type, or null to detect it
+     * @return The root, with the pool for its device
+     */
+    public static LibraryRoot open(File dir, DeviceType deviceType) {
+        Object deviceKey = dir.getPath();
+        DeviceType detected = DeviceType.SSD;
+        try {
+            FileStore store = Files.getFileStore(dir.toPath());
+            deviceKey = store;
+            detected = detect(dir.toPath(), store);
+        } catch (IOException e) {
+            Log.warn("Could not inspect the device of %s: %s", dir, e.getMessage());
+        }
+        DeviceType type = deviceType != null ? deviceType : detected;
+        Log.info("Library root %s on %s (%s)", dir, type, deviceType != null ? "configured" : "detected");
+        return new LibraryRoot(dir, type, deviceKey);
+    }
+
+    /**
+     * Lists the audio files directly in this root. Runs on the calling thread; use {@link #executor()} to
+     * run it on the root's pool.
+     *
+     * @return The audio files, in no particular order
+     */
+    public List<File> scan() {
+        File[] files = dir.listFiles((d, name) -> isAudioFile(name));
+        return files == null ? List.of() : Arrays.asList(files);
+    }
+
+    /**
+     * @return Whether a file name has one of the extensions the library picks up
+     */
+    public static boolean isAudioFile(String name) {
+        String lower = name.toLowerCase(Locale.ROOT);
+        int dot = lower.lastIndexOf('.');
+        return dot > 0 && AUDIO_EXTENSIONS.contains(lower.substring(dot));
+    }
+
+    /**
+     * @return The worker pool for this root's device
+     */
+    public ExecutorService executor() {
+        return executor;
+    }
+
+    /**
+     * @return Number of workers used for a device type
+     */
+    public static int workersFor(DeviceType type) {
+        return switch (type) {
+            case SSD -> Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+            case HDD -> 1;
+            case NETWORK -> 2;
+        };
+    }
+
+    private static synchronized ExecutorService poolFor(Object deviceKey, DeviceType type) {
+        return pools.computeIfAbsent(deviceKey, key -> {
+            int workers = workersFor(type);
+            String prefix = "library-" + type.name().toLowerCase(Locale.ROOT) + "-" + pools.size() + "-";
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(workers, r -> {
+                Thread thread = new Thread(r, prefix + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            });
+        });
+    }
+
+    /**
+     * Network mounts are recognized by path (UNC) or file system type. On Linux, local disks report
+     * whether they are rotational in sysfs; elsewhere a local disk is assumed to be an SSD.
+     */
+    private static DeviceType detect(Path dir, FileStore store) {
+        if (dir.toString().startsWith("\\\\") || NETWORK_FS.contains(store.type().toLowerCase(Locale.ROOT))) {
+            return DeviceType.NETWORK;
+        }
+        String device = store.name();
+        if (device.startsWith("/dev/")) {
+            // A partition's sysfs entry sits inside its disk's, which has the queue settings
+            try {
+                Path block = Paths.get("/sys/class/block", device.substring("/dev/".length())).toRealPath();
+                Path rotational = block.resolve("queue/rotational");
+                if (!Files.exists(rotational)) {
+                    rotational = block.getParent().resolve("queue/rotational");
+                }
+                if (Files.exists(rotational)) {
+                    return Files.readString(rotational).trim().equals("1") ? DeviceType.HDD : DeviceType.SSD;
+                }
+            } catch (IOException | RuntimeException e) {
+                // Not a block device we can look up (e.g. a device-mapper name); fall through
+            }
+        }
+        return DeviceType.SSD;
+    }
+}
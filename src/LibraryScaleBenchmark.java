@@ -0,0 +1,241 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Headless end-to-end benchmark of the library pipeline on synthetic libraries of growing size.
+ *
+ * For every size a fixture library is generated once (see {@link LibraryFixtureGenerator}) and reused on
+ * later runs. Each phase then runs the same code the app does: folder scan into the {@link TrackStore},
+ * duration probing, tag reading, cold and warm artwork extraction, artwork index load, search and sort,
+ * playlist export and import, color analysis of every distinct cover and similarity lookups. Results are
+ * printed and written as JSON, one file per run, so they can be compared across commits.
+ *
+ * Usage: java LibraryScaleBenchmark [--fixtures dir] [--out file.json] [track_count ...]
+ * Defaults: fixtures in ./fixtures, results in ./benchmark-results, sizes 1000 10000 100000.
+ */
+public class LibraryScaleBenchmark {
+
+    private static final String[] QUERIES = {"neon", "river", "echo", "gold", "ghost", "blue hor", "mid", "zzz"};
+
+    public static void main(String[] args) throws IOException {
+        Path fixtures = Paths.get("fixtures");
+        Path out = null;
+        List<Integer> sizes = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--fixtures" -> fixtures = Paths.get(args[++i]);
+                case "--out" -> out = Paths.get(args[++i]);
+                default -> sizes.add(Integer.parseInt(args[i]));
+            }
+        }
+        if (sizes.isEmpty()) {
+            sizes = List.of(1000, 10000, 100000);
+        }
+        if (out == null) {
+            out = Paths.get("benchmark-results", "library-scale-" + Instant.now().getEpochSecond() + ".json");
+        }
+
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (int size : sizes) {
+            runs.add(run(fixtures.resolve(String.valueOf(size)).toFile(), size));
+        }
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"java\": \"").append(System.getProperty("java.version")).append("\",\n");
+        json.append("  \"cpus\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+        json.append("  \"vectorized\": ").append(PixelStats.isVectorized()).append(",\n");
+        json.append("  \"runs\": [\n");
+        for (int i = 0; i < runs.size(); i++) {
+            json.append("    {");
+            int field = 0;
+            for (Map.Entry<String, Object> e : runs.get(i).entrySet()) {
+                json.append(field++ == 0 ? "" : ", ").append('"').append(e.getKey()).append("\": ");
+                json.append(e.getValue() instanceof Double d ? String.format(Locale.ROOT, "%.3f", d) : e.getValue());
+            }
+            json.append(i < runs.size() - 1 ? "},\n" : "}\n");
+        }
+        json.append("  ]\n}\n");
+
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        Files.write(out, json.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.println("Results written to " + out.toAbsolutePath());
+    }
+
+    private static Map<String, Object> run(File dir, int size) throws IOException {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("tracks", size);
+
+        // Fixtures are generated once per size; the marker is written last so a partial set is redone
+        File marker = new File(dir, ".complete");
+        long start = System.nanoTime();
+        if (!marker.exists()) {
+            deleteRecursively(dir.toPath());
+            LibraryFixtureGenerator.generate(dir, size, 42);
+            Files.createFile(marker.toPath());
+            result.put("generateMs", millisSince(start));
+        }
+
+        // Every run starts from a cold artwork store
+        File artworkDir = CacheLocations.artworkDir(dir);
+        deleteRecursively(artworkDir.toPath());
+
+        // Library scan, as in the track list screen
+        start = System.nanoTime();
+        TrackStore store = new TrackStore();
+        File[] files = dir.listFiles((d, name) -> {
+            String lower = name.toLowerCase();
+            return lower.endsWith(".mp3") || lower.endsWith(".wav") || lower.endsWith(".m4a") || lower.endsWith(".flac");
+        });
+        for (File file : files) {
+            store.add(file);
+        }
+        result.put("scanMs", millisSince(start));
+
+        // Header-only duration probe, as queued right after the scan
+        start = System.nanoTime();
+        int withDuration = 0;
+        for (File file : files) {
+            int millis = DurationProbe.probe(file);
+            if (millis != TrackStore.UNKNOWN) {
+                store.setDuration(store.idOf(file), millis);
+                withDuration++;
+            }
+        }
+        result.put("durationsMs", millisSince(start));
+        result.put("withDuration", withDuration);
+
+        start = System.nanoTime();
+        int tagged = 0;
+        for (File file : files) {
+            String[] tags = TrackStore.readTags(file);
+            if (tags != null) {
+                store.setTags(store.idOf(file), tags[0], tags[1], tags[2]);
+                tagged++;
+            }
+        }
+        result.put("tagsMs", millisSince(start));
+        result.put("tagged", tagged);
+
+        start = System.nanoTime();
+        AudioArtworkExtractor.extractAllArtwork(dir.getPath());
+        result.put("artworkColdMs", millisSince(start));
+
+        start = System.nanoTime();
+        int withArtwork = 0;
+        for (File file : files) {
+            if (AudioArtworkExtractor.extractArtwork(file.getPath()) != null) {
+                withArtwork++;
+            }
+        }
+        result.put("artworkWarmMs", millisSince(start));
+        result.put("withArtwork", withArtwork);
+
+        start = System.nanoTime();
+        ArtworkIndex index = new ArtworkIndex(artworkDir);
+        result.put("indexLoadMs", millisSince(start));
+        result.put("indexHit", index.lookup(files[0]) != null);
+
+        // Search as the user types: a few queries, averaged
+        start = System.nanoTime();
+        int matches = 0;
+        for (String query : QUERIES) {
+            matches += store.filter(query).length;
+        }
+        result.put("searchMsPerQuery", millisSince(start) / QUERIES.length);
+        result.put("searchMatches", matches);
+
+        start = System.nanoTime();
+        store.sort(store.allIds(), TrackStore.SortKey.ARTIST, true);
+        result.put("sortArtistColdMs", millisSince(start));
+        start = System.nanoTime();
+        store.sort(store.allIds(), TrackStore.SortKey.ARTIST, true);
+        result.put("sortArtistWarmMs", millisSince(start));
+
+        // Whole library as a playlist: export, streaming import, then resolving every entry
+        Path playlistFile = dir.toPath().resolve("library.m3u8");
+        List<Integer> ids = new ArrayList<>(size);
+        for (int id : store.allIds()) {
+            ids.add(id);
+        }
+        start = System.nanoTime();
+        Playlist.write(playlistFile, ids, store);
+        result.put("playlistExportMs", millisSince(start));
+        start = System.nanoTime();
+        Playlist playlist = Playlist.read(playlistFile);
+        result.put("playlistImportMs", millisSince(start));
+        start = System.nanoTime();
+        int resolved = 0;
+        for (int i = 0; i < playlist.size(); i++) {
+            if (playlist.resolve(i, store) != Playlist.MISSING) {
+                resolved++;
+            }
+        }
+        result.put("playlistResolveMs", millisSince(start));
+        result.put("playlistResolved", resolved);
+        Files.delete(playlistFile);
+
+        // Color analysis of every distinct cover
+        File[] covers = artworkDir.listFiles((d, name) -> ArtworkIndex.isHashName(name));
+        Map<String, ArtworkAnalysis> analyses = new HashMap<>();
+        start = System.nanoTime();
+        for (File cover : covers) {
+            analyses.put(cover.getName(), ArtworkAnalysis.analyze(cover));
+        }
+        double analysisMs = millisSince(start);
+        result.put("distinctCovers", covers.length);
+        result.put("analysisMs", analysisMs);
+        result.put("analysisMsPerCover", covers.length == 0 ? 0.0 : analysisMs / covers.length);
+
+        // Radio lookups: palette vectors for every track (no audio features without ffmpeg), one build
+        // of the tree, then nearest-neighbor queries that skip the query track itself
+        SimilarityIndex similarity = new SimilarityIndex();
+        for (File file : files) {
+            ArtworkIndex.Entry entry = index.lookup(file);
+            ArtworkAnalysis analysis = entry == null ? null : analyses.get(entry.hash + ".png");
+            similarity.put(store.idOf(file), SimilarityIndex.features(analysis, null));
+        }
+        result.put("similarityBuildMs", similarity.rebuildNow());
+        int queries = Math.min(size, 10000);
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            int self = (int) ((long) i * size / queries);
+            similarity.nearest(similarity.get(self), id -> id != self);
+        }
+        result.put("similarityQueryUs", millisSince(start) * 1000 / queries);
+
+        System.out.println(result);
+        return result;
+    }
+
+    private static double millisSince(long startNanos) {
+        return (System.nanoTime() - startNanos) / 1e6;
+    }
+
+    private static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> walk = Files.walk(path)) {
+            for (Path p : walk.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,282 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logger. A log call only checks the level, allocates one small record and publishes it
+ * into a lock-free ring buffer; formatting and all I/O happen on a background writer thread, which
+ * appends to a rotating file ({@code logs/offlinemusic.log}, then {@code .1}, {@code .2}, ...).
+ *
+ * Messages use {@link String#format} syntax and are only formatted when written. If the buffer is full
+ * (the writer can't keep up), new records are dropped and counted instead of blocking the caller.
+ * Warnings and errors are echoed to stderr as well.
+ *
+ * Configuration: -Dlog.level=DEBUG|INFO|WARN|ERROR (default INFO), -Dlog.dir=<folder> (default logs),
+ * -Dlog.console=true to echo every record to the console.
+ */
+public final class Log {
+
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private static final int CAPACITY = 8192; // power of two
+    private static final int MASK = CAPACITY - 1;
+
+    private static final long MAX_FILE_BYTES = 5L * 1024 * 1024;
+    private static final int KEPT_FILES = 3;
+
+    private static final DateTimeFormatter TIME_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final Level minLevel = parseLevel(System.getProperty("log.level", "INFO"));
+    private static final boolean echoAll = Boolean.getBoolean("log.console");
+    private static final Path logFile = Paths.get(System.getProperty("log.dir", "logs"), "offlinemusic.log");
+
+    // Ring buffer: producers claim a sequence number by CAS on tail, then publish into the slot;
+    // the single writer thread consumes from head and clears the slot
+    private static final AtomicReferenceArray<Record> slots = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong head = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final Thread writerThread;
+    private static volatile boolean running = true;
+
+    // Writer thread only
+    private static Writer out;
+    private static long fileBytes;
+    private static long reportedDropped;
+
+    private static final class Record {
+        final Level level;
+        final long timeMillis;
+        final String thread;
+        final String format;
+        final Object[] args;
+
+        Record(Level level, String format, Object[] args) {
+            this.level = level;
+            this.timeMillis = System.currentTimeMillis();
+            this.thread = Thread.currentThread().getName();
+            this.format = format;
+            this.args = args;
+        }
+    }
+
+    static {
+        writerThread = new Thread(Log::writeLoop, "log-writer");
+        writerThread.setDaemon(true);
+        writerThread.setPriority(Thread.MIN_PRIORITY);
+        writerThread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "log-shutdown"));
+    }
+
+    private Log() {
+    }
+
+    private static Level parseLevel(String name) {
+        try {
+            return Level.valueOf(name.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(minLevel) >= 0;
+    }
+
+    public static void debug(String format, Object... args) {
+        log(Level.DEBUG, format, args);
+    }
+
+    public static void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    public static void warn(String format, Object... args) {
+        log(Level.WARN, format, args);
+    }
+
+    /**
+     * Logs an error. If the last argument is a Throwable, its stack trace is written after the message.
+     */
+    public static void error(String format, Object... args) {
+        log(Level.ERROR, format, args);
+    }
+
+    /**
+     * @return Records dropped so far because the buffer was full
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    public static void log(Level level, String format, Object... args) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        Record record = new Record(level, format, args);
+        long seq;
+        do {
+            seq = tail.get();
+            if (seq - head.get() >= CAPACITY) {
+                dropped.incrementAndGet();
+                return;
+            }
+        } while (!tail.compareAndSet(seq, seq + 1));
+        slots.lazySet((int) (seq & MASK), record);
+    }
+
+    /**
+     * Writes out everything logged so far and closes the file. Runs as a shutdown hook.
+     */
+    public static void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void writeLoop() {
+        while (true) {
+            boolean wrote = drain();
+            if (!running && head.get() == tail.get()) {
+                break;
+            }
+            if (!wrote) {
+                flushQuietly();
+                LockSupport.parkNanos(10_000_000);
+            }
+        }
+        flushQuietly();
+        try {
+            if (out != null) {
+                out.close();
+            }
+        } catch (IOException ignored) {
+            // Nothing left to report to
+        }
+    }
+
+    /**
+     * Writes every published record.
+     *
+     * @return Whether anything was written
+     */
+    private static boolean drain() {
+        boolean wrote = false;
+        while (true) {
+            long seq = head.get();
+            int index = (int) (seq & MASK);
+            Record record = slots.get(index);
+            if (record == null) {
+                // Either empty, or a producer has claimed the slot but not published yet
+                break;
+            }
+            slots.lazySet(index, null);
+            head.lazySet(seq + 1);
+            write(record);
+            wrote = true;
+        }
+        long droppedNow = dropped.get();
+        if (droppedNow > reportedDropped) {
+            write(new Record(Level.WARN, "%d log records dropped, the log writer couldn't keep up",
+                    new Object[]{droppedNow - reportedDropped}));
+            reportedDropped = droppedNow;
+        }
+        return wrote;
+    }
+
+    private static void write(Record record) {
+        String line = format(record);
+        if (echoAll || record.level.compareTo(Level.WARN) >= 0) {
+            System.err.print(line);
+        }
+        try {
+            if (out == null || fileBytes >= MAX_FILE_BYTES) {
+                rotate();
+            }
+            out.write(line);
+            fileBytes += line.length();
+        } catch (IOException e) {
+            // The console still gets warnings and errors
+            out = null;
+        }
+    }
+
+    private static String format(Record record) {
+        Throwable thrown = null;
+        Object[] args = record.args;
+        if (args != null && args.length > 0 && args[args.length - 1] instanceof Throwable t) {
+            thrown = t;
+        }
+        String message;
+        try {
+            message = args == null || args.length == 0 ? record.format : String.format(record.format, args);
+        } catch (RuntimeException e) {
+            message = record.format + " (bad log format: " + e.getMessage() + ")";
+        }
+        StringBuilder line = new StringBuilder(message.length() + 64);
+        line.append(TIME_FORMAT.format(Instant.ofEpochMilli(record.timeMillis))).append(' ');
+        line.append(String.format("%-5s", record.level)).append(" [").append(record.thread).append("] ");
+        line.append(message).append(System.lineSeparator());
+        if (thrown != null) {
+            StringWriter trace = new StringWriter();
+            thrown.printStackTrace(new PrintWriter(trace));
+            line.append(trace);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Opens the log file, first shifting a full one to .1 (and .1 to .2, ...).
+     */
+    private static void rotate() throws IOException {
+        Files.createDirectories(logFile.getParent());
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        if (Files.exists(logFile) && Files.size(logFile) >= MAX_FILE_BYTES) {
+            for (int i = KEPT_FILES - 1; i >= 1; i--) {
+                Path from = logFile.resolveSibling(logFile.getFileName() + "." + i);
+                if (Files.exists(from)) {
+                    Files.move(from, logFile.resolveSibling(logFile.getFileName() + "." + (i + 1)),
+                            StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(logFile, logFile.resolveSibling(logFile.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        fileBytes = Files.exists(logFile) ? Files.size(logFile) : 0;
+        out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    private static void flushQuietly() {
+        try {
+            if (out != null) {
+                out.flush();
+            }
+        } catch (IOException ignored) {
+            // Reported on the next write
+        }
+    }
+}
@@ -0,0 +1,300 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
+
+/**
+ * Process-wide runtime metrics: counters, gauges and latency histograms, looked up by name once and kept
+ * in static fields by the code that records them.
+ *
+ * Recording never locks or allocates, so it is safe on the FX thread and in tight loops. Counters are
+ * {@link LongAdder}s, which stripe updates across cells when threads contend. Histograms bucket values
+ * HDR-style: exact below 16 µs, then 16 linear sub-buckets per power of two, so every recorded value is
+ * within about 6% of its bucket whatever its magnitude, in a fixed array of atomic counts.
+ *
+ * A snapshot of everything is written as JSON every -Dmetrics.interval seconds (default 60; 0 turns it
+ * off) to -Dmetrics.file (default logs/metrics.json), replacing the previous one, and once more on exit.
+ * {@link MetricsPanel} shows the same numbers live in the app.
+ */
+public final class Metrics {
+
+    private static final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+    private static final long INTERVAL_SECONDS = Long.getLong("metrics.interval", 60);
+    private static final Path SNAPSHOT_FILE = Paths.get(System.getProperty("metrics.file",
+            Paths.get("logs", "metrics.json").toString()));
+
+    private static ScheduledExecutorService snapshots;
+
+    private Metrics() {
+    }
+
+    /**
+     * A count of events.
+     */
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long amount) {
+            value.add(amount);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * The latest value of something that goes up and down, such as a list size.
+     */
+    public static final class Gauge {
+        private volatile long value;
+
+        public void set(long value) {
+            this.value = value;
+        }
+
+        public long get() {
+            return value;
+        }
+    }
+
+    /**
+     * Distribution of durations, recorded in nanoseconds and kept at microsecond resolution.
+     */
+    public static final class Histogram {
+        // 2^SUB_BITS linear sub-buckets per power of two
+        private static final int SUB_BITS = 4;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = SUB + (63 - SUB_BITS) * SUB;
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        public void recordNanos(long nanos) {
+            long micros = Math.max(0, nanos / 1000);
+            counts.incrementAndGet(bucket(micros));
+            count.increment();
+            sum.add(micros);
+            max.accumulate(micros);
+        }
+
+        /**
+         * Records the time since a {@link System#nanoTime()} reading.
+         */
+        public void recordSince(long startNanos) {
+            recordNanos(System.nanoTime() - startNanos);
+        }
+
+        static int bucket(long value) {
+            if (value < SUB) {
+                return (int) value;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(value);
+            int shift = magnitude - SUB_BITS;
+            return SUB + shift * SUB + (int) ((value >>> shift) & (SUB - 1));
+        }
+
+        /**
+         * @return Midpoint of a bucket's value range
+         */
+        static long midpoint(int bucket) {
+            if (bucket < SUB) {
+                return bucket;
+            }
+            int shift = (bucket - SUB) / SUB;
+            long lower = (1L << (shift + SUB_BITS)) | ((long) ((bucket - SUB) % SUB) << shift);
+            return lower + ((1L << shift) - 1) / 2;
+        }
+
+        /**
+         * @return Consistent-enough copy for reporting; counts recorded meanwhile may be split across it
+         */
+        public Stats stats() {
+            long[] copy = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] = counts.get(i);
+                total += copy[i];
+            }
+            long recorded = count.sum();
+            return new Stats(total, recorded == 0 ? 0 : sum.sum() / 1000.0 / recorded,
+                    percentile(copy, total, 0.50), percentile(copy, total, 0.90), percentile(copy, total, 0.99),
+                    max.get() / 1000.0);
+        }
+
+        private static double percentile(long[] counts, long total, double fraction) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(fraction * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return midpoint(i) / 1000.0;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * Summary of a histogram, in milliseconds.
+     */
+    public static final class Stats {
+        public final long count;
+        public final double mean;
+        public final double p50;
+        public final double p90;
+        public final double p99;
+        public final double max;
+
+        Stats(long count, double mean, double p50, double p90, double p99, double max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.max = max;
+        }
+    }
+
+    public static Counter counter(String name) {
+        return counters.computeIfAbsent(name, key -> new Counter());
+    }
+
+    public static Gauge gauge(String name) {
+        return gauges.computeIfAbsent(name, key -> new Gauge());
+    }
+
+    public static Histogram histogram(String name) {
+        return histograms.computeIfAbsent(name, key -> new Histogram());
+    }
+
+    /**
+     * Starts writing snapshots every -Dmetrics.interval seconds, unless that is 0. Safe to call more than once.
+     */
+    public static synchronized void startSnapshots() {
+        if (snapshots != null || INTERVAL_SECONDS <= 0) {
+            return;
+        }
+        snapshots = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-snapshot");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        snapshots.scheduleAtFixedRate(Metrics::writeSnapshot, INTERVAL_SECONDS, INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Writes a snapshot now, e.g. on exit. Failures are logged, not thrown. Synchronized because the
+     * scheduled write and one on exit share the temporary file.
+     */
+    public static synchronized void writeSnapshot() {
+        if (INTERVAL_SECONDS <= 0) {
+            return;
+        }
+        try {
+            Path parent = SNAPSHOT_FILE.toAbsolutePath().getParent();
+            Files.createDirectories(parent);
+            Path temp = parent.resolve(SNAPSHOT_FILE.getFileName() + ".tmp");
+            Files.writeString(temp, toJson(), StandardCharsets.UTF_8);
+            Files.move(temp, SNAPSHOT_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Log.warn("Could not write metrics snapshot: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * @return Every metric as JSON, names sorted
+     */
+    public static String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"timestamp\": \"").append(Instant.now()).append("\",\n");
+        json.append("  \"uptimeMillis\": ").append(ManagementFactory.getRuntimeMXBean().getUptime()).append(",\n");
+        Runtime runtime = Runtime.getRuntime();
+        json.append("  \"heapUsedBytes\": ").append(runtime.totalMemory() - runtime.freeMemory()).append(",\n");
+
+        json.append("  \"counters\": {");
+        appendValues(json, new TreeMap<>(counters), Counter::get);
+        json.append("},\n");
+        json.append("  \"gauges\": {");
+        appendValues(json, new TreeMap<>(gauges), Gauge::get);
+        json.append("},\n");
+
+        json.append("  \"histogramsMillis\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Stats s = e.getValue().stats();
+            json.append(separator).append(String.format(Locale.ROOT,
+                    "    \"%s\": {\"count\": %d, \"mean\": %.3f, \"p50\": %.3f, \"p90\": %.3f, \"p99\": %.3f, \"max\": %.3f}",
+                    e.getKey(), s.count, s.mean, s.p50, s.p90, s.p99, s.max));
+            separator = ",\n";
+        }
+        json.append(histograms.isEmpty() ? "" : "\n  ").append("}\n");
+        json.append("}\n");
+        return json.toString();
+    }
+
+    /**
+     * @return Every metric as an aligned plain-text table, names sorted
+     */
+    public static String describe() {
+        StringBuilder text = new StringBuilder();
+        Runtime runtime = Runtime.getRuntime();
+        text.append(String.format(Locale.ROOT, "Heap used: %.1f MB%n%n", (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0));
+        text.append("Counters\n");
+        for (Map.Entry<String, Counter> e : new TreeMap<>(counters).entrySet()) {
+            text.append(String.format(Locale.ROOT, "  %-32s %12d%n", e.getKey(), e.getValue().get()));
+        }
+        text.append("\nGauges\n");
+        for (Map.Entry<String, Gauge> e : new TreeMap<>(gauges).entrySet()) {
+            text.append(String.format(Locale.ROOT, "  %-32s %12d%n", e.getKey(), e.getValue().get()));
+        }
+        text.append(String.format(Locale.ROOT, "%nLatency (ms)%-21s %8s %9s %9s %9s %9s %9s%n", "", "count", "mean",
+                "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(histograms).entrySet()) {
+            Stats s = e.getValue().stats();
+            text.append(String.format(Locale.ROOT, "  %-32s %8d %9.2f %9.2f %9.2f %9.2f %9.2f%n", e.getKey(),
+                    s.count, s.mean, s.p50, s.p90, s.p99, s.max));
+        }
+        return text.toString();
+    }
+
+    private static <T> void appendValues(StringBuilder json, Map<String, T> values,
+                                         ToLongFunction<T> value) {
+        String separator = "\n";
+        for (Map.Entry<String, T> e : values.entrySet()) {
+            json.append(separator).append("    \"").append(e.getKey()).append("\": ")
+                    .append(value.applyAsLong(e.getValue()));
+            separator = ",\n";
+        }
+        json.append(values.isEmpty() ? "" : "\n  ");
+    }
+}
@@ -0,0 +1,52 @@
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.scene.Scene;
+import javafx.scene.control.TextArea;
+import javafx.scene.layout.BorderPane;
+import javafx.stage.Stage;
+import javafx.stage.Window;
+import javafx.util.Duration;
+
+/**
+ * Debug window showing the live {@link Metrics} as a table. It refreshes once a second while it is open
+ * and stops refreshing when it is closed, so it costs nothing unless it is being looked at.
+ */
+public class MetricsPanel {
+
+    private final Stage stage = new Stage();
+    private final TextArea text = new TextArea();
+    private final Timeline refresh = new Timeline(new KeyFrame(Duration.seconds(1), e -> update()));
+
+    /**
+     * @param owner Window the panel stays on top of
+     */
+    public MetricsPanel(Window owner) {
+        text.setEditable(false);
+        text.getStyleClass().add("metrics-text");
+        BorderPane root = new BorderPane(text);
+        ThemeStylesheet.install(root);
+
+        refresh.setCycleCount(Timeline.INDEFINITE);
+        stage.initOwner(owner);
+        stage.setTitle("Metrics");
+        stage.setScene(new Scene(root, 720, 560));
+        stage.setOnHidden(e -> refresh.stop());
+    }
+
+    /**
+     * Opens the panel, or brings it to the front if it is already open.
+     */
+    public void show() {
+        update();
+        refresh.play();
+        stage.show();
+        stage.toFront();
+    }
+
+    private void update() {
+        // Keep the scroll position across refreshes
+        double scroll = text.getScrollTop();
+        text.setText(Metrics.describe());
+        text.setScrollTop(scroll);
+    }
+}
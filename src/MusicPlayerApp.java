@@ -1,95 +1,72 @@
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Group;
 import javafx.scene.Scene;
-import javafx.scene.SnapshotParameters;
 import javafx.scene.control.*;
 import javafx.scene.effect.ColorAdjust;
-import javafx.scene.effect.GaussianBlur;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
-import javafx.scene.media.Media;
 import javafx.scene.media.MediaPlayer;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.stage.StageStyle;
 import javafx.util.Duration;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class MusicPlayerApp extends Application {
 
-    // Add these CSS styles at the start of your MusicPlayerApp class
-    private static final String WINDOW_STYLE = """
-    -fx-background-color: #01050a;
-    -fx-border-color: #000408;
-    -fx-border-width: 5;
-    -fx-border-radius: 49;
-    -fx-background-radius: 49;
-    """;
-
-    private static final String CONTROL_BUTTON_STYLE = """
-    -fx-background-color: rgba(255, 255, 255, 0.1);
-    -fx-background-radius: 50;
-    -fx-min-width: 72;
-    -fx-min-height: 72;
-    -fx-max-width: 72;
-    -fx-max-height: 72;
-    -fx-text-fill: white;
-    """;
-
-    private static final String PLAY_BUTTON_STYLE = """
-    -fx-background-color: rgba(255, 255, 255, 0.1);
-    -fx-background-radius: 50;
-    -fx-min-width: 100;
-    -fx-min-height: 100;
-    -fx-max-width: 100;
-    -fx-max-height: 100;
-    -fx-text-fill: white;
-    """;
-
-    private static final String WINDOW_CONTROL_STYLE = """
-    -fx-background-color: transparent;
-    -fx-border-color: #9B9FB3;
-    -fx-border-width: 4;
-    -fx-border-radius: 20;
-    -fx-background-radius: 20;
-    -fx-min-width: 44;
-    -fx-min-height: 44;
-    -fx-max-width: 44;
-    -fx-max-height: 44;
-    -fx-text-fill: #9B9FB3;
-    -fx-opacity: 1.0;
-    """;
+    // Player background for tracks without artwork; set in code since stylesheet values would override the artwork
+    private static final Background NO_ARTWORK_BACKGROUND = new Background(
+            new BackgroundFill(Color.web("#01050a"), CornerRadii.EMPTY, Insets.EMPTY));
 
     // Track whether the song was playing when the user started dragging the progress bar.
     private boolean sliderWasPlaying = false;
 
     // Sliders for progress
     private Slider progressSlider;
+    private WaveformView waveformView;
     private Label currentTimeLabel;
     private Label totalTimeLabel;
 
     // At the top of your MusicPlayerApp class, add a constant for maximum display length:
     private static final int MAX_TRACK_NAME_LENGTH = 80;
 
-    // QUEUE FEATURE: Two queues for track management
-    private List<File> defaultQueue = new ArrayList<>();
-    private List<File> customQueue = new ArrayList<>(); // Unimplemented custom queue for future use
-    private int currentTrackIndex = -1;
+    // Library index: every track has a stable ID, and the queues and list hold IDs instead of files
+    private final TrackStore trackStore = new TrackStore();
+
+    // QUEUE FEATURE: Two queues for track management (of track IDs)
+    private final PlayQueue defaultQueue = new PlayQueue();
+    private List<Integer> customQueue = new ArrayList<>(); // Unimplemented custom queue for future use
+
+    // Imported playlist acting as the queue, or null while the queue follows the library list
+    private Playlist activePlaylist;
+
+    // Radio: once the queue has run out, keep playing the most similar track not played recently
+    private final SimilarityIndex similarityIndex = new SimilarityIndex();
+    private boolean radioMode = Boolean.getBoolean("radio");
+    private boolean radioActive = false;
+    private int radioNext = -1;
+    private final ArrayDeque<Integer> recentlyPlayed = new ArrayDeque<>();
+    private static final int RADIO_HISTORY = 50;
 
     // Variables for window dragging
     private double xOffset = 0;
@@ -102,19 +79,55 @@ public class MusicPlayerApp extends Application {
 
     // UI elements on the player screen
     private ImageView albumImageView;
+    private SpectrumVisualizer spectrumVisualizer;
+
+    // Low-power mode (-DlowPower=true, or the player screen's right-click menu) turns off everything that
+    // renders continuously: no visualizer, a flat background instead of the blurred cover, and progress
+    // updates once a second
+    private boolean lowPowerMode = Boolean.getBoolean("lowPower");
+
+    // Measures CPU and frame time in each mode and logs the difference when the mode is switched
+    private final RenderMonitor renderMonitor = new RenderMonitor(lowPowerMode);
     private MediaPlayer mediaPlayer;
 
+    // Owns and disposes every MediaPlayer; crossfade length comes from -Dcrossfade=<seconds>
+    private final PlayerManager playerManager = new PlayerManager();
+
+    // Decodes artwork at display size and keeps all images under one memory budget (-DimageBudgetMb)
+    private final ImageService imageService = new ImageService();
+
+    // Only the latest play request is prepared and started; rapid skips and double-clicks coalesce
+    private final PlaybackScheduler playbackScheduler = new PlaybackScheduler();
+
+    // Cover and pane size the current blurred background was rendered from
+    private Image backgroundSource;
+    private String backgroundArtwork;
+    private String backgroundSize = "";
+    private double backgroundBrightness;
+
+    // Renames tracks and their cache files off the FX thread, journaled for crash recovery
+    private final RenameEngine renameEngine = new RenameEngine(Paths.get("rename.journal"));
+
     private BorderPane root;
 
     // Make the play button a class-level variable so we can update its text from anywhere
     private Button btnPlayStop;
 
-    // Folder from which to load tracks (relative to current directory)
-    private File musicDir = new File("music"); // make sure this folder exists with audio files
-    private File artDir = new File("music\\artwork"); // make sure this folder exists for extracted artwork
+    // Folders to load tracks from (-Dlibrary.roots, default "music"), each scanned on its device's worker pool
+    private final List<LibraryRoot> libraryRoots = LibraryRoot.fromConfig();
 
     // UI element on the track list screen
-    private ListView<File> trackListView;
+    private ListView<Integer> trackListView;
+
+    // Library filter text and sort order
+    private TextField searchField;
+    private ChoiceBox<TrackStore.SortKey> sortChoice;
+
+    // Number and total length of the listed tracks
+    private Label listSummaryLabel;
+
+    // Tracks per tag-reading task; each batch is handed to the store in one go
+    private static final int TAG_BATCH = 500;
 
     // Make the top bar a class-level variable so it can be updated later
     private HBox topBar;
@@ -122,22 +135,42 @@ public class MusicPlayerApp extends Application {
     // Add this at the top of your MusicPlayerApp class (with your other class-level variables)
     private Label playIcon;
 
+    // Color the current theme was derived from, saved with the session (null for the default theme)
+    private Color themeColor;
+
+    // Last session's queue, index, position and theme, restored on launch and written on exit
+    private static final Path SESSION_FILE = Paths.get("session.bin");
+
+    // Startup budget from process start to the first rendered frame
+    private static final long FIRST_FRAME_TARGET_MILLIS = 500;
+
+    private static final Metrics.Gauge LIBRARY_TRACKS = Metrics.gauge("library.tracks");
+    private static final Metrics.Gauge LISTED_TRACKS = Metrics.gauge("library.listed");
+
+    // Debug window with the live metrics, created when first opened
+    private MetricsPanel metricsPanel;
+
 
     @Override
     public void start(Stage primaryStage) {
-        // Create a style that ensures text is visible and properly sized
-        String windowButtonTextStyle = WINDOW_CONTROL_STYLE +
-                "-fx-font-size: 28px; " +
-                "-fx-font-weight: bold; " +
-                "-fx-padding: -3 0 0 0; " +
-                "-fx-content-display: center; " +
-                "-fx-alignment: top-center;";
-
         primaryStage.initStyle(StageStyle.TRANSPARENT);
+        Metrics.startSnapshots();
+
+        // Undo any rename that was interrupted by a crash before the library is touched
+        renameEngine.recover();
+
+        playerManager.setCrossfadeDuration(Duration.seconds(Double.parseDouble(System.getProperty("crossfade", "0"))));
+        playerManager.setOnTrackFinishing(() -> {
+            // QUEUE FEATURE: Play the next track in the default queue when the current track finishes.
+            int next = nextTrack();
+            if (next >= 0) {
+                playTrack(next, true);
+            }
+        });
 
         // Create a top bar with navigation and window controls
         topBar = new HBox();
-        topBar.setStyle("-fx-background-color: transparent; -fx-padding: 15;");
+        topBar.getStyleClass().add("top-bar");
 
         // Left side: Navigation buttons
         HBox navButtons = new HBox(10);
@@ -145,8 +178,8 @@ public class MusicPlayerApp extends Application {
 
         Button btnNowPlaying = new Button("♪");
         Button btnLibrary = new Button("≡");
-        btnNowPlaying.setStyle(windowButtonTextStyle + "-fx-padding: -3 0 0 0;");
-        btnLibrary.setStyle(windowButtonTextStyle + "-fx-padding: -3 0 0 0;");
+        btnNowPlaying.getStyleClass().add("window-button");
+        btnLibrary.getStyleClass().add("window-button");
 
         btnNowPlaying.setOnAction(e -> switchToPlayer());
         btnLibrary.setOnAction(e -> switchToTrackList());
@@ -174,47 +207,135 @@ public class MusicPlayerApp extends Application {
         Button btnMinimize = new Button("–");
         Button btnExit = new Button("×");
 
-        btnExit.setStyle(windowButtonTextStyle);
-
-        // For the minimize button, adjust vertical alignment differently
-        btnMinimize.setStyle(windowButtonTextStyle + "-fx-font-size: 36px; " + "-fx-padding: -5 0 0 0;" + "-fx-font-family: 'Courier New';");
-
-        btnMinimize.setOnMouseEntered(e -> btnMinimize.setStyle(windowButtonTextStyle + "-fx-font-size: 36px; " + "-fx-padding: -5 0 0 0;" + "-fx-background-color: rgba(178, 191, 230, 0.20); "+ "-fx-font-family: 'Courier New';"));
-        btnMinimize.setOnMouseExited(e -> btnMinimize.setStyle(windowButtonTextStyle + "-fx-font-size: 36px; " + "-fx-padding: -5 0 0 0;"+ "-fx-font-family: 'Courier New';"));
-
-        btnExit.setOnMouseEntered(e -> btnExit.setStyle(windowButtonTextStyle + "-fx-background-color: rgba(178, 191, 230, 0.20); "));
-        btnExit.setOnMouseExited(e -> btnExit.setStyle(windowButtonTextStyle));
+        // Both highlight on hover; the minimize button's glyph sits differently (see ThemeStylesheet)
+        btnExit.getStyleClass().addAll("window-button", "window-control");
+        btnMinimize.getStyleClass().addAll("window-button", "window-control", "minimize");
 
         btnExit.setOnAction(e -> primaryStage.close());
         btnMinimize.setOnAction(e -> primaryStage.setIconified(true));
         windowControls.getChildren().addAll(btnMinimize, btnExit);
         topBar.getChildren().addAll(navButtons, windowControls);
 
-        // Main content setup
+        // Main content setup; the track list screen is built on first use
         contentPane = new StackPane();
         playerPane = createPlayerScreen();
-        trackListPane = createTrackListScreen();
-        contentPane.getChildren().addAll(playerPane, trackListPane);
+        contentPane.getChildren().add(playerPane);
 
         // Initially show player screen
         playerPane.setVisible(true);
-        trackListPane.setVisible(false);
 
         // Main layout
         root = new BorderPane();
-        root.setStyle(WINDOW_STYLE);
+        root.getStyleClass().add("window");
+        ThemeStylesheet.install(root);
         root.setTop(topBar);
         root.setCenter(contentPane);
 
+        // Restore the queue and theme before the first frame so the window opens in last session's colors
+        SessionSnapshot session = readSession();
+        if (session != null && session.themeRgb != SessionSnapshot.NO_THEME) {
+            applyTheme(Color.rgb((session.themeRgb >> 16) & 0xFF, (session.themeRgb >> 8) & 0xFF, session.themeRgb & 0xFF), null);
+        }
+
         Scene scene = new Scene(root, 533, 820);
         scene.setFill(null); // Required for transparent window
         primaryStage.setScene(scene);
+        renderMonitor.attach(scene);
+        reportFirstFrame();
         primaryStage.show();
+
+        // Load the restored track (artwork, media) only after the window is up
+        if (session != null) {
+            Platform.runLater(() -> restoreSession(session));
+        }
+    }
+
+    /**
+     * Reads the snapshot written when the last session ended.
+     *
+     * @return The snapshot, or null if there is none or it can't be read
+     */
+    private SessionSnapshot readSession() {
+        try {
+            return SessionSnapshot.read(SESSION_FILE);
+        } catch (IOException e) {
+            Log.warn("Ignoring unreadable session snapshot: %s", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Rebuilds the queue from the snapshot and loads the current track paused at its saved position.
+     * Tracks that no longer exist (deleted, renamed or converted) are dropped from the queue.
+     */
+    private void restoreSession(SessionSnapshot session) {
+        int current = -1;
+        List<Integer> restored = new ArrayList<>();
+        for (int i = 0; i < session.queue.size(); i++) {
+            File track = new File(session.queue.get(i));
+            if (track.exists()) {
+                int id = trackStore.add(track);
+                restored.add(id);
+                if (i == session.currentIndex) {
+                    current = id;
+                }
+            }
+        }
+        defaultQueue.setTracks(restored);
+        defaultQueue.setIndex(restored.indexOf(current));
+        if (current >= 0) {
+            playTrack(current, false, Duration.millis(session.positionMillis), 0);
+        }
+    }
+
+    /**
+     * Writes the queue, index, playback position and theme so the next launch can pick up where we left off.
+     */
+    private void writeSession() {
+        List<String> paths = new ArrayList<>(defaultQueue.size());
+        if (activePlaylist != null) {
+            // Entries that were never reached stay unresolved; the restore drops the ones that don't exist
+            for (int i = 0; i < activePlaylist.size(); i++) {
+                Path path = activePlaylist.getPath(i);
+                paths.add(path != null ? path.toString() : activePlaylist.getLocation(i));
+            }
+        } else {
+            for (int id : defaultQueue.getTracks()) {
+                paths.add(trackStore.getPath(id));
+            }
+        }
+        long position = mediaPlayer != null ? (long) mediaPlayer.getCurrentTime().toMillis() : 0;
+        int themeRgb = themeColor == null ? SessionSnapshot.NO_THEME
+                : ((int) Math.round(themeColor.getRed() * 255) << 16)
+                | ((int) Math.round(themeColor.getGreen() * 255) << 8)
+                | (int) Math.round(themeColor.getBlue() * 255);
+        try {
+            new SessionSnapshot(paths, defaultQueue.getIndex(), position, themeRgb).write(SESSION_FILE);
+        } catch (IOException e) {
+            Log.warn("Failed to write session snapshot: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Logs the time from process start to the first rendered frame against {@link #FIRST_FRAME_TARGET_MILLIS}.
+     */
+    private void reportFirstFrame() {
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                long launched = ProcessHandle.current().info().startInstant()
+                        .map(Instant::toEpochMilli)
+                        .orElse(System.currentTimeMillis());
+                long elapsed = System.currentTimeMillis() - launched;
+                Log.info("Time to first frame: %d ms (target %d ms)%s", elapsed, FIRST_FRAME_TARGET_MILLIS,
+                        elapsed > FIRST_FRAME_TARGET_MILLIS ? " - over budget" : "");
+            }
+        }.start();
     }
 
     private BorderPane createPlayerScreen() {
         BorderPane pane = new BorderPane();
-        pane.setStyle("-fx-background-color: transparent;");
 
         // Album image view with rounded corners
         albumImageView = new ImageView();
@@ -226,6 +347,14 @@ public class MusicPlayerApp extends Application {
         clip.setArcHeight(100);
         albumImageView.setClip(clip);
 
+        // Spectrum bars overlaid on the bottom of the album art
+        spectrumVisualizer = new SpectrumVisualizer(400, 80);
+        spectrumVisualizer.setEnabled(!lowPowerMode);
+        spectrumVisualizer.start();
+        StackPane albumStack = new StackPane(albumImageView, spectrumVisualizer);
+        StackPane.setAlignment(spectrumVisualizer, Pos.BOTTOM_CENTER);
+        StackPane.setMargin(spectrumVisualizer, new Insets(0, 0, 20, 0));
+
         // <<-- NEW: Create progress slider with time labels and hide them initially -->>
         progressSlider = new Slider();
         progressSlider.setMin(0);
@@ -234,6 +363,14 @@ public class MusicPlayerApp extends Application {
         progressSlider.setPrefWidth(300); // progress bar is half the width
         progressSlider.setVisible(false); // hide until a song is played
 
+        // Precomputed waveform drawn behind the slider; the slider's own track is made transparent
+        waveformView = new WaveformView(300, 40);
+        waveformView.visibleProperty().bind(progressSlider.visibleProperty());
+        waveformView.setMouseTransparent(true);
+        progressSlider.getStyleClass().add("seek-bar");
+        StackPane seekBar = new StackPane(waveformView, progressSlider);
+        seekBar.setMaxWidth(300);
+
         // Allow user to seek: pause on press and update time on release.
         progressSlider.setOnMousePressed(e -> {
             if (mediaPlayer != null) {
@@ -253,7 +390,7 @@ public class MusicPlayerApp extends Application {
                 // Resume playing only if it was playing before the drag.
                 if (sliderWasPlaying) {
                     mediaPlayer.play();
-                    playIcon.setText("⏸");
+                    showPlaying(true);
                 }
             }
         });
@@ -261,18 +398,20 @@ public class MusicPlayerApp extends Application {
         // Create time labels and hide them initially
         currentTimeLabel = new Label("00:00");
         totalTimeLabel = new Label("00:00");
+        currentTimeLabel.getStyleClass().add("time-label");
+        totalTimeLabel.getStyleClass().add("time-label");
         currentTimeLabel.setVisible(false);
         totalTimeLabel.setVisible(false);
 
         // Container for time labels and slider
         HBox progressContainer = new HBox(10);
         progressContainer.setAlignment(Pos.CENTER);
-        progressContainer.getChildren().addAll(currentTimeLabel, progressSlider, totalTimeLabel);
+        progressContainer.getChildren().addAll(currentTimeLabel, seekBar, totalTimeLabel);
 
         // Combine album image and progress container in a VBox
         VBox centerBox = new VBox(10);
         centerBox.setAlignment(Pos.CENTER);
-        centerBox.getChildren().addAll(albumImageView, progressContainer);
+        centerBox.getChildren().addAll(albumStack, progressContainer);
         centerBox.setPadding(new Insets(20));
         pane.setCenter(centerBox);
 
@@ -282,50 +421,40 @@ public class MusicPlayerApp extends Application {
         controls.setPadding(new Insets(34, 0, 20, 0));
 
         Button btnSkipBack = new Button();
-        btnSkipBack.setStyle(CONTROL_BUTTON_STYLE);
-        // ... (hover effects for btnSkipBack)
+        btnSkipBack.getStyleClass().add("control-button");
         Label skipBackIcon = new Label("⏮");
-        skipBackIcon.setStyle("-fx-font-size: 39px; -fx-smooth: true; -fx-text-fill: white; -fx-padding: 0 0 2 1;");
+        skipBackIcon.getStyleClass().addAll("control-icon", "skip-back");
         btnSkipBack.setGraphic(new Group(skipBackIcon));
 
         Button btnSkipForward = new Button();
-        btnSkipForward.setStyle(CONTROL_BUTTON_STYLE);
-        // ... (hover effects for btnSkipForward)
+        btnSkipForward.getStyleClass().add("control-button");
         Label skipForwardIcon = new Label("⏭");
-        skipForwardIcon.setStyle("-fx-font-size: 39px; -fx-smooth: true; -fx-text-fill: white; -fx-padding: 0 1 2 0;");
+        skipForwardIcon.getStyleClass().addAll("control-icon", "skip-forward");
         btnSkipForward.setGraphic(new Group(skipForwardIcon));
 
         // <<-- MODIFIED: Skip button actions to change track in the queue -->>
         btnSkipBack.setOnAction(e -> {
-            if (!defaultQueue.isEmpty()) {
-                currentTrackIndex = (currentTrackIndex - 1 + defaultQueue.size()) % defaultQueue.size();
-                File previousTrack = defaultQueue.get(currentTrackIndex);
-                playTrack(previousTrack);
+            int previous = defaultQueue.step(-1);
+            if (previous >= 0) {
+                playTrack(previous);
             }
         });
 
         btnSkipForward.setOnAction(e -> {
-            if (!defaultQueue.isEmpty()) {
-                currentTrackIndex = (currentTrackIndex + 1) % defaultQueue.size();
-                File nextTrack = defaultQueue.get(currentTrackIndex);
-                playTrack(nextTrack);
+            int next = nextTrack();
+            if (next >= 0) {
+                playTrack(next);
             }
         });
 
         // Use the class-level play button here
         // --- Modified play button code in createPlayerScreen() ---
         btnPlayStop = new Button();
-        btnPlayStop.setStyle(PLAY_BUTTON_STYLE);
-
-        // Add hover effect for btnPlayStop:
-        btnPlayStop.setOnMouseEntered(e -> btnPlayStop.setStyle( "-fx-background-color: rgba(255, 255, 255, 0.16);"
-                + "-fx-background-radius: 50;" + "-fx-min-width: 100;" + "-fx-min-height: 100;" + "-fx-max-width: 100;" +
-                "-fx-max-height: 100;" + "-fx-text-fill: white;" )); btnPlayStop.setOnMouseExited(e ->
-                btnPlayStop.setStyle(PLAY_BUTTON_STYLE));
+        btnPlayStop.getStyleClass().add("play-button");
 
         // Create a separate label for the play icon with an enlarged font (4× larger)
         playIcon = new Label("▶");
-        playIcon.setStyle("-fx-font-size: 100px; -fx-text-fill: white; -fx-smooth: true; -fx-padding: 2 0 0 2;");
+        playIcon.getStyleClass().add("play-icon");
         // Wrap the label in a Group to prevent clipping issues
         btnPlayStop.setGraphic(new Group(playIcon));
 
@@ -334,12 +463,10 @@ public class MusicPlayerApp extends Application {
             if (mediaPlayer != null) {
                 if (mediaPlayer.getStatus() == MediaPlayer.Status.PLAYING) {
                     mediaPlayer.pause();
-                    playIcon.setStyle("-fx-font-size: 100px; -fx-text-fill: white; -fx-smooth: true; -fx-padding: 2 0 0 2;");
-                    playIcon.setText("▶");
+                    showPlaying(false);
                 } else {
                     mediaPlayer.play();
-                    playIcon.setStyle("-fx-font-size: 100px; -fx-text-fill: white; -fx-padding: 0 0 13 0; -fx-smooth: true;");
-                    playIcon.setText("⏸");
+                    showPlaying(true);
                 }
             }
         });
@@ -347,66 +474,107 @@ public class MusicPlayerApp extends Application {
         controls.getChildren().addAll(btnSkipBack, btnPlayStop, btnSkipForward);
         pane.setBottom(controls);
 
-        // <<-- ADD THIS CODE TO CLIP THE PLAYER PANE -->>
-        pane.layoutBoundsProperty().addListener((obs, oldBounds, newBounds) -> {
-            double width = newBounds.getWidth();
-            double height = newBounds.getHeight();
-            double radius = 49 * 2; // Rounded bottom corners
-
-            // Primary clip: Rounded rectangle
-            Rectangle roundedRect = new Rectangle(width, height);
-            roundedRect.setArcWidth(radius);
-            roundedRect.setArcHeight(radius);
+        clipBottomCorners(pane);
 
-            // Secondary clip: A full-width rectangle covering the top portion
-            Rectangle topRect = new Rectangle(width, height - radius / 2);
-            topRect.setTranslateY(0); // Align with top
-
-            // Use an intersection to keep only the bottom rounded part
-            pane.setClip(new Group(roundedRect, topRect));
+        // Right-click menu with display settings
+        CheckMenuItem lowPowerItem = new CheckMenuItem("Low-power mode");
+        lowPowerItem.setSelected(lowPowerMode);
+        lowPowerItem.selectedProperty().addListener((obs, was, selected) -> setLowPowerMode(selected));
+        MenuItem metricsItem = new MenuItem("Metrics…");
+        metricsItem.setOnAction(e -> {
+            if (metricsPanel == null) {
+                metricsPanel = new MetricsPanel(pane.getScene().getWindow());
+            }
+            metricsPanel.show();
         });
-        // <<-- END ADDITION -->>
+        ContextMenu playerMenu = new ContextMenu(lowPowerItem, metricsItem);
+        pane.setOnContextMenuRequested(e -> playerMenu.show(pane, e.getScreenX(), e.getScreenY()));
 
         return pane;
     }
 
+    /**
+     * Clips a screen to the window's rounded bottom corners. The clip shapes are created once and follow
+     * the pane's size through bindings, rather than being rebuilt on every layout change.
+     */
+    private static void clipBottomCorners(Region pane) {
+        double radius = 49 * 2;
+
+        // Rounded rectangle, plus a plain one over all but the bottom: only the bottom corners stay rounded
+        Rectangle roundedRect = new Rectangle();
+        roundedRect.setArcWidth(radius);
+        roundedRect.setArcHeight(radius);
+        roundedRect.widthProperty().bind(pane.widthProperty());
+        roundedRect.heightProperty().bind(pane.heightProperty());
+        Rectangle topRect = new Rectangle();
+        topRect.widthProperty().bind(pane.widthProperty());
+        topRect.heightProperty().bind(pane.heightProperty().subtract(radius / 2));
+
+        pane.setClip(new Group(roundedRect, topRect));
+    }
+
+    /**
+     * Turns low-power mode on or off while running. The transparent, rounded window stays as it is, since
+     * a stage's style can't change once it is shown.
+     */
+    private void setLowPowerMode(boolean enabled) {
+        if (lowPowerMode == enabled) {
+            return;
+        }
+        lowPowerMode = enabled;
+        renderMonitor.setLowPower(enabled);
+        spectrumVisualizer.setEnabled(!enabled);
+        Log.info("Low-power mode %s", enabled ? "on" : "off");
+
+        // Redo the current cover's background in the new style; one still loading gets it when it's done
+        Image cover = albumImageView.getImage();
+        if (cover != null && cover.getProgress() >= 1.0 && !cover.isError() && backgroundArtwork != null) {
+            backgroundSource = null;
+            updateBackground(cover, backgroundArtwork, backgroundBrightness);
+        }
+    }
+
     // Method to update background with blurred album art
-    private void updateBackground(Image albumImage) {
-        if (albumImage != null) {
-            ImageView bgImage = new ImageView(albumImage);
-            bgImage.setFitWidth(playerPane.getWidth() + 40);
-            bgImage.setFitHeight(playerPane.getHeight() + 40);
-            bgImage.setPreserveRatio(false);
-            bgImage.setSmooth(true);
-            bgImage.setCache(true);
-
-            // Create blur effect with conditional color adjustment
-            GaussianBlur blur = new GaussianBlur(30);
-            ColorAdjust darker = new ColorAdjust();
-
-            double avgBrightness = getImageAverageBrightness(albumImage);
-            if (avgBrightness > 0.8) {  // very bright image
-                darker.setBrightness(-0.6);
-            } else {
-                darker.setBrightness(-0.7);
-                darker.setSaturation(0.3);
-            }
-            blur.setInput(darker);
-            bgImage.setEffect(blur);
-
-            SnapshotParameters params = new SnapshotParameters();
-            WritableImage snapshot = bgImage.snapshot(params, null);
-
-            BackgroundImage background = new BackgroundImage(
-                    snapshot,
-                    BackgroundRepeat.NO_REPEAT,
-                    BackgroundRepeat.NO_REPEAT,
-                    BackgroundPosition.CENTER,
-                    BackgroundSize.DEFAULT
-            );
-            playerPane.setBackground(new Background(background));
+    // (brightness comes from the cached artwork analysis, so no pixels are read here)
+    private void updateBackground(Image albumImage, String artworkPath, double avgBrightness) {
+        // Tracks of the same album share one cover image, so the blurred background is still valid
+        String size = playerPane.getWidth() + "x" + playerPane.getHeight();
+        if (albumImage != null && albumImage == backgroundSource && backgroundSize.equals(size)) {
+            return;
+        }
+        backgroundSource = albumImage;
+        backgroundArtwork = artworkPath;
+        backgroundSize = size;
+        backgroundBrightness = avgBrightness;
+        if (albumImage != null && lowPowerMode) {
+            // Flat: the window's background, which the theme colors from the cover, shows through
+            imageService.release("background");
+            playerPane.setBackground(null);
+        } else if (albumImage != null) {
+            // Decoded, darkened and blurred at a fraction of the pane size in the background; the finished
+            // image is only installed here, unless another cover or size has been asked for by then
+            BlurredBackground.renderAsync(new File(artworkPath), playerPane.getWidth(), playerPane.getHeight(),
+                    avgBrightness).whenComplete((image, error) -> Platform.runLater(() -> {
+                if (backgroundSource != albumImage || !backgroundSize.equals(size) || lowPowerMode) {
+                    return;
+                }
+                if (error != null) {
+                    Log.warn("%s", error.getMessage());
+                    return;
+                }
+                // Replaces the previous track's background in the image budget
+                imageService.register("background", image);
+                BackgroundImage background = new BackgroundImage(
+                        image,
+                        BackgroundRepeat.NO_REPEAT,
+                        BackgroundRepeat.NO_REPEAT,
+                        BackgroundPosition.CENTER,
+                        new BackgroundSize(1, 1, true, true, false, false)
+                );
+                playerPane.setBackground(new Background(background));
+            }));
         } else {
-            playerPane.setStyle("-fx-background-color: #01050a;");
+            playerPane.setBackground(NO_ARTWORK_BACKGROUND);
         }
     }
 
@@ -417,34 +585,39 @@ public class MusicPlayerApp extends Application {
      */
     private BorderPane createTrackListScreen() {
         BorderPane pane = new BorderPane();
-        pane.setStyle("-fx-background-color: #0f0f0f;");
+        pane.getStyleClass().add("library-pane");
 
         // Center: ListView of tracks
         trackListView = new ListView<>();
         // Keep the ListView editable so we can commit changes but disable auto-edit in each cell.
         trackListView.setEditable(true);
-        trackListView.setStyle("-fx-control-inner-background: transparent; -fx-background-color: transparent;");
+        trackListView.getStyleClass().add("track-list");
 
         // Use a custom cell factory that shows a rename button to trigger editing.
-        trackListView.setCellFactory(lv -> new ListCell<File>() {
+        trackListView.setCellFactory(lv -> new ListCell<Integer>() {
             private HBox hbox;
             private Label nameLabel;
+            private Label durationLabel;
             private Button editButton;
             private TextField textField;
 
             {
                 // Disable the default editing trigger on the cell.
                 setEditable(false);
+                // Stripes, hover and selection come from the stylesheet (:odd, :hover, :selected)
+                getStyleClass().add("track-cell");
 
                 // Build the cell layout: a label on the left, a spacer, and an edit button on the right.
                 hbox = new HBox();
                 nameLabel = new Label();
                 nameLabel.setTextFill(Color.WHITE);
+                durationLabel = new Label();
+                durationLabel.setTextFill(Color.gray(0.6));
                 editButton = new Button("✎");
-                editButton.setStyle("-fx-background-color: transparent; -fx-text-fill: white; -fx-font-size: 20px; -fx-padding: -6 0 -6 0");
+                editButton.getStyleClass().add("track-edit-button");
                 Region spacer = new Region();
                 HBox.setHgrow(spacer, Priority.ALWAYS);
-                hbox.getChildren().addAll(nameLabel, spacer, editButton);
+                hbox.getChildren().addAll(nameLabel, spacer, durationLabel, editButton);
                 hbox.setAlignment(Pos.CENTER_LEFT);
                 hbox.setSpacing(10);
 
@@ -456,24 +629,22 @@ public class MusicPlayerApp extends Application {
             }
 
             @Override
-            protected void updateItem(File item, boolean empty) {
+            protected void updateItem(Integer item, boolean empty) {
                 super.updateItem(item, empty);
-                int index = getIndex() < 0 ? 0 : getIndex();
-                String baseColor = (index % 2 == 0) ? "#0f0f0f" : "#1a1a1a";
 
                 if (empty || item == null) {
                     setText(null);
                     setGraphic(null);
                     setTooltip(null); // Remove tooltip when empty
-                    setStyle("-fx-background-color: " + baseColor + "; -fx-font-size: 16px;");
                 } else {
+                    String fileName = trackStore.getName(item);
                     // Attach a tooltip showing the full file name
-                    setTooltip(new Tooltip(item.getName()));
+                    setTooltip(new Tooltip(fileName));
 
                     if (isEditing()) {
                         if (textField == null) {
-                            textField = new TextField(item.getName());
-                            textField.setStyle("-fx-font-size: 18px;");
+                            textField = new TextField(fileName);
+                            textField.getStyleClass().add("track-edit-field");
                             textField.setOnAction(e -> processEdit());
                             textField.focusedProperty().addListener((obs, wasFocused, isNowFocused) -> {
                                 if (!isNowFocused) {
@@ -481,27 +652,16 @@ public class MusicPlayerApp extends Application {
                                 }
                             });
                         }
-                        textField.setText(item.getName());
+                        textField.setText(fileName);
                         setText(null);
                         setGraphic(textField);
                     } else {
-                        nameLabel.setText(getTruncatedFileName(item.getName()));
+                        nameLabel.setText(getTruncatedFileName(fileName));
+                        int millis = trackStore.getDuration(item);
+                        durationLabel.setText(millis == TrackStore.UNKNOWN ? "" : formatTime(Duration.millis(millis)));
                         setText(null);
                         setGraphic(hbox);
                     }
-
-                    // Update hover style
-                    setOnMouseEntered(e -> {
-                        if (!isSelected()) {
-                            String hoverColor = (baseColor.equals("#0f0f0f") ? "#202020" : "#323232");
-                            setStyle("-fx-background-color: " + hoverColor + "; -fx-font-size: 16px;");
-                        }
-                    });
-                    setOnMouseExited(e -> {
-                        if (!isSelected()) {
-                            setStyle("-fx-background-color: " + baseColor + "; -fx-font-size: 16px;");
-                        }
-                    });
                 }
             }
 
@@ -513,7 +673,7 @@ public class MusicPlayerApp extends Application {
                 }
                 if (textField == null) {
                     textField = new TextField();
-                    textField.setStyle("-fx-font-size: 18px;");
+                    textField.getStyleClass().add("track-edit-field");
                     textField.setOnAction(e -> processEdit());
                     textField.focusedProperty().addListener((obs, wasFocused, isNowFocused) -> {
                         if (!isNowFocused) {
@@ -522,7 +682,7 @@ public class MusicPlayerApp extends Application {
                     });
                 }
                 // Remove ".mp3" from the display text when editing (if present)
-                String fullName = getItem().getName();
+                String fullName = trackStore.getName(getItem());
                 String displayName = fullName;
                 if (fullName.toLowerCase().endsWith(".mp3")) {
                     displayName = fullName.substring(0, fullName.length() - 4);
@@ -540,18 +700,6 @@ public class MusicPlayerApp extends Application {
                 updateItem(getItem(), false);
             }
 
-            @Override
-            public void updateSelected(boolean selected) {
-                super.updateSelected(selected);
-                int index = getIndex() < 0 ? 0 : getIndex();
-                String baseColor = (index % 2 == 0) ? "#0f0f0f" : "#1a1a1a";
-                if (selected) {
-                    setStyle("-fx-background-color: #4a4a4a; -fx-font-size: 16px;");
-                } else {
-                    setStyle("-fx-background-color: " + baseColor + "; -fx-font-size: 16px;");
-                }
-            }
-
             // Helper method to remove the .mp3 extension if present.
             private String beautifyFileName(String fileName) {
                 if (fileName.toLowerCase().endsWith(".mp3")) {
@@ -571,114 +719,86 @@ public class MusicPlayerApp extends Application {
             }
 
             private void processEdit() {
+                // Losing focus after the edit has ended must not submit the same rename twice
+                if (!isEditing()) {
+                    return;
+                }
                 if (textField == null || getItem() == null) {
                     cancelEdit();
                     return;
                 }
                 String newName = textField.getText().trim();
+                File oldFile = trackStore.getFile(getItem());
+                cancelEdit();
                 if (newName.isEmpty()) {
-                    cancelEdit();
-                    return;
-                }
-                newName = sanitizeFileName(newName);
-                File oldFile = getItem();
-                String originalName = oldFile.getName();
-                String extension = "";
-                int dotIndex = originalName.lastIndexOf('.');
-                if (dotIndex > 0) {
-                    extension = originalName.substring(dotIndex); // e.g. ".mp3"
-                }
-                // Ensure the new name has the same extension as the original.
-                if (!newName.toLowerCase().endsWith(extension.toLowerCase())) {
-                    newName = newName + extension;
-                }
-                // Avoid renaming if the new name is identical to the old name.
-                if (newName.equals(oldFile.getName())) {
-                    cancelEdit();
                     return;
                 }
-                File newFile = new File(oldFile.getParent(), newName);
-                if (newFile.exists()) {
-                    int counter = 1;
-                    String nameWithoutExt = newName;
-                    String ext = "";
-                    int dotIdx = newName.lastIndexOf('.');
-                    if (dotIdx > 0) {
-                        nameWithoutExt = newName.substring(0, dotIdx);
-                        ext = newName.substring(dotIdx);
-                    }
-                    while (newFile.exists()) {
-                        newFile = new File(oldFile.getParent(), nameWithoutExt + "_" + counter + ext);
-                        counter++;
-                    }
-                }
-                boolean success = oldFile.renameTo(newFile);
-                if (success) {
-                    // Also rename the artwork file if it exists.
-                    String oldFileName = oldFile.getName();
-                    int dotIdx = oldFileName.lastIndexOf('.');
-                    String oldBaseName = dotIdx > 0 ? oldFileName.substring(0, dotIdx) : oldFileName;
-                    File oldArtworkFile = new File(artDir, oldBaseName + ".png");
-                    if (oldArtworkFile.exists()) {
-                        String newFileName = newFile.getName();
-                        int newDotIdx = newFileName.lastIndexOf('.');
-                        String newBaseName = newDotIdx > 0 ? newFileName.substring(0, newDotIdx) : newFileName;
-                        File newArtworkFile = new File(artDir, newBaseName + ".png");
-                        boolean artworkRenamed = oldArtworkFile.renameTo(newArtworkFile);
-                        if (!artworkRenamed) {
-                            System.out.println("Failed to rename artwork file: " + oldArtworkFile.getAbsolutePath());
-                        }
-                    }
-                    getListView().getItems().set(getIndex(), newFile);
-                    commitEdit(newFile);
-                } else {
-                    cancelEdit();
-                }
+                // The rename runs on the engine thread; the list is updated once it has been committed
+                renameEngine.renameAsync(List.of(new RenameEngine.Request(oldFile, newName)))
+                        .thenAccept(renamed -> Platform.runLater(() -> applyRenames(renamed)));
             }
         });
 
-        // Populate the ListView with track files from the music directory.
-        if (musicDir.exists() && musicDir.isDirectory()) {
-            File[] files = musicDir.listFiles((dir, name) -> {
-                String lower = name.toLowerCase();
-                return lower.endsWith(".mp3") || lower.endsWith(".wav") || lower.endsWith(".m4a") || lower.endsWith(".flac");
-            });
-            if (files != null) {
-                for (File file : files) {
-                    trackListView.getItems().add(file);
-                }
-            }
+        // Populate the store from every library root; each root's tracks show up once its listing is in
+        for (LibraryRoot root : libraryRoots) {
+            scanLibraryRoot(root);
         }
 
         // When the user double-clicks a cell (but not on the edit button), play the track.
         trackListView.setOnMouseClicked(e -> {
             if (e.getClickCount() == 2) {
-                File selectedFile = trackListView.getSelectionModel().getSelectedItem();
-                if (selectedFile != null) {
-                    playTrack(selectedFile);
+                Integer selectedTrack = trackListView.getSelectionModel().getSelectedItem();
+                if (selectedTrack != null) {
+                    // Picking from the library makes the library the queue again
+                    activePlaylist = null;
+                    radioActive = false;
+                    playTrack(selectedTrack);
                 }
             }
         });
         pane.setCenter(trackListView);
 
-        // Clip the pane for rounded corners.
-        pane.layoutBoundsProperty().addListener((obs, oldBounds, newBounds) -> {
-            double width = newBounds.getWidth();
-            double height = newBounds.getHeight();
-            double radius = 49 * 2; // Rounded bottom corners
-
-            // Primary clip: Rounded rectangle.
-            Rectangle roundedRect = new Rectangle(width, height);
-            roundedRect.setArcWidth(radius);
-            roundedRect.setArcHeight(radius);
-
-            // Secondary clip: A full-width rectangle covering the top portion.
-            Rectangle topRect = new Rectangle(width, height - radius / 2);
-            topRect.setTranslateY(0); // Align with top
-
-            // Combine the clips.
-            pane.setClip(new Group(roundedRect, topRect));
+        // Top: search, sort and library actions
+        searchField = new TextField();
+        searchField.setPromptText("Search");
+        searchField.getStyleClass().add("library-control");
+        searchField.textProperty().addListener((obs, oldText, newText) -> refreshTrackList());
+        HBox.setHgrow(searchField, Priority.ALWAYS);
+
+        sortChoice = new ChoiceBox<>();
+        sortChoice.getItems().addAll(TrackStore.SortKey.values());
+        sortChoice.setValue(TrackStore.SortKey.NAME);
+        sortChoice.valueProperty().addListener((obs, oldKey, newKey) -> refreshTrackList());
+
+        Button btnRenameAll = new Button("Rename from tags…");
+        btnRenameAll.getStyleClass().add("library-control");
+        btnRenameAll.setOnAction(e -> renameLibraryFromTags());
+
+        MenuButton btnPlaylist = new MenuButton("Playlist");
+        btnPlaylist.getStyleClass().add("library-control");
+        MenuItem importItem = new MenuItem("Import and play…");
+        importItem.setOnAction(e -> importPlaylist());
+        MenuItem exportItem = new MenuItem("Export queue…");
+        exportItem.setOnAction(e -> exportQueue());
+        CheckMenuItem radioItem = new CheckMenuItem("Radio when the queue ends");
+        radioItem.setSelected(radioMode);
+        radioItem.selectedProperty().addListener((obs, was, selected) -> {
+            radioMode = selected;
+            radioActive = false;
+            radioNext = -1;
         });
+        btnPlaylist.getItems().addAll(importItem, exportItem, new SeparatorMenuItem(), radioItem);
+        listSummaryLabel = new Label();
+        listSummaryLabel.getStyleClass().add("list-summary");
+        HBox libraryActions = new HBox(10, searchField, listSummaryLabel, sortChoice, btnPlaylist, btnRenameAll);
+        libraryActions.setAlignment(Pos.CENTER_RIGHT);
+        libraryActions.setPadding(new Insets(8, 20, 8, 20));
+        pane.setTop(libraryActions);
+
+        refreshTrackList();
+
+        // Clip the pane for rounded corners.
+        clipBottomCorners(pane);
 
         return pane;
     }
@@ -688,13 +808,19 @@ public class MusicPlayerApp extends Application {
      */
     private void switchToPlayer() {
         playerPane.setVisible(true);
-        trackListPane.setVisible(false);
+        if (trackListPane != null) {
+            trackListPane.setVisible(false);
+        }
     }
 
     /**
-     * Switches the visible screen to the track list screen.
+     * Switches the visible screen to the track list screen, building it (and scanning the music folder) on first use.
      */
     private void switchToTrackList() {
+        if (trackListPane == null) {
+            trackListPane = createTrackListScreen();
+            contentPane.getChildren().add(trackListPane);
+        }
         trackListPane.setVisible(true);
         playerPane.setVisible(false);
     }
@@ -703,245 +829,611 @@ public class MusicPlayerApp extends Application {
      * Loads and plays the selected track. When the media is ready, the code extracts the embedded album cover
      * (if available) and updates the album image view and player background.
      */
-    private void playTrack(File file) {
+    private void playTrack(int trackId) {
+        playTrack(trackId, false, null, PlaybackScheduler.NAVIGATION_DEBOUNCE_MILLIS);
+    }
+
+    /**
+     * @param crossfade Whether to fade from the previous track (natural transitions) or cut (user skips)
+     */
+    private void playTrack(int trackId, boolean crossfade) {
+        playTrack(trackId, crossfade, null, 0);
+    }
+
+    /**
+     * Requests a track through the playback scheduler. Queue bookkeeping happens right away, so repeated
+     * skips still step through the queue, but only the latest request is prepared and started; anything
+     * requested before it is dropped or cancelled, including a running conversion.
+     *
+     * @param resumeAt      If set, the track is loaded paused at this position instead of starting to play
+     * @param debounceMillis How long to wait for a newer request before preparing this one
+     */
+    private void playTrack(int trackId, boolean crossfade, Duration resumeAt, long debounceMillis) {
         // QUEUE FEATURE: Always update the default queue and current track index
-        defaultQueue = new ArrayList<>(trackListView.getItems());
-        for (int i = 0; i < defaultQueue.size(); i++) {
-            if (defaultQueue.get(i).getAbsolutePath().equals(file.getAbsolutePath())) {
-                currentTrackIndex = i;
-                break;
-            }
+        // (the restored queue stays in place until the library screen has been opened, and an imported
+        // playlist until a track is picked from the library)
+        if (trackListView != null && activePlaylist == null) {
+            defaultQueue.setTracks(trackListView.getItems());
         }
+        defaultQueue.moveTo(trackId);
+        File file = trackStore.getFile(trackId);
+        playbackScheduler.request(debounceMillis,
+                cancellation -> prepareTrack(trackId, file, cancellation),
+                prepared -> startTrack(trackId, prepared, crossfade, resumeAt));
+    }
 
-        // Check if the file is a FLAC file; if so, convert it to MP3 using ffmpeg
-        if (file.getName().toLowerCase().endsWith(".flac")) {
-            File originalFile = file;
-            File mp3File = new File(file.getParent(), file.getName().substring(0, file.getName().lastIndexOf(".")) + ".mp3");
-            if (!mp3File.exists()) {
-                System.out.println("Converting FLAC to MP3: " + file.getAbsolutePath());
-                try {
-                    ProcessBuilder pb = new ProcessBuilder(
-                            "ffmpeg",
-                            "-i", file.getAbsolutePath(),
-                            "-ab", "320k",
-                            "-map_metadata", "0",
-                            "-id3v2_version", "3",
-                            mp3File.getAbsolutePath()
-                    );
-                    pb.redirectErrorStream(true);
-                    Process process = pb.start();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        System.out.println(line);
-                    }
-                    int exitCode = process.waitFor();
-                    if (exitCode != 0) {
-                        System.out.println("FFmpeg conversion failed with exit code " + exitCode);
-                    } else {
-                        System.out.println("Conversion successful: " + mp3File.getAbsolutePath());
-                        if (originalFile.delete()) {
-                            System.out.println("Deleted original FLAC file: " + originalFile.getAbsolutePath());
-                        } else {
-                            System.out.println("Failed to delete original FLAC file: " + originalFile.getAbsolutePath());
-                        }
-                        file = mp3File;
-                        // Update the track list item with the new MP3 file
-                        int index = trackListView.getItems().indexOf(originalFile);
-                        if (index != -1) {
-                            trackListView.getItems().set(index, file);
-                        }
-                    }
-                } catch (IOException | InterruptedException ex) {
-                    ex.printStackTrace();
-                }
-            } else {
-                file = mp3File;
-            }
+    /**
+     * What {@link #prepareTrack} produces for {@link #startTrack}.
+     */
+    private static class PreparedTrack {
+        final File file;
+        final String artworkPath;
+        final WaveformData waveform;
+
+        PreparedTrack(File file, String artworkPath, WaveformData waveform) {
+            this.file = file;
+            this.artworkPath = artworkPath;
+            this.waveform = waveform;
         }
-        // Check if the file is an M4A file; if so, convert it to MP3 using ffmpeg
-        else if (file.getName().toLowerCase().endsWith(".m4a")) {
-            File originalFile = file;
-            File mp3File = new File(file.getParent(), file.getName().substring(0, file.getName().lastIndexOf(".")) + ".mp3");
-            if (!mp3File.exists()) {
-                System.out.println("Converting M4A to MP3: " + file.getAbsolutePath());
-                try {
-                    ProcessBuilder pb = new ProcessBuilder(
-                            "ffmpeg",
-                            "-i", file.getAbsolutePath(),
-                            "-c:v", "copy",
-                            "-c:a", "libmp3lame",
-                            "-q:a", "4",
-                            mp3File.getAbsolutePath()
-                    );
-                    pb.redirectErrorStream(true);
-                    Process process = pb.start();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        System.out.println(line);
-                    }
-                    int exitCode = process.waitFor();
-                    if (exitCode != 0) {
-                        System.out.println("FFmpeg conversion failed with exit code " + exitCode);
-                    } else {
-                        System.out.println("Conversion successful: " + mp3File.getAbsolutePath());
-                        if (originalFile.delete()) {
-                            System.out.println("Deleted original M4A file: " + originalFile.getAbsolutePath());
-                        } else {
-                            System.out.println("Failed to delete original M4A file: " + originalFile.getAbsolutePath());
-                        }
-                        file = mp3File;
-                        // Update the track list item with the new MP3 file
-                        int index = trackListView.getItems().indexOf(originalFile);
-                        if (index != -1) {
-                            trackListView.getItems().set(index, file);
-                        }
-                    }
-                } catch (IOException | InterruptedException ex) {
-                    ex.printStackTrace();
+    }
+
+    /**
+     * Everything about starting a track that touches the disk: artwork extraction, FLAC/M4A conversion and
+     * the waveform cache. Runs on the playback scheduler's thread and stops early once superseded.
+     */
+    private PreparedTrack prepareTrack(int trackId, File file, PlaybackScheduler.Cancellation cancellation) {
+        // Extract artwork from the original file (FLAC and M4A included), so the cover doesn't wait for a
+        // conversion; its analysis runs in the background meanwhile
+        String artworkPath = AudioArtworkExtractor.extractArtwork(file.getAbsolutePath());
+        if (artworkPath != null) {
+            ArtworkAnalysis.analyzeAsync(artworkPath).thenAccept(analysis -> updateRadioColors(trackId, analysis));
+        }
+        cancellation.throwIfCancelled();
+
+        // FLAC and M4A files are converted to MP3 using ffmpeg
+        File playable = Transcoder.toPlayable(file, cancellation);
+        cancellation.throwIfCancelled();
+        if (!playable.equals(file)) {
+            // The track keeps its ID; only the file behind it changes
+            Platform.runLater(() -> {
+                trackStore.setFile(trackId, playable);
+                if (trackListView != null) {
+                    trackListView.refresh();
                 }
-            } else {
-                file = mp3File;
-            }
+            });
+            file = playable;
         }
 
-        System.out.println("Attempting to play track: " + file.getAbsolutePath());
-        // Extract artwork when playing a track
-        String artworkPath = AudioArtworkExtractor.extractArtwork(file.getAbsolutePath());
+        // Loudness and peaks come from the analysis cache; nothing is decoded here
+        return new PreparedTrack(file, artworkPath, WaveformData.readCached(file));
+    }
+
+    /**
+     * Starts a prepared track and updates the player screen. Runs on the FX thread, and only for the
+     * latest request.
+     */
+    private void startTrack(int trackId, PreparedTrack prepared, boolean crossfade, Duration resumeAt) {
+        File file = prepared.file;
+        String artworkPath = prepared.artworkPath;
+        if (!file.equals(trackStore.getFile(trackId))) {
+            trackStore.setFile(trackId, file);
+        }
+        trackStore.setArtworkKey(trackId, artworkPath);
 
-        // Stop any currently playing media
-        if (mediaPlayer != null) {
-            mediaPlayer.stop();
+        Log.info("Playing track: %s", file.getAbsolutePath());
+        recentlyPlayed.remove(trackId);
+        recentlyPlayed.addFirst(trackId);
+        if (recentlyPlayed.size() > RADIO_HISTORY) {
+            recentlyPlayed.removeLast();
         }
+        radioNext = -1;
 
         try {
-            File fileToPlay = copyToTemp(file);
-            Media media = new Media(fileToPlay.toURI().toString());
-            mediaPlayer = new MediaPlayer(media);
+            WaveformData waveform = prepared.waveform;
+            double gain = waveform != null ? waveform.getGain() : 1.0;
+
+            // The manager reuses a preloaded player if there is one and disposes the previous one
+            MediaPlayer player = playerManager.start(file, crossfade, gain);
+            mediaPlayer = player;
+            spectrumVisualizer.attach(player);
+
+            waveformView.setData(waveform);
+            if (waveform == null) {
+                WaveformAnalyzer.analyzeInBackground(file, data -> Platform.runLater(() -> {
+                    if (mediaPlayer == player) {
+                        waveformView.setData(data);
+                        playerManager.setTrackGain(data.getGain());
+                    }
+                }));
+            }
 
             // Load artwork if available
             if (artworkPath != null) {
-                Image albumImage = new Image("file:" + artworkPath);
+                // Decoded in the background at the size it is shown at, under the image memory budget
+                Image albumImage = imageService.load(new File(artworkPath), albumImageView.getFitWidth(),
+                        albumImageView.getFitHeight());
                 albumImageView.setImage(albumImage);
-                updateBackground(albumImage);
-
-                try {
-                    Thread.sleep(100);
-
-                    String topColorHex = AverageColorFinder.findDominantColorTop(artworkPath);
-                    Color convColor = Color.web(topColorHex);
-                    ColorAdjust darker = new ColorAdjust();
-                    darker.setBrightness(-0.7);
-                    darker.setSaturation(0.8);
-                    Color adjustedColor = convColor.deriveColor(0, 1, 1 + darker.getBrightness(), 1);
-                    String convHex = String.format("#%02X%02X%02X",
-                            (int) (adjustedColor.getRed() * 255),
-                            (int) (adjustedColor.getGreen() * 255),
-                            (int) (adjustedColor.getBlue() * 255));
-                    topBar.setStyle("-fx-background-color: " + convHex + "; -fx-padding: 15; -fx-background-radius: 49 49 0 0;");
-
-                    // Compute a slightly darker color for the border
-                    Color borderColor = adjustedColor.darker();
-                    root.setBorder(new Border(new BorderStroke(
-                            borderColor,
-                            BorderStrokeStyle.SOLID,
-                            new CornerRadii(49),
-                            new BorderWidths(5)
-                    )));
-
-                    root.setBackground(new Background(new BackgroundFill(
-                            borderColor,
-                            new CornerRadii(49),
-                            Insets.EMPTY
-                    )));
-
-                    Color inverseColor = invertColor(convColor);
-                    String inverseHex = toHexString(inverseColor);
-                    currentTimeLabel.setStyle("-fx-text-fill: " + inverseHex + "; -fx-font-size: 16px; -fx-font-weight: bold;");
-                    totalTimeLabel.setStyle("-fx-text-fill: " + inverseHex + "; -fx-font-size: 16px; -fx-font-weight: bold;");
-                } catch (IOException ex) {
-                    ex.printStackTrace();
+
+                // Brightness and colors are computed once per cover in the background; here they are only applied
+                ArtworkAnalysis analysis = ArtworkAnalysis.getCached(artworkPath);
+                if (analysis != null) {
+                    applyArtwork(trackId, albumImage, artworkPath, analysis);
+                } else {
+                    ArtworkAnalysis.analyzeAsync(artworkPath).whenComplete((result, error) -> Platform.runLater(() -> {
+                        if (mediaPlayer != player) {
+                            return;
+                        }
+                        if (error != null) {
+                            Log.warn("%s", error.getMessage());
+                            return;
+                        }
+                        applyArtwork(trackId, albumImage, artworkPath, result);
+                    }));
                 }
             } else {
                 albumImageView.setImage(null);
-                playerPane.setStyle("-fx-background-color: #01050a;");
-                topBar.setStyle("-fx-background-color: transparent; -fx-padding: 15;");
+                backgroundSource = null;
+                playerPane.setBackground(NO_ARTWORK_BACKGROUND);
+                ThemeStylesheet.apply(root, null);
+                themeColor = null;
             }
 
-            // QUEUE FEATURE: Set callback to play the next track in the default queue when current track ends.
-            mediaPlayer.setOnEndOfMedia(() -> {
-                if (!defaultQueue.isEmpty()) {
-                    currentTrackIndex = (currentTrackIndex + 1) % defaultQueue.size();
-                    File nextTrack = defaultQueue.get(currentTrackIndex);
-                    playTrack(nextTrack);
-                }
-            });
-
-            mediaPlayer.setOnReady(() -> {
-                System.out.println("Media is ready. Starting playback.");
+            PlayerManager.whenReady(player, () -> {
+                Log.debug("Media is ready");
                 // Show the progress slider and time labels once the media is ready.
                 progressSlider.setVisible(true);
                 currentTimeLabel.setVisible(true);
                 totalTimeLabel.setVisible(true);
 
-                // Set the time labels to white with increased size and bold text.
-                currentTimeLabel.setStyle("-fx-text-fill: white; -fx-font-size: 18px; -fx-font-weight: bold; -fx-font-family: 'Consolas';");
-                totalTimeLabel.setStyle("-fx-text-fill: white; -fx-font-size: 18px; -fx-font-weight: bold; -fx-font-family: 'Consolas';");
-
                 // Initialize slider and update it as the track plays.
                 progressSlider.setValue(0);
-                Duration total = mediaPlayer.getTotalDuration();
+                Duration total = player.getTotalDuration();
                 totalTimeLabel.setText(formatTime(total));
-
-                mediaPlayer.currentTimeProperty().addListener((obs, oldTime, newTime) -> {
-                    Duration tot = mediaPlayer.getTotalDuration();
-                    if (tot != null && tot.toSeconds() > 0) {
+                trackStore.setDuration(trackId, (int) total.toMillis());
+
+                // Only the current player drives the progress bar, not one that is fading out
+                player.currentTimeProperty().addListener((obs, oldTime, newTime) -> {
+                    Duration tot = player.getTotalDuration();
+                    // In low-power mode the bar moves once a second, with the time label, instead of every update
+                    if (lowPowerMode && (long) newTime.toSeconds() == (long) oldTime.toSeconds()) {
+                        return;
+                    }
+                    if (player == mediaPlayer && tot != null && tot.toSeconds() > 0) {
                         progressSlider.setValue(newTime.toSeconds() / tot.toSeconds() * 100);
+                        waveformView.setProgress(newTime.toSeconds() / tot.toSeconds());
                         currentTimeLabel.setText(formatTime(newTime));
                     }
                 });
-                mediaPlayer.play();
-                switchToPlayer();
-                playIcon.setStyle("-fx-font-size: 100px; -fx-text-fill: white; -fx-padding: 0 0 13 0; -fx-smooth: true;");
-                playIcon.setText("⏸");
+                if (resumeAt != null) {
+                    // Restored from the last session: show the position but wait for the user to press play
+                    player.seek(resumeAt);
+                    if (total.toSeconds() > 0) {
+                        progressSlider.setValue(resumeAt.toSeconds() / total.toSeconds() * 100);
+                        waveformView.setProgress(resumeAt.toSeconds() / total.toSeconds());
+                    }
+                    currentTimeLabel.setText(formatTime(resumeAt));
+                } else {
+                    player.play();
+                    switchToPlayer();
+                    showPlaying(true);
+                }
+
+                preloadNextTrack();
             });
 
-            mediaPlayer.setOnError(() -> {
-                System.out.println("Error occurred: " + mediaPlayer.getError().getMessage());
+            player.setOnError(() -> {
+                Log.error("Playback error: %s", player.getError().getMessage());
             });
         } catch (Exception ex) {
-            ex.printStackTrace();
+            Log.error("Could not play track %d", trackId, ex);
         }
     }
 
-    // Add this helper method to sanitize filenames (inside your MusicPlayerApp class)
-    private String sanitizeFileName(String input) {
-        // Replace any character not allowed in filenames with an underscore.
-        return input.replaceAll("[\\\\/:*?\"<>|]", "_");
+    /**
+     * Applies a cover's precomputed analysis: blurred background, then theme colors.
+     */
+    private void applyArtwork(int trackId, Image albumImage, String artworkPath, ArtworkAnalysis analysis) {
+        // The blurred background is rendered from the file; skip it if the cover fails to load
+        ImageService.whenLoaded(albumImage, () -> {
+            if (!albumImage.isError() && albumImageView.getImage() == albumImage) {
+                updateBackground(albumImage, artworkPath, analysis.brightness);
+            }
+        });
+        trackStore.setThemeRgb(trackId, analysis.topRgb);
+        applyTheme(Color.rgb((analysis.topRgb >> 16) & 0xFF, (analysis.topRgb >> 8) & 0xFF, analysis.topRgb & 0xFF),
+                analysis.palette);
     }
 
-    private File copyToTemp(File original) throws IOException {
-        File temp = File.createTempFile("tempMedia", original.getName());
-        Files.copy(original.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        temp.deleteOnExit();
-        return temp;
+    /**
+     * Colors the top bar, window border and time labels from the dominant color at the top of the artwork,
+     * by swapping the palette stylesheet (see {@link ThemeStylesheet}).
+     *
+     * @param topColor Dominant color of the artwork's top rows
+     * @param palette  Artwork palette used to pick readable text colors, or null to fall back to inverting
+     */
+    private void applyTheme(Color topColor, AverageColorFinder.Palette palette) {
+        themeColor = topColor;
+        ColorAdjust darker = new ColorAdjust();
+        darker.setBrightness(-0.7);
+        darker.setSaturation(0.8);
+        Color adjustedColor = topColor.deriveColor(0, 1, 1 + darker.getBrightness(), 1);
+        int topBarRgb = (int) Math.round(adjustedColor.getRed() * 255) << 16
+                | (int) Math.round(adjustedColor.getGreen() * 255) << 8 | (int) Math.round(adjustedColor.getBlue() * 255);
+
+        // Compute a slightly darker color for the border
+        Color borderColor = adjustedColor.darker();
+
+        // Text sits on the darkened artwork, so check contrast against the darkened top color
+        Color inverseColor;
+        if (palette != null) {
+            int foreground = palette.bestForeground(topBarRgb);
+            inverseColor = Color.rgb((foreground >> 16) & 0xFF, (foreground >> 8) & 0xFF, foreground & 0xFF);
+        } else {
+            inverseColor = invertColor(topColor);
+        }
+        // Top bar, window border and time labels all take their colors from one palette stylesheet
+        ThemeStylesheet.apply(root, ThemeStylesheet.paletteUrl(borderColor, adjustedColor, inverseColor));
+        waveformView.setColor(inverseColor);
+        spectrumVisualizer.setColors(topColor, inverseColor);
     }
 
-    private double getImageAverageBrightness(Image image) {
-        PixelReader pixelReader = image.getPixelReader();
-        int width = (int) image.getWidth();
-        int height = (int) image.getHeight();
-        double totalBrightness = 0;
-        int count = 0;
-        for (int x = 0; x < width; x += 10) {  // sample every 10 pixels for performance
-            for (int y = 0; y < height; y += 10) {
-                Color color = pixelReader.getColor(x, y);
-                totalBrightness += color.getBrightness();
-                count++;
+    /**
+     * Applies a batch of committed renames to the track list and queue in one go.
+     *
+     * @param renamed Old file to new file for every renamed track
+     */
+    private void applyRenames(Map<File, File> renamed) {
+        if (renamed.isEmpty()) {
+            return;
+        }
+        // IDs are stable, so the queue stays as it is and only the store's paths change
+        for (Map.Entry<File, File> rename : renamed.entrySet()) {
+            int id = trackStore.idOf(rename.getKey());
+            if (id >= 0) {
+                trackStore.setFile(id, rename.getValue());
+            }
+        }
+        if (trackListView != null) {
+            refreshTrackList();
+        }
+        // Preloaded players are keyed by the old file names
+        playerManager.clearPreloads();
+        Log.info("Renamed %d track(s)", renamed.size());
+    }
+
+    /**
+     * Shows the tracks matching the search text, in the selected sort order.
+     */
+    private void refreshTrackList() {
+        int[] ids = trackStore.filter(searchField.getText());
+        ids = trackStore.sort(ids, sortChoice.getValue(), true);
+        List<Integer> items = new ArrayList<>(ids.length);
+        for (int id : ids) {
+            items.add(id);
+        }
+        trackListView.getItems().setAll(items);
+        LISTED_TRACKS.set(items.size());
+        LIBRARY_TRACKS.set(trackStore.size());
+        updateListSummary();
+    }
+
+    /**
+     * Shows how many tracks are listed and how long they play for (marked as at least that long while
+     * some durations are still unknown).
+     */
+    private void updateListSummary() {
+        long totalMillis = 0;
+        boolean partial = false;
+        for (int id : trackListView.getItems()) {
+            int millis = trackStore.getDuration(id);
+            if (millis == TrackStore.UNKNOWN) {
+                partial = true;
+            } else {
+                totalMillis += millis;
+            }
+        }
+        long minutes = totalMillis / 60_000;
+        String length = minutes >= 60 ? String.format("%d h %02d min", minutes / 60, minutes % 60) : minutes + " min";
+        listSummaryLabel.setText(trackListView.getItems().size() + " tracks · " + (partial ? "≥ " : "") + length);
+    }
+
+    /**
+     * Lists a library root on its device's pool, adds its tracks to the store, and queues the root's
+     * background work on the same pool: durations, artwork migration, tags, then waveform analysis. Cache
+     * cleanup for the root is queued last, on its own rate-limited thread. A spinning disk's
+     * single worker thus reads one file at a time, while an SSD's workers read several at once.
+     */
+    private void scanLibraryRoot(LibraryRoot root) {
+        root.executor().execute(() -> {
+            long start = System.nanoTime();
+            List<File> tracks = root.scan();
+            Log.info("Scanned %s: %d tracks in %d ms", root.dir, tracks.size(), (System.nanoTime() - start) / 1_000_000);
+            if (tracks.isEmpty()) {
+                return;
+            }
+            Platform.runLater(() -> {
+                for (File file : tracks) {
+                    trackStore.add(file);
+                }
+                refreshTrackList();
+            });
+            // Durations come first: they only read a few KB per file
+            loadDurationsInBackground(tracks, root.executor());
+            // Move covers from the old one-PNG-per-track layout into the shared artwork store
+            AudioArtworkExtractor.migrateLegacyArtwork(root.dir);
+            loadTagsInBackground(tracks, root.executor());
+            // Decode each track once in the background for its waveform and loudness,
+            // and report it to the radio's similarity index
+            WaveformAnalyzer.analyzeAllInBackground(tracks, root.executor(), this::indexForRadio);
+            // Remove cache files of tracks that are gone, at a low I/O rate on its own thread
+            CacheManager.collectInBackground(root.dir, tracks);
+        });
+    }
+
+    /**
+     * Probes the durations of the given tracks from their MP3 headers, one task per batch, so lengths show
+     * in the library before the tracks are played.
+     */
+    private void loadDurationsInBackground(List<File> tracks, Executor executor) {
+        for (int from = 0; from < tracks.size(); from += TAG_BATCH) {
+            List<File> batch = tracks.subList(from, Math.min(tracks.size(), from + TAG_BATCH));
+            executor.execute(() -> {
+                int[] durations = new int[batch.size()];
+                for (int j = 0; j < durations.length; j++) {
+                    durations[j] = DurationProbe.probe(batch.get(j));
+                }
+                Platform.runLater(() -> {
+                    for (int j = 0; j < durations.length; j++) {
+                        int id = trackStore.idOf(batch.get(j));
+                        // A length measured by the player is exact; keep it
+                        if (id >= 0 && durations[j] != TrackStore.UNKNOWN && trackStore.getDuration(id) == TrackStore.UNKNOWN) {
+                            trackStore.setDuration(id, durations[j]);
+                        }
+                    }
+                    if (sortChoice.getValue() == TrackStore.SortKey.DURATION) {
+                        refreshTrackList();
+                    } else {
+                        trackListView.refresh();
+                        updateListSummary();
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * Reads tags for the given tracks off the FX thread, one task per batch, and stores each batch at once.
+     */
+    private void loadTagsInBackground(List<File> tracks, Executor executor) {
+        for (int from = 0; from < tracks.size(); from += TAG_BATCH) {
+            List<File> batch = tracks.subList(from, Math.min(tracks.size(), from + TAG_BATCH));
+            executor.execute(() -> {
+                List<File> files = new ArrayList<>(batch.size());
+                List<String[]> tagValues = new ArrayList<>(batch.size());
+                for (File track : batch) {
+                    String[] tags = TrackStore.readTags(track);
+                    if (tags != null) {
+                        files.add(track);
+                        tagValues.add(tags);
+                    }
+                }
+                Platform.runLater(() -> {
+                    for (int j = 0; j < files.size(); j++) {
+                        int id = trackStore.idOf(files.get(j));
+                        if (id >= 0) {
+                            String[] t = tagValues.get(j);
+                            trackStore.setTags(id, t[0], t[1], t[2]);
+                        }
+                    }
+                    // Tags only affect search and sort order, not what the cells show
+                    if (!searchField.getText().isBlank() || sortChoice.getValue() != TrackStore.SortKey.NAME) {
+                        refreshTrackList();
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * Asks for a name pattern and renames the whole library from each track's tags.
+     */
+    private void renameLibraryFromTags() {
+        TextInputDialog dialog = new TextInputDialog("Artist - Title");
+        dialog.setTitle("Rename from tags");
+        dialog.setHeaderText("Rename every track using its tags.\nTokens: Artist, Title, Album, Track, Year");
+        dialog.showAndWait().ifPresent(pattern -> {
+            if (pattern.isBlank()) {
+                return;
+            }
+            List<File> tracks = new ArrayList<>();
+            for (int id : trackListView.getItems()) {
+                tracks.add(trackStore.getFile(id));
+            }
+            renameEngine.renameFromTagsAsync(tracks, pattern)
+                    .thenAccept(renamed -> Platform.runLater(() -> applyRenames(renamed)));
+        });
+    }
+
+    /**
+     * Picks the track after the current one: the next in the queue, or in radio mode once the queue has
+     * run out, the most similar track that hasn't been played recently.
+     *
+     * @return The track ID, or -1 if there is nothing to play
+     */
+    private int nextTrack() {
+        if (radioMode && (radioActive || defaultQueue.isAtEnd())) {
+            int pick = radioNext >= 0 ? radioNext : pickRadioTrack();
+            if (pick >= 0) {
+                radioActive = true;
+                return pick;
+            }
+        }
+        return defaultQueue.step(1);
+    }
+
+    /**
+     * @return The indexed track most similar to the current one, excluding recently played tracks, or -1
+     *         if the current track hasn't been indexed yet
+     */
+    private int pickRadioTrack() {
+        if (recentlyPlayed.isEmpty()) {
+            return -1;
+        }
+        float[] current = similarityIndex.get(recentlyPlayed.peekFirst());
+        if (current == null) {
+            return -1;
+        }
+        long start = System.nanoTime();
+        int pick = similarityIndex.nearest(current, id -> !recentlyPlayed.contains(id));
+        Log.debug("Radio pick %d among %d tracks in %d us", pick, similarityIndex.size(), (System.nanoTime() - start) / 1000);
+        return pick;
+    }
+
+    /**
+     * Adds a track to the radio's similarity index from its audio analysis and its cover's palette.
+     * Runs on the waveform analysis or device threads; the cover analysis is read or computed on its own thread.
+     *
+     * Only covers already in the artwork store are used: extracting every cover of the library here would
+     * read the tags and re-encode the picture of every track. Tracks whose cover hasn't been extracted yet
+     * are indexed on their sound alone, and get their colors when they're first played
+     * (see {@link #updateRadioColors}). Tracks that can't be analyzed (no ffmpeg, or a file it can't decode)
+     * are indexed on their colors alone, with neutral sound features.
+     *
+     * @param waveform The track's audio analysis, or null if there is none
+     */
+    private void indexForRadio(File track, WaveformData waveform) {
+        String artwork = AudioArtworkExtractor.cachedArtwork(track);
+        CompletableFuture<ArtworkAnalysis> analysis = artwork == null || artwork.equals(ArtworkIndex.NO_ARTWORK)
+                ? CompletableFuture.completedFuture(null)
+                : ArtworkAnalysis.analyzeAsync(artwork).exceptionally(error -> null);
+        analysis.thenAccept(result -> {
+            float[] features = SimilarityIndex.features(result, waveform);
+            Platform.runLater(() -> {
+                int id = trackStore.idOf(track);
+                if (id >= 0) {
+                    similarityIndex.put(id, features);
+                }
+            });
+        });
+    }
+
+    /**
+     * Replaces the cover colors of an indexed track, once its cover has been extracted and analyzed.
+     * Tracks the waveform pass hasn't reached yet are left to it; it will find the cover in the store.
+     */
+    private void updateRadioColors(int trackId, ArtworkAnalysis analysis) {
+        float[] vector = similarityIndex.get(trackId);
+        if (vector != null) {
+            similarityIndex.put(trackId, SimilarityIndex.withArtwork(vector, analysis));
+        }
+    }
+
+    /**
+     * Asks for an M3U/M3U8 file and plays it as the queue. Entries are matched to tracks as they are reached.
+     */
+    private void importPlaylist() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Import playlist");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Playlists", "*.m3u", "*.m3u8"));
+        File file = chooser.showOpenDialog(trackListPane.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        try {
+            long start = System.nanoTime();
+            Playlist playlist = Playlist.read(file.toPath());
+            Log.info("Imported playlist %s: %d entries in %d ms", file.getName(), playlist.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+            activePlaylist = playlist;
+            radioActive = false;
+            defaultQueue.setPlaylist(playlist, trackStore);
+            defaultQueue.setIndex(-1);
+            int first = defaultQueue.step(1);
+            if (first >= 0) {
+                playTrack(first);
+            } else {
+                Log.warn("No track of playlist %s is in the library", file.getName());
+            }
+        } catch (IOException e) {
+            Log.error("Could not import playlist %s", file, e);
+        }
+    }
+
+    /**
+     * Asks for a file name and writes the current queue to it as an extended M3U playlist.
+     */
+    private void exportQueue() {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Export queue");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Playlists", "*.m3u8", "*.m3u"));
+        chooser.setInitialFileName("queue.m3u8");
+        File file = chooser.showSaveDialog(trackListPane.getScene().getWindow());
+        if (file == null) {
+            return;
+        }
+        List<Integer> queue = activePlaylist == null && trackListView != null && defaultQueue.isEmpty()
+                ? trackListView.getItems() : defaultQueue.getTracks();
+        try {
+            Playlist.write(file.toPath(), queue, trackStore);
+            Log.info("Exported %d track(s) to %s", queue.size(), file);
+        } catch (IOException e) {
+            Log.error("Could not export queue to %s", file, e);
+        }
+    }
+
+    /**
+     * Warms up a player for the next track in the queue so the upcoming transition can be gapless.
+     * Tracks that still need an ffmpeg conversion are skipped; they get prepared when played.
+     */
+    private void preloadNextTrack() {
+        int nextId;
+        if (radioMode && (radioActive || defaultQueue.isAtEnd())) {
+            // Pick the radio track now, so the one that gets preloaded is the one that plays
+            radioNext = pickRadioTrack();
+            nextId = radioNext;
+        } else {
+            nextId = defaultQueue.peekNext();
+        }
+        if (nextId < 0) {
+            return;
+        }
+        File next = trackStore.getFile(nextId);
+        // Warm the cover analysis too, so the theme can be applied as soon as the track starts
+        String nextArtwork = trackStore.getArtworkKey(nextId);
+        if (nextArtwork != null) {
+            ArtworkAnalysis.analyzeAsync(nextArtwork);
+        }
+        String lower = next.getName().toLowerCase();
+        if (lower.endsWith(".mp3") || lower.endsWith(".wav")) {
+            playerManager.preload(next);
+        }
+    }
+
+    @Override
+    public void stop() {
+        writeSession();
+        ArtworkIndex.saveAll();
+        Log.info("%s", imageService.describe());
+        Log.info("%s", renderMonitor.describe());
+        Metrics.writeSnapshot();
+        Log.info("Play requests: %d, coalesced before preparing: %d", playbackScheduler.getRequestCount(),
+                playbackScheduler.getCoalescedCount());
+        // Release all native media resources deterministically on exit
+        playerManager.shutdown();
+    }
+
+    /**
+     * Shows the pause icon while playing and the play icon otherwise.
+     */
+    private void showPlaying(boolean playing) {
+        playIcon.setText(playing ? "⏸" : "▶");
+        if (playing != playIcon.getStyleClass().contains("playing")) {
+            if (playing) {
+                playIcon.getStyleClass().add("playing");
+            } else {
+                playIcon.getStyleClass().remove("playing");
             }
         }
-        return totalBrightness / count;
     }
 
     // <<-- NEW: Helper method to format Duration as mm:ss -->>
@@ -956,14 +1448,6 @@ public class MusicPlayerApp extends Application {
         return new Color(1 - color.getRed(), 1 - color.getGreen(), 1 - color.getBlue(), 1.0);
     }
 
-    // <<-- NEW: Helper method to convert a Color to a hex string -->>
-    private String toHexString(Color color) {
-        return String.format("#%02X%02X%02X",
-                (int)(color.getRed() * 255),
-                (int)(color.getGreen() * 255),
-                (int)(color.getBlue() * 255));
-    }
-
     public static void main(String[] args) {
         launch(args);
     }
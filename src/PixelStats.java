@@ -0,0 +1,161 @@
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Channel statistics over ARGB pixels: per-channel sums, luma and HSB brightness sums, with fully
+ * transparent pixels masked out. Callers pass images decoded subsampled (see {@link ImageDecoder}), so
+ * only a few hundred thousand pixels are ever read.
+ *
+ * The work is done by a plain scalar loop. If the optional SIMD kernel in src-vector was compiled in and
+ * the app runs with --add-modules jdk.incubator.vector, that kernel is used instead; both produce
+ * identical results. -Dpixelstats.scalar=true keeps the scalar loop either way.
+ */
+public class PixelStats {
+
+    /**
+     * A replacement for the scalar loop of {@link #accumulate}.
+     */
+    interface Kernel {
+        void accumulate(PixelStats stats, int[] argb, int offset, int length);
+    }
+
+    // Rows converted to ARGB per pass when an image isn't already an int ARGB raster
+    private static final int STRIP_ROWS = 64;
+
+    // The SIMD kernel, or null if it isn't compiled in, its module is missing, or it is turned off
+    private static final Kernel VECTOR_KERNEL = loadVectorKernel();
+
+    // Number of non-transparent pixels
+    public long count;
+    public long sumRed;
+    public long sumGreen;
+    public long sumBlue;
+    // Sum of Rec. 709 luma, (54 R + 183 G + 19 B) / 256
+    public long sumLuma;
+    // Sum of max(R, G, B), i.e. HSB brightness * 255
+    public long sumValue;
+
+    /**
+     * @return Whether the SIMD kernel is in use
+     */
+    public static boolean isVectorized() {
+        return VECTOR_KERNEL != null;
+    }
+
+    private static Kernel loadVectorKernel() {
+        if (Boolean.getBoolean("pixelstats.scalar")
+                || ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            // By name, so this class compiles without the kernel (and its module)
+            return (Kernel) Class.forName("PixelStatsVector").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Accumulates statistics for a range of ARGB pixels into this instance.
+     *
+     * @param argb   Pixels in 0xAARRGGBB form
+     * @param offset First pixel
+     * @param length Number of pixels
+     */
+    public void accumulate(int[] argb, int offset, int length) {
+        if (VECTOR_KERNEL != null) {
+            VECTOR_KERNEL.accumulate(this, argb, offset, length);
+        } else {
+            accumulateScalar(argb, offset, length);
+        }
+    }
+
+    /**
+     * Scalar version of the kernel; also handles the tail the vector loop leaves over.
+     */
+    void accumulateScalar(int[] argb, int offset, int length) {
+        long c = 0, r = 0, g = 0, b = 0, luma = 0, value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int p = argb[i];
+            if ((p >>> 24) == 0) {
+                continue;
+            }
+            int pr = (p >> 16) & 0xFF;
+            int pg = (p >> 8) & 0xFF;
+            int pb = p & 0xFF;
+            c++;
+            r += pr;
+            g += pg;
+            b += pb;
+            luma += (54 * pr + 183 * pg + 19 * pb) >> 8;
+            value += Math.max(pr, Math.max(pg, pb));
+        }
+        count += c;
+        sumRed += r;
+        sumGreen += g;
+        sumBlue += b;
+        sumLuma += luma;
+        sumValue += value;
+    }
+
+    /**
+     * Computes statistics over every pixel of an image. Int ARGB rasters are read in place; other
+     * layouts are converted to ARGB a strip at a time with a native blit, so memory stays bounded.
+     *
+     * @param image Decoded image
+     * @return Statistics over all non-transparent pixels
+     */
+    public static PixelStats of(BufferedImage image) {
+        PixelStats stats = new PixelStats();
+        int width = image.getWidth();
+        int height = image.getHeight();
+
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getParent() == null
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt buffer
+                && buffer.getNumBanks() == 1
+                && buffer.getData().length == width * height) {
+            stats.accumulate(buffer.getData(), 0, width * height);
+            return stats;
+        }
+
+        int rows = Math.min(STRIP_ROWS, height);
+        BufferedImage strip = new BufferedImage(width, rows, BufferedImage.TYPE_INT_ARGB);
+        int[] pixels = ((DataBufferInt) strip.getRaster().getDataBuffer()).getData();
+        Graphics2D g = strip.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        for (int y = 0; y < height; y += rows) {
+            int n = Math.min(rows, height - y);
+            g.drawImage(image, 0, 0, width, n, 0, y, width, y + n, null);
+            stats.accumulate(pixels, 0, width * n);
+        }
+        g.dispose();
+        return stats;
+    }
+
+    /**
+     * @return Average color as 0xRRGGBB, or 0 if there were no visible pixels
+     */
+    public int averageRgb() {
+        if (count == 0) {
+            return 0;
+        }
+        return ((int) (sumRed / count) << 16) | ((int) (sumGreen / count) << 8) | (int) (sumBlue / count);
+    }
+
+    /**
+     * @return Average HSB brightness in the range [0, 1]
+     */
+    public double averageBrightness() {
+        return count == 0 ? 0 : sumValue / (count * 255.0);
+    }
+
+    /**
+     * @return Average luma in the range [0, 1]
+     */
+    public double averageLuma() {
+        return count == 0 ? 0 : sumLuma / (count * 255.0);
+    }
+}
@@ -0,0 +1,92 @@
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Compares the old strided pixel sampling against full-resolution {@link PixelStats}, on already decoded
+ * images so only the pixel work is timed.
+ *
+ * Usage:
+ *   java PixelStatsBenchmark                                                 (scalar kernel)
+ *   java --add-modules jdk.incubator.vector PixelStatsBenchmark              (vector kernel, if compiled in)
+ *   java --add-modules jdk.incubator.vector -Dpixelstats.scalar=true PixelStatsBenchmark
+ */
+public class PixelStatsBenchmark {
+
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int MEASURED_ITERATIONS = 50;
+
+    private interface PixelMethod {
+        long run(BufferedImage image);
+    }
+
+    public static void main(String[] args) {
+        System.out.println("Kernel: " + (PixelStats.isVectorized() ? "vector" : "scalar"));
+        System.out.printf("%-12s %-32s %12s%n", "Image", "Method", "ms/op");
+        for (int size : new int[]{500, 1500, 3000}) {
+            BufferedImage rgb = createSyntheticCover(size);
+            BufferedImage argb = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = argb.createGraphics();
+            g.drawImage(rgb, 0, 0, null);
+            g.dispose();
+
+            String label = size + "x" + size;
+            time(label, "strided getRGB (step 5)", PixelStatsBenchmark::stridedAverage, rgb);
+            time(label, "full res, int RGB image", image -> PixelStats.of(image).averageRgb(), rgb);
+            time(label, "full res, int ARGB raster", image -> PixelStats.of(image).averageRgb(), argb);
+        }
+    }
+
+    /**
+     * The sampling findAverageColor used before PixelStats: every 5th pixel in both directions.
+     */
+    private static long stridedAverage(BufferedImage image) {
+        long red = 0, green = 0, blue = 0, count = 0;
+        for (int y = 0; y < image.getHeight(); y += 5) {
+            for (int x = 0; x < image.getWidth(); x += 5) {
+                int rgb = image.getRGB(x, y);
+                if ((rgb >>> 24) == 0) {
+                    continue;
+                }
+                red += (rgb >> 16) & 0xFF;
+                green += (rgb >> 8) & 0xFF;
+                blue += rgb & 0xFF;
+                count++;
+            }
+        }
+        return count == 0 ? 0 : ((red / count) << 16) | ((green / count) << 8) | (blue / count);
+    }
+
+    private static void time(String image, String name, PixelMethod method, BufferedImage input) {
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += method.run(input);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            sink += method.run(input);
+        }
+        double msPerOp = (System.nanoTime() - start) / 1e6 / MEASURED_ITERATIONS;
+        System.out.printf("%-12s %-32s %12.3f   (#%06X)%n", image, name, msPerOp, sink / (WARMUP_ITERATIONS + MEASURED_ITERATIONS));
+    }
+
+    private static BufferedImage createSyntheticCover(int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setPaint(new GradientPaint(0, 0, new Color(30, 60, 120), size, size, new Color(220, 120, 40)));
+        g.fillRect(0, 0, size, size);
+        Random random = new Random(size);
+        for (int i = 0; i < 12; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            int w = size / 4 + random.nextInt(size / 4);
+            g.fillOval(random.nextInt(size), random.nextInt(size), w, w);
+        }
+        g.dispose();
+        for (int i = 0; i < size * size / 20; i++) {
+            image.setRGB(random.nextInt(size), random.nextInt(size), random.nextInt(0xFFFFFF));
+        }
+        return image;
+    }
+}
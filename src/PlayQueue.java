@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The play queue: an ordered list of track IDs and the position of the current one. It wraps around at
+ * both ends. Entries may be {@link Playlist#MISSING} (playlist entries that match no track), which are
+ * skipped when stepping.
+ *
+ * Shared by the player window and the headless daemon. Not thread-safe: use it on the JavaFX
+ * application thread only, like {@link TrackStore}.
+ */
+public class PlayQueue {
+
+    // A private copy, or a playlist's lazy queue view (see setPlaylist), which is never modified
+    private List<Integer> tracks = new ArrayList<>();
+    private boolean playlistView = false;
+    private int index = -1;
+
+    /**
+     * Replaces the queue's contents with a copy of a list, such as the library list. The position is
+     * kept, so callers moving to a track afterwards still find it by {@link #moveTo}.
+     */
+    public void setTracks(List<Integer> tracks) {
+        this.tracks = new ArrayList<>(tracks);
+        playlistView = false;
+    }
+
+    /**
+     * Makes a playlist the queue. Its {@link Playlist#asQueue queue view} is used as is rather than
+     * copied, so entries are only matched to tracks when the queue reaches them. The position is kept,
+     * as with {@link #setTracks}.
+     */
+    public void setPlaylist(Playlist playlist, TrackStore store) {
+        this.tracks = playlist.asQueue(store);
+        playlistView = true;
+    }
+
+    /**
+     * @return Read-only view of the queued track IDs
+     */
+    public List<Integer> getTracks() {
+        return Collections.unmodifiableList(tracks);
+    }
+
+    public int size() {
+        return tracks.size();
+    }
+
+    public boolean isEmpty() {
+        return tracks.isEmpty();
+    }
+
+    /**
+     * @return Position of the current track, or -1 before the first one
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @param index Position of the current track; -1 starts over before the first one
+     */
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
+    /**
+     * @return ID of the current track, or -1 if there is none
+     */
+    public int current() {
+        return index >= 0 && index < tracks.size() ? tracks.get(index) : -1;
+    }
+
+    /**
+     * @return Whether the current track is the last one (or the queue is empty)
+     */
+    public boolean isAtEnd() {
+        return index >= tracks.size() - 1;
+    }
+
+    /**
+     * Adds a track to the end of the queue.
+     */
+    public void add(int trackId) {
+        if (playlistView) {
+            // The view is read-only; adding to a playlist queue resolves the rest of it once
+            tracks = new ArrayList<>(tracks);
+            playlistView = false;
+        }
+        tracks.add(trackId);
+    }
+
+    /**
+     * Makes a track the current one, unless it already is. Does nothing if it isn't queued.
+     */
+    public void moveTo(int trackId) {
+        if (current() == trackId) {
+            return;
+        }
+        int position = tracks.indexOf(trackId);
+        if (position >= 0) {
+            index = position;
+        }
+    }
+
+    /**
+     * @return ID of the track after the current one without moving there, or -1 if there's no other track
+     */
+    public int peekNext() {
+        return tracks.size() >= 2 ? tracks.get((index + 1) % tracks.size()) : -1;
+    }
+
+    /**
+     * Moves the queue position by one step, skipping playlist entries that match no track.
+     *
+     * @param direction 1 for the next track, -1 for the previous one
+     * @return The ID of the new current track, or -1 if nothing in the queue can be played
+     */
+    public int step(int direction) {
+        int size = tracks.size();
+        for (int i = 0; i < size; i++) {
+            index = ((index + direction) % size + size) % size;
+            int id = tracks.get(index);
+            if (id != Playlist.MISSING) {
+                return id;
+            }
+        }
+        return -1;
+    }
+}
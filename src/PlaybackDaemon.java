@@ -0,0 +1,282 @@
+import javafx.application.Platform;
+import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Background playback without a window, for machines that only need to play music.
+ *
+ * Uses the same library roots, {@link TrackStore}, {@link PlayQueue}, {@link Transcoder},
+ * {@link PlaybackScheduler} and {@link PlayerManager} (including crossfade and loudness normalization) as
+ * {@link MusicPlayerApp}, but starts the JavaFX toolkit without a stage or scene: no artwork, blur,
+ * theming, spectrum or waveform view is ever created, and tags aren't read, so the heap stays small.
+ *
+ * It is controlled through a {@link ControlServer}, one command per line:
+ * - {@code play}: resumes, or starts the queue (the whole library by name if nothing was queued)
+ * - {@code pause}
+ * - {@code skip} / {@code previous}: moves to the next or previous track in the queue
+ * - {@code enqueue <file or text>}: adds a file, or every library track whose name contains the text
+ * - {@code status}: state, position, queue position and the current file
+ * - {@code shutdown}
+ *
+ * Run with {@code java PlaybackDaemon}; {@code java PlaybackDaemon <command>} sends a command to a running
+ * daemon and prints the reply. JavaFX needs a display to start; on machines without one, run it with the
+ * Monocle headless platform ({@code -Dglass.platform=Monocle -Dmonocle.platform=Headless}).
+ */
+public class PlaybackDaemon {
+
+    // How long a command may wait for the FX thread
+    private static final long COMMAND_TIMEOUT_SECONDS = 5;
+
+    private final TrackStore trackStore = new TrackStore();
+    private final PlayQueue queue = new PlayQueue();
+    private final PlayerManager playerManager = new PlayerManager();
+    private final PlaybackScheduler playbackScheduler = new PlaybackScheduler();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private ControlServer control;
+
+    // FX thread only
+    private MediaPlayer mediaPlayer;
+    private int playingId = -1;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0) {
+            try {
+                String reply = ControlServer.send(String.join(" ", args));
+                System.out.println(reply);
+                System.exit(reply.startsWith("OK") ? 0 : 1);
+            } catch (IOException e) {
+                System.err.println("No daemon is running: " + e.getMessage());
+                System.exit(2);
+            }
+        }
+        new PlaybackDaemon().run();
+    }
+
+    private void run() throws Exception {
+        // Nothing is ever rendered, so the software pipeline is enough and no GPU driver gets loaded
+        if (System.getProperty("prism.order") == null) {
+            System.setProperty("prism.order", "sw");
+        }
+        CountDownLatch started = new CountDownLatch(1);
+        try {
+            Platform.startup(started::countDown);
+        } catch (RuntimeException e) {
+            Log.error("JavaFX could not start (%s); without a display, run with -Dglass.platform=Monocle"
+                    + " -Dmonocle.platform=Headless", e.getMessage());
+            Log.shutdown();
+            System.exit(1);
+        }
+        // No window will ever be shown, so closing the last one must not end the toolkit
+        Platform.setImplicitExit(false);
+        started.await();
+
+        // Scan on the roots' own pools, then index on the FX thread like the app does
+        List<File> files = new ArrayList<>();
+        for (LibraryRoot root : LibraryRoot.fromConfig()) {
+            files.addAll(root.executor().submit(root::scan).get());
+        }
+        onFxThread(() -> {
+            for (File file : files) {
+                trackStore.add(file);
+            }
+            playerManager.setCrossfadeDuration(Duration.seconds(Double.parseDouble(System.getProperty("crossfade", "0"))));
+            playerManager.setOnTrackFinishing(() -> {
+                int next = queue.step(1);
+                if (next >= 0) {
+                    playTrack(next, true);
+                }
+            });
+            return null;
+        });
+        Log.info("Daemon started with %d tracks", files.size());
+        Metrics.gauge("library.tracks").set(files.size());
+        Metrics.startSnapshots();
+
+        control = ControlServer.start(this::handle);
+        Runtime.getRuntime().addShutdownHook(new Thread(control::close, "control-close"));
+        stopped.await();
+    }
+
+    /**
+     * Runs a command line from a client on the FX thread and returns its reply.
+     */
+    private String handle(String line) {
+        int space = line.indexOf(' ');
+        String command = (space < 0 ? line : line.substring(0, space)).toLowerCase(Locale.ROOT);
+        String argument = space < 0 ? "" : line.substring(space + 1).trim();
+        if (command.equals("shutdown")) {
+            shutdown();
+            return "OK";
+        }
+        return onFxThread(() -> switch (command) {
+            case "play" -> play();
+            case "pause" -> pause();
+            case "skip", "next" -> step(1);
+            case "previous", "prev" -> step(-1);
+            case "enqueue" -> enqueue(argument);
+            case "status" -> status();
+            default -> "ERR unknown command: " + command;
+        });
+    }
+
+    private String play() {
+        if (mediaPlayer != null) {
+            mediaPlayer.play();
+            return "OK";
+        }
+        if (queue.isEmpty()) {
+            for (int id : trackStore.sort(trackStore.allIds(), TrackStore.SortKey.NAME, true)) {
+                queue.add(id);
+            }
+        }
+        int first = queue.current() >= 0 ? queue.current() : queue.step(1);
+        if (first < 0) {
+            return "ERR nothing to play";
+        }
+        playTrack(first, false);
+        return "OK";
+    }
+
+    private String pause() {
+        if (mediaPlayer == null) {
+            return "ERR nothing is playing";
+        }
+        mediaPlayer.pause();
+        return "OK";
+    }
+
+    private String step(int direction) {
+        int id = queue.step(direction);
+        if (id < 0) {
+            return "ERR queue is empty";
+        }
+        playTrack(id, false);
+        return "OK";
+    }
+
+    /**
+     * @param argument Path of an audio file, or text to look for in the library's file names
+     */
+    private String enqueue(String argument) {
+        if (argument.isEmpty()) {
+            return "ERR usage: enqueue <file or text>";
+        }
+        File file = new File(argument).getAbsoluteFile();
+        if (file.isFile()) {
+            queue.add(trackStore.add(file));
+            return "OK 1 queued";
+        }
+        int[] matches = trackStore.sort(trackStore.filter(argument), TrackStore.SortKey.NAME, true);
+        if (matches.length == 0) {
+            return "ERR no track matches " + argument;
+        }
+        for (int id : matches) {
+            queue.add(id);
+        }
+        return "OK " + matches.length + " queued";
+    }
+
+    /**
+     * @return {@code OK state=.. position=.. duration=.. queue=n/size track=path}, times in seconds and
+     *         the path last, since it may contain spaces
+     */
+    private String status() {
+        String state = mediaPlayer == null ? "STOPPED" : mediaPlayer.getStatus().name();
+        double position = mediaPlayer == null ? 0 : mediaPlayer.getCurrentTime().toSeconds();
+        Duration total = mediaPlayer == null ? null : mediaPlayer.getTotalDuration();
+        double duration = total == null || total.isUnknown() ? 0 : total.toSeconds();
+        return String.format(Locale.ROOT, "OK state=%s position=%.1f duration=%.1f queue=%d/%d track=%s", state,
+                position, duration, queue.getIndex() + 1, queue.size(),
+                playingId >= 0 ? trackStore.getPath(playingId) : "");
+    }
+
+    /**
+     * Queues a track through the playback scheduler, so only the latest of several quick requests is
+     * converted and started.
+     *
+     * @param crossfade Whether to fade from the previous track (natural transitions) or cut (commands)
+     */
+    private void playTrack(int trackId, boolean crossfade) {
+        queue.moveTo(trackId);
+        File file = trackStore.getFile(trackId);
+        playbackScheduler.request(0, cancellation -> {
+            File playable = Transcoder.toPlayable(file, cancellation);
+            cancellation.throwIfCancelled();
+            return playable;
+        }, playable -> startTrack(trackId, playable, crossfade));
+    }
+
+    private void startTrack(int trackId, File playable, boolean crossfade) {
+        if (!playable.equals(trackStore.getFile(trackId))) {
+            trackStore.setFile(trackId, playable);
+        }
+        // Normalization gain from the waveform cache, if the app has analyzed the track before
+        WaveformData waveform = WaveformData.readCached(playable);
+        try {
+            MediaPlayer player = playerManager.start(playable, crossfade, waveform != null ? waveform.getGain() : 1.0);
+            mediaPlayer = player;
+            playingId = trackId;
+            player.setOnError(() -> Log.error("Playback error: %s", player.getError().getMessage()));
+            PlayerManager.whenReady(player, () -> {
+                player.play();
+                Log.info("Playing track: %s", playable.getAbsolutePath());
+                int next = queue.peekNext();
+                if (next >= 0) {
+                    String name = trackStore.getName(next).toLowerCase(Locale.ROOT);
+                    // Tracks that still need a conversion are prepared when they're played
+                    if (name.endsWith(".mp3") || name.endsWith(".wav")) {
+                        playerManager.preload(trackStore.getFile(next));
+                    }
+                }
+            });
+        } catch (IOException e) {
+            Log.error("Could not play %s", playable, e);
+        }
+    }
+
+    private void shutdown() {
+        control.close();
+        Platform.runLater(() -> {
+            playerManager.shutdown();
+            Metrics.writeSnapshot();
+            Platform.exit();
+            stopped.countDown();
+        });
+    }
+
+    /**
+     * Runs an action on the FX thread and waits for its result.
+     */
+    private <T> T onFxThread(Callable<T> action) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(action.call());
+            } catch (Exception e) {
+                result.completeExceptionally(e);
+            }
+        });
+        try {
+            return result.get(COMMAND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("timed out");
+        }
+    }
+}
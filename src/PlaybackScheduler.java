@@ -0,0 +1,152 @@
+import javafx.application.Platform;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Coalesces playback requests so that only the latest one is acted on.
+ *
+ * Each request has a background prepare step (artwork extraction, transcoding, cache reads) and an
+ * apply step that runs on the FX thread. A new request cancels the previous one: if it hasn't started
+ * yet it is dropped, and if it is preparing, its {@link Cancellation} is flagged and any external
+ * process attached to it (such as ffmpeg) is killed. Requests can also be debounced, so a burst of
+ * skips only starts preparing once the user has stopped clicking.
+ *
+ * Prepare steps run one at a time on a single background thread; {@link #request} must be called on
+ * the FX thread.
+ */
+public class PlaybackScheduler {
+
+    // Quiet period before a user navigation request starts preparing
+    public static final long NAVIGATION_DEBOUNCE_MILLIS = 150;
+
+    /**
+     * Background part of a request.
+     */
+    public interface Preparer<T> {
+        T prepare(Cancellation cancellation) throws Exception;
+    }
+
+    /**
+     * Cancellation token handed to a prepare step. Long-running steps should call
+     * {@link #throwIfCancelled()} between stages and attach any process they start.
+     */
+    public static final class Cancellation {
+        private volatile boolean cancelled = false;
+        private volatile Process process;
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void throwIfCancelled() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+        }
+
+        /**
+         * Registers a process to kill on cancellation (killed right away if already cancelled).
+         */
+        public void attach(Process process) {
+            this.process = process;
+            if (cancelled) {
+                process.destroyForcibly();
+            }
+        }
+
+        public void detach() {
+            this.process = null;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Process p = process;
+            if (p != null) {
+                p.destroyForcibly();
+            }
+        }
+    }
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "playback-prepare");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Cancellation current;
+    private ScheduledFuture<?> pending;
+
+    private long requests = 0;
+    private long coalesced = 0;
+
+    private static final Metrics.Counter REQUESTS = Metrics.counter("playback.requests");
+    private static final Metrics.Counter COALESCED = Metrics.counter("playback.coalesced");
+    private static final Metrics.Counter CANCELLED = Metrics.counter("playback.cancelled");
+    private static final Metrics.Histogram PREPARE_TIME = Metrics.histogram("playback.prepare");
+
+    /**
+     * Replaces any earlier request with this one.
+     *
+     * @param delayMillis Debounce delay before preparing starts (0 to start right away)
+     * @param preparer    Background work; its result is passed to apply
+     * @param apply       FX-thread work, skipped if a newer request arrived in the meantime
+     */
+    public <T> void request(long delayMillis, Preparer<T> preparer, Consumer<T> apply) {
+        requests++;
+        REQUESTS.increment();
+        if (current != null) {
+            current.cancel();
+            if (pending != null && pending.cancel(false)) {
+                coalesced++;
+                COALESCED.increment();
+            }
+        }
+        Cancellation cancellation = new Cancellation();
+        current = cancellation;
+        pending = executor.schedule(() -> {
+            if (cancellation.isCancelled()) {
+                return;
+            }
+            T result;
+            long start = System.nanoTime();
+            try {
+                result = preparer.prepare(cancellation);
+                PREPARE_TIME.recordSince(start);
+            } catch (CancellationException e) {
+                Log.debug("Superseded playback request cancelled while preparing");
+                CANCELLED.increment();
+                return;
+            } catch (Exception e) {
+                if (!cancellation.isCancelled()) {
+                    Log.error("Could not prepare track", e);
+                }
+                return;
+            }
+            Platform.runLater(() -> {
+                // Requests are only made on the FX thread, so this check can't race with a new one
+                if (!cancellation.isCancelled()) {
+                    apply.accept(result);
+                }
+            });
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Requests made so far
+     */
+    public long getRequestCount() {
+        return requests;
+    }
+
+    /**
+     * @return Requests that were replaced before their prepare step started
+     */
+    public long getCoalescedCount() {
+        return coalesced;
+    }
+}
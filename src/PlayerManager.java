@@ -0,0 +1,317 @@
+import javafx.animation.KeyFrame;
+import javafx.animation.KeyValue;
+import javafx.animation.Timeline;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.scene.media.Media;
+import javafx.scene.media.MediaPlayer;
+import javafx.util.Duration;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Owns every MediaPlayer the app creates. Players are handed out through {@link #start(File, boolean)},
+ * kept in a small preload pool for the upcoming track, and always stopped and disposed (together with
+ * their temp copy) as soon as they are no longer audible, so native media resources don't pile up.
+ *
+ * All methods must be called on the JavaFX application thread.
+ */
+public class PlayerManager {
+
+    // How many not-yet-playing players we keep warm for upcoming tracks
+    private static final int PRELOAD_POOL_SIZE = 2;
+
+    private static final Metrics.Gauge LIVE_PLAYERS = Metrics.gauge("players.live");
+    private static final Metrics.Counter PRELOAD_HITS = Metrics.counter("players.preload.hit");
+    private static final Metrics.Counter PRELOAD_MISSES = Metrics.counter("players.preload.miss");
+    // From creating a player to its media being ready to play
+    private static final Metrics.Histogram LOAD_TIME = Metrics.histogram("players.load");
+
+    // Preloaded players keyed by the source file they were created for (oldest first)
+    private final Map<File, MediaPlayer> preloadPool = new LinkedHashMap<>();
+
+    // Temp copy backing each live player, deleted when the player is disposed
+    private final Map<MediaPlayer, File> tempFiles = new HashMap<>();
+
+    private MediaPlayer current;
+    private MediaPlayer fadingOut;
+    private Timeline fade;
+
+    private Duration crossfadeDuration = Duration.ZERO;
+    private double volume = 1.0;
+
+    // Loudness normalization gain of the current track, multiplied into the master volume
+    private double currentGain = 1.0;
+
+    private Runnable onTrackFinishing;
+    private boolean finishingFired = false;
+
+    /**
+     * Sets the crossfade length used for natural track transitions.
+     * A zero duration gives a gapless hand-over at end of media instead.
+     */
+    public void setCrossfadeDuration(Duration duration) {
+        crossfadeDuration = (duration == null || duration.lessThan(Duration.ZERO)) ? Duration.ZERO : duration;
+    }
+
+    public Duration getCrossfadeDuration() {
+        return crossfadeDuration;
+    }
+
+    /**
+     * Sets the master volume applied to the current player.
+     */
+    public void setVolume(double volume) {
+        this.volume = Math.max(0, Math.min(1, volume));
+        if (current != null && fade == null) {
+            current.setVolume(this.volume * currentGain);
+        }
+    }
+
+    /**
+     * Sets the normalization gain of the current track, e.g. once its loudness analysis has finished.
+     *
+     * @param gain Linear gain in the range [0, 1]
+     */
+    public void setTrackGain(double gain) {
+        currentGain = Math.max(0, Math.min(1, gain));
+        if (current != null && fade == null) {
+            current.setVolume(volume * currentGain);
+        }
+    }
+
+    public double getVolume() {
+        return volume;
+    }
+
+    /**
+     * Registers the callback fired once per track when it is time to move on: either when the remaining
+     * time drops below the crossfade duration, or at end of media when crossfading is disabled.
+     */
+    public void setOnTrackFinishing(Runnable onTrackFinishing) {
+        this.onTrackFinishing = onTrackFinishing;
+    }
+
+    public MediaPlayer getCurrent() {
+        return current;
+    }
+
+    /**
+     * @return Number of players currently holding native resources (current, fading and preloaded)
+     */
+    public int getLivePlayerCount() {
+        return tempFiles.size();
+    }
+
+    /**
+     * Makes a player for the given file the current one. A preloaded player is reused when available.
+     * The previous player is either cut immediately or faded out against the new one, then disposed.
+     *
+     * @param source    Playable audio file
+     * @param crossfade Whether to ramp volumes between the outgoing and incoming players
+     * @return The new current player; the caller still decides when to call play()
+     * @throws IOException If the temp copy of the file cannot be created
+     */
+    public MediaPlayer start(File source, boolean crossfade) throws IOException {
+        return start(source, crossfade, 1.0);
+    }
+
+    /**
+     * Same as {@link #start(File, boolean)}, with the track's loudness normalization gain known up front
+     * so a crossfade ramps straight to the normalized level.
+     *
+     * @param gain Linear gain in the range [0, 1]
+     */
+    public MediaPlayer start(File source, boolean crossfade, double gain) throws IOException {
+        MediaPlayer next = preloadPool.remove(source.getAbsoluteFile());
+        if (next == null) {
+            PRELOAD_MISSES.increment();
+            next = create(source);
+        } else {
+            PRELOAD_HITS.increment();
+        }
+
+        // Any transition still in progress is finished off right away
+        finishFade();
+
+        MediaPlayer previous = current;
+        current = next;
+        currentGain = Math.max(0, Math.min(1, gain));
+        finishingFired = false;
+        installFinishingTrigger(next);
+
+        boolean fadeIn = crossfade
+                && previous != null
+                && previous.getStatus() == MediaPlayer.Status.PLAYING
+                && crossfadeDuration.greaterThan(Duration.ZERO);
+
+        if (fadeIn) {
+            next.setVolume(0);
+            fadingOut = previous;
+            fadingOut.setOnEndOfMedia(null);
+            fade = new Timeline(
+                    new KeyFrame(Duration.ZERO,
+                            new KeyValue(previous.volumeProperty(), previous.getVolume()),
+                            new KeyValue(next.volumeProperty(), 0)),
+                    new KeyFrame(crossfadeDuration,
+                            new KeyValue(previous.volumeProperty(), 0),
+                            new KeyValue(next.volumeProperty(), volume * currentGain))
+            );
+            fade.setOnFinished(e -> finishFade());
+            fade.play();
+        } else {
+            next.setVolume(volume * currentGain);
+            if (previous != null) {
+                dispose(previous);
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Creates a player for an upcoming track ahead of time so the next transition can start without
+     * waiting for the media to load. The oldest preloaded player is disposed when the pool is full.
+     */
+    public void preload(File source) {
+        File key = source.getAbsoluteFile();
+        if (preloadPool.containsKey(key)) {
+            return;
+        }
+        try {
+            MediaPlayer player = create(source);
+            player.setVolume(0);
+            preloadPool.put(key, player);
+        } catch (IOException e) {
+            Log.warn("Failed to preload: %s", source.getAbsolutePath());
+            return;
+        }
+
+        Iterator<Map.Entry<File, MediaPlayer>> it = preloadPool.entrySet().iterator();
+        while (preloadPool.size() > PRELOAD_POOL_SIZE && it.hasNext()) {
+            MediaPlayer stale = it.next().getValue();
+            it.remove();
+            dispose(stale);
+        }
+    }
+
+    /**
+     * Drops every preloaded player, e.g. after the queue has changed.
+     */
+    public void clearPreloads() {
+        for (MediaPlayer player : preloadPool.values()) {
+            dispose(player);
+        }
+        preloadPool.clear();
+    }
+
+    /**
+     * Runs the action once the player is ready, including when it already became ready while preloading.
+     */
+    public static void whenReady(MediaPlayer player, Runnable action) {
+        if (player.getStatus() == MediaPlayer.Status.READY
+                || player.getStatus() == MediaPlayer.Status.PAUSED
+                || player.getStatus() == MediaPlayer.Status.STOPPED) {
+            action.run();
+        } else {
+            player.setOnReady(action);
+        }
+    }
+
+    /**
+     * Disposes every player this manager owns. Called when the application exits.
+     */
+    public void shutdown() {
+        finishFade();
+        clearPreloads();
+        if (current != null) {
+            dispose(current);
+            current = null;
+        }
+    }
+
+    private MediaPlayer create(File source) throws IOException {
+        File temp = copyToTemp(source);
+        long start = System.nanoTime();
+        MediaPlayer player = new MediaPlayer(new Media(temp.toURI().toString()));
+        tempFiles.put(player, temp);
+        LIVE_PLAYERS.set(tempFiles.size());
+        // A status listener, since the app's whenReady takes the onReady handler
+        player.statusProperty().addListener(new ChangeListener<>() {
+            @Override
+            public void changed(ObservableValue<? extends MediaPlayer.Status> obs, MediaPlayer.Status old,
+                                MediaPlayer.Status status) {
+                if (status == MediaPlayer.Status.READY) {
+                    LOAD_TIME.recordSince(start);
+                    obs.removeListener(this);
+                }
+            }
+        });
+        return player;
+    }
+
+    private void installFinishingTrigger(MediaPlayer player) {
+        player.setOnEndOfMedia(() -> fireFinishing(player));
+        player.currentTimeProperty().addListener((obs, oldTime, newTime) -> {
+            if (crossfadeDuration.greaterThan(Duration.ZERO)) {
+                Duration total = player.getTotalDuration();
+                if (total != null && total.greaterThan(crossfadeDuration)
+                        && total.subtract(newTime).lessThanOrEqualTo(crossfadeDuration)) {
+                    fireFinishing(player);
+                }
+            }
+        });
+    }
+
+    private void fireFinishing(MediaPlayer player) {
+        // Only the current player may advance the queue, and only once
+        if (player != current || finishingFired) {
+            return;
+        }
+        finishingFired = true;
+        if (onTrackFinishing != null) {
+            onTrackFinishing.run();
+        }
+    }
+
+    private void finishFade() {
+        if (fade != null) {
+            fade.stop();
+            fade = null;
+            if (current != null) {
+                current.setVolume(volume * currentGain);
+            }
+        }
+        if (fadingOut != null) {
+            dispose(fadingOut);
+            fadingOut = null;
+        }
+    }
+
+    private void dispose(MediaPlayer player) {
+        player.setOnEndOfMedia(null);
+        player.setOnReady(null);
+        player.setOnError(null);
+        player.stop();
+        player.dispose();
+
+        File temp = tempFiles.remove(player);
+        LIVE_PLAYERS.set(tempFiles.size());
+        if (temp != null && !temp.delete()) {
+            temp.deleteOnExit();
+        }
+    }
+
+    private static File copyToTemp(File original) throws IOException {
+        File temp = File.createTempFile("tempMedia", original.getName());
+        Files.copy(original.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        temp.deleteOnExit();
+        return temp;
+    }
+}
@@ -0,0 +1,397 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An M3U/M3U8 playlist.
+ *
+ * Reading streams the file through a fixed byte buffer and only turns entry lines (and #EXTINF titles)
+ * into strings; comments and other directives are skipped at the byte level. Entries are kept in
+ * parallel arrays like the {@link TrackStore}, and are matched to library tracks lazily, the first time
+ * an entry is actually needed: first by path (relative to the playlist's folder), then by the
+ * "Artist - Title" from its #EXTINF line. So loading a huge playlist costs one pass over the file, and
+ * playing it only resolves the entries that are reached.
+ *
+ * .m3u8 files are read as UTF-8; plain .m3u files as UTF-8 too unless a line isn't valid UTF-8, in which
+ * case that line is read as Windows-1252. Written playlists are always UTF-8.
+ *
+ * Not thread-safe: resolve on the JavaFX application thread, like the store itself.
+ */
+public class Playlist {
+
+    // Value of trackId for entries that haven't been looked up yet
+    private static final int UNRESOLVED = -2;
+
+    // Value returned for entries that match no track
+    public static final int MISSING = -1;
+
+    // Value of durationSeconds when the playlist gives none
+    public static final int UNKNOWN_DURATION = -1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] EXTINF = "#EXTINF:".getBytes(StandardCharsets.US_ASCII);
+    private static final Charset FALLBACK_CHARSET = Charset.forName("windows-1252");
+
+    private final Path baseDir;
+    private int size = 0;
+    private String[] location = new String[256];
+    private String[] title = new String[256];
+    private int[] durationSeconds = new int[256];
+    private int[] trackId = new int[256];
+
+    // Parser state: charset rule, BOM check, and the last #EXTINF waiting for the entry it describes
+    private boolean strictUtf8;
+    private boolean firstLine = true;
+    private String pendingTitle;
+    private int pendingDuration = UNKNOWN_DURATION;
+
+    private Playlist(Path baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    /**
+     * Reads a playlist file.
+     *
+     * @param file .m3u or .m3u8 file
+     * @return The playlist, with no entry resolved yet
+     * @throws IOException If the file can't be read
+     */
+    public static Playlist read(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        Playlist playlist = new Playlist(absolute.getParent());
+        playlist.strictUtf8 = absolute.getFileName().toString().toLowerCase().endsWith(".m3u8");
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        byte[] line = new byte[1024];
+        int lineLength = 0;
+        try (InputStream in = Files.newInputStream(absolute)) {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                int start = 0;
+                for (int i = 0; i < read; i++) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+                    if (lineLength == 0) {
+                        // The whole line is in the buffer; parse it in place
+                        playlist.parseLine(buffer, start, i);
+                    } else {
+                        line = append(line, lineLength, buffer, start, i - start);
+                        playlist.parseLine(line, 0, lineLength + i - start);
+                        lineLength = 0;
+                    }
+                    start = i + 1;
+                }
+                // Carry the unfinished line over to the next buffer
+                line = append(line, lineLength, buffer, start, read - start);
+                lineLength += read - start;
+            }
+        }
+        // The last line may not end with a newline
+        playlist.parseLine(line, 0, lineLength);
+        return playlist;
+    }
+
+    /**
+     * Writes tracks as an extended M3U playlist. Tracks inside the playlist's folder are written with
+     * relative paths, so the folder can be moved as a whole; all others with absolute paths.
+     *
+     * @param file Destination .m3u or .m3u8 file
+     * @param ids  Track IDs in playlist order; {@link #MISSING} entries are skipped
+     * @param store Store the IDs belong to
+     * @throws IOException If the playlist can't be written
+     */
+    public static void write(Path file, List<Integer> ids, TrackStore store) throws IOException {
+        Path target = file.toAbsolutePath();
+        String dirPrefix = target.getParent().toString() + File.separator;
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temp), StandardCharsets.UTF_8),
+                BUFFER_SIZE)) {
+            out.write("#EXTM3U\n");
+            for (int id : ids) {
+                if (id < 0) {
+                    continue;
+                }
+                int durationMs = store.getDuration(id);
+                out.write("#EXTINF:");
+                out.write(Integer.toString(durationMs == TrackStore.UNKNOWN ? UNKNOWN_DURATION : (durationMs + 500) / 1000));
+                out.write(',');
+                out.write(displayTitle(store, id));
+                out.write('\n');
+                String path = store.getPath(id);
+                out.write(path.startsWith(dirPrefix) ? path.substring(dirPrefix.length()) : path);
+                out.write('\n');
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return The entry's location as written in the playlist
+     */
+    public String getLocation(int index) {
+        return location[index];
+    }
+
+    /**
+     * @return The entry's #EXTINF title, or null if it has none
+     */
+    public String getTitle(int index) {
+        return title[index];
+    }
+
+    /**
+     * @return The entry's #EXTINF duration in seconds, or {@link #UNKNOWN_DURATION}
+     */
+    public int getDurationSeconds(int index) {
+        return durationSeconds[index];
+    }
+
+    /**
+     * @return The entry's location as an absolute local path, or null if it is a URL or not a valid path
+     */
+    public Path getPath(int index) {
+        String loc = location[index];
+        try {
+            if (loc.regionMatches(true, 0, "file:", 0, 5)) {
+                return Paths.get(URI.create(loc)).normalize();
+            }
+            if (isUrl(loc)) {
+                return null;
+            }
+            if (File.separatorChar == '/' && loc.indexOf('\\') >= 0) {
+                // Written on Windows
+                loc = loc.replace('\\', '/');
+            }
+            return baseDir.resolve(loc).normalize();
+        } catch (IllegalArgumentException e) {
+            // Malformed URI, or a path this platform can't represent
+            return null;
+        }
+    }
+
+    /**
+     * Finds the library track for an entry, on first use. An entry whose audio file exists but isn't in
+     * the library yet (e.g. outside the music folder) is added to the store; other files are not.
+     *
+     * @param index Entry index
+     * @param store Library to resolve against
+     * @return The track ID, or {@link #MISSING} if neither the path nor the #EXTINF title match a track
+     */
+    public int resolve(int index, TrackStore store) {
+        int id = trackId[index];
+        if (id != UNRESOLVED) {
+            return id;
+        }
+        id = MISSING;
+        Path path = getPath(index);
+        if (path != null) {
+            File file = path.toFile();
+            id = store.idOf(file);
+            if (id < 0 && LibraryRoot.isAudioFile(file.getName()) && file.isFile()) {
+                id = store.add(file);
+            }
+        }
+        if (id < 0 && title[index] != null) {
+            // "Artist - Title", as players write it; otherwise just the title
+            String t = title[index];
+            int separator = t.indexOf(" - ");
+            id = separator > 0
+                    ? store.idOfTags(t.substring(0, separator), t.substring(separator + 3))
+                    : store.idOfTags("", t);
+        }
+        trackId[index] = id < 0 ? MISSING : id;
+        return trackId[index];
+    }
+
+    /**
+     * A queue view of the playlist for the player: {@code get(i)} resolves entry i on demand and returns
+     * {@link #MISSING} for entries that match no track.
+     *
+     * {@code indexOf} and {@code contains} only look at entries resolved so far, so they never force the
+     * whole playlist to be resolved.
+     */
+    public List<Integer> asQueue(TrackStore store) {
+        return new Queue(store);
+    }
+
+    private class Queue extends AbstractList<Integer> implements RandomAccess {
+        private final TrackStore store;
+
+        Queue(TrackStore store) {
+            this.store = store;
+        }
+
+        @Override
+        public Integer get(int index) {
+            if (index < 0 || index >= size) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return resolve(index, store);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public int indexOf(Object o) {
+            if (!(o instanceof Integer id) || id < 0) {
+                return -1;
+            }
+            for (int i = 0; i < size; i++) {
+                if (trackId[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int lastIndexOf(Object o) {
+            if (!(o instanceof Integer id) || id < 0) {
+                return -1;
+            }
+            for (int i = size - 1; i >= 0; i--) {
+                if (trackId[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private void parseLine(byte[] line, int from, int to) {
+        if (firstLine && to - from >= 3 && (line[from] & 0xFF) == 0xEF && (line[from + 1] & 0xFF) == 0xBB
+                && (line[from + 2] & 0xFF) == 0xBF) {
+            from += 3; // UTF-8 byte order mark
+        }
+        firstLine = false;
+        while (from < to && (line[from] == ' ' || line[from] == '\t')) {
+            from++;
+        }
+        while (to > from && (line[to - 1] == '\r' || line[to - 1] == ' ' || line[to - 1] == '\t')) {
+            to--;
+        }
+        if (from == to) {
+            return;
+        }
+        if (line[from] == '#') {
+            if (startsWith(line, from, to, EXTINF)) {
+                int p = from + EXTINF.length;
+                pendingDuration = parseDuration(line, p, to);
+                while (p < to && line[p] != ',') {
+                    p++;
+                }
+                pendingTitle = p + 1 < to ? decode(line, p + 1, to, strictUtf8).trim() : null;
+            }
+            return;
+        }
+        add(decode(line, from, to, strictUtf8), pendingTitle, pendingDuration);
+        pendingTitle = null;
+        pendingDuration = UNKNOWN_DURATION;
+    }
+
+    private static byte[] append(byte[] line, int lineLength, byte[] buffer, int from, int length) {
+        if (lineLength + length > line.length) {
+            line = Arrays.copyOf(line, Math.max(line.length * 2, lineLength + length));
+        }
+        System.arraycopy(buffer, from, line, lineLength, length);
+        return line;
+    }
+
+    private void add(String entryLocation, String entryTitle, int entryDuration) {
+        if (size == location.length) {
+            int capacity = location.length * 2;
+            location = Arrays.copyOf(location, capacity);
+            title = Arrays.copyOf(title, capacity);
+            durationSeconds = Arrays.copyOf(durationSeconds, capacity);
+            trackId = Arrays.copyOf(trackId, capacity);
+        }
+        location[size] = entryLocation;
+        title[size] = entryTitle == null || entryTitle.isEmpty() ? null : entryTitle;
+        durationSeconds[size] = entryDuration;
+        trackId[size] = UNRESOLVED;
+        size++;
+    }
+
+    private static String displayTitle(TrackStore store, int id) {
+        String t = store.getTitle(id);
+        if (t.isEmpty()) {
+            String name = store.getName(id);
+            int dot = name.lastIndexOf('.');
+            t = dot > 0 ? name.substring(0, dot) : name;
+        }
+        String artist = store.getArtist(id);
+        // Line breaks would end the #EXTINF line
+        String display = artist.isEmpty() ? t : artist + " - " + t;
+        return display.replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private static boolean isUrl(String loc) {
+        int colon = loc.indexOf("://");
+        return colon > 1 && loc.substring(0, colon).chars().allMatch(Character::isLetter);
+    }
+
+    private static boolean startsWith(byte[] line, int from, int to, byte[] prefix) {
+        if (to - from < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (Character.toUpperCase(line[from + i]) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int parseDuration(byte[] line, int from, int to) {
+        boolean negative = from < to && line[from] == '-';
+        int p = negative ? from + 1 : from;
+        long value = 0;
+        int digits = 0;
+        while (p < to && line[p] >= '0' && line[p] <= '9' && digits < 9) {
+            value = value * 10 + (line[p++] - '0');
+            digits++;
+        }
+        return negative || digits == 0 ? UNKNOWN_DURATION : (int) value;
+    }
+
+    private static String decode(byte[] line, int from, int to, boolean strictUtf8) {
+        boolean ascii = true;
+        for (int i = from; i < to; i++) {
+            if (line[i] < 0) {
+                ascii = false;
+                break;
+            }
+        }
+        if (ascii) {
+            return new String(line, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+        String text = new String(line, from, to - from, StandardCharsets.UTF_8);
+        if (!strictUtf8 && text.indexOf('\uFFFD') >= 0) {
+            return new String(line, from, to - from, FALLBACK_CHARSET);
+        }
+        return text;
+    }
+}
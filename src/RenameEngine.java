@@ -0,0 +1,421 @@
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.tag.FieldKey;
+import org.jaudiotagger.tag.Tag;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renames tracks off the FX thread, one at a time or in bulk from a tag pattern such as "Artist - Title".
+ *
+ * Every track is renamed together with its cache files (waveform data, and artwork PNGs still in the old
+ * per-track layout) as one transaction. Content-addressed artwork doesn't move; only its index entry is
+ * renamed once the transaction has committed.
+ * The planned moves are written to a journal and forced to disk before anything is touched, and the
+ * transaction is marked committed afterwards. If the app dies halfway, {@link #recover()} finds the
+ * unfinished transaction on the next start and moves the files back, so an audio file and its artwork
+ * are always either both renamed or both left alone.
+ */
+public class RenameEngine {
+
+    private static final byte RECORD_BEGIN = 1;
+    private static final byte RECORD_MOVE = 2;
+    private static final byte RECORD_COMMIT = 3;
+    private static final byte RECORD_ROLLBACK = 4;
+
+    // Tokens understood in bulk rename patterns
+    private static final Pattern TOKEN = Pattern.compile("\\b(Artist|Title|Album|Track|Year)\\b");
+
+    private final Path journal;
+    private long nextTransaction = 1;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "rename-engine");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * A requested rename: the track and the name it should get (with or without extension).
+     */
+    public static class Request {
+        public final File track;
+        public final String newName;
+
+        public Request(File track, String newName) {
+            this.track = track;
+            this.newName = newName;
+        }
+    }
+
+    /**
+     * @param journal Journal file; lives next to the library so a crash can be recovered on the next start
+     */
+    public RenameEngine(Path journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Renames the given tracks on the engine thread.
+     *
+     * @param requests Tracks and their new names
+     * @return Old file to new file for every track that was renamed; failed renames are left out
+     */
+    public CompletableFuture<Map<File, File>> renameAsync(List<Request> requests) {
+        return CompletableFuture.supplyAsync(() -> renameAll(requests), executor);
+    }
+
+    /**
+     * Renames every track from its tags using a pattern such as "Artist - Title". Tracks missing any tag
+     * used in the pattern keep their name.
+     *
+     * @param tracks  Tracks to rename
+     * @param pattern Name pattern built from the tokens Artist, Title, Album, Track and Year
+     * @return Old file to new file for every track that was renamed
+     */
+    public CompletableFuture<Map<File, File>> renameFromTagsAsync(List<File> tracks, String pattern) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<Request> requests = new ArrayList<>();
+            for (File track : tracks) {
+                String name = nameFromTags(track, pattern);
+                if (name != null) {
+                    requests.add(new Request(track, name));
+                }
+            }
+            return renameAll(requests);
+        }, executor);
+    }
+
+    /**
+     * Rolls back any transaction that was started but never committed, then clears the journal. If a
+     * file can't be moved back the journal is kept, so the next call retries.
+     * Call once at startup before the library is scanned.
+     *
+     * @return Whether no transaction is left open
+     */
+    public boolean recover() {
+        if (!Files.isRegularFile(journal)) {
+            return true;
+        }
+        Map<Long, List<String[]>> open = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journal))) {
+            while (true) {
+                byte type = in.readByte();
+                long tx = in.readLong();
+                // Transactions appended after this must not reuse an id that is still open in the journal
+                nextTransaction = Math.max(nextTransaction, tx + 1);
+                switch (type) {
+                    case RECORD_BEGIN -> open.put(tx, new ArrayList<>());
+                    case RECORD_MOVE -> {
+                        String from = in.readUTF();
+                        String to = in.readUTF();
+                        List<String[]> moves = open.get(tx);
+                        if (moves != null) {
+                            moves.add(new String[]{from, to});
+                        }
+                    }
+                    case RECORD_COMMIT, RECORD_ROLLBACK -> open.remove(tx);
+                    default -> throw new IOException("Corrupt rename journal record " + type);
+                }
+            }
+        } catch (EOFException e) {
+            // End of journal, possibly in the middle of a record torn by the crash
+        } catch (IOException e) {
+            Log.error("Failed to read rename journal: %s", e.getMessage());
+        }
+
+        boolean resolved = true;
+        for (Map.Entry<Long, List<String[]>> tx : open.entrySet()) {
+            Log.info("Rolling back interrupted rename transaction %d", tx.getKey());
+            List<String[]> moves = tx.getValue();
+            for (int i = moves.size() - 1; i >= 0; i--) {
+                Path from = Path.of(moves.get(i)[0]);
+                Path to = Path.of(moves.get(i)[1]);
+                if (Files.exists(to) && !Files.exists(from)) {
+                    try {
+                        Files.move(to, from);
+                    } catch (IOException e) {
+                        Log.error("Failed to roll back %s: %s", to, e.getMessage());
+                        resolved = false;
+                    }
+                }
+            }
+        }
+        if (resolved) {
+            try {
+                Files.deleteIfExists(journal);
+            } catch (IOException e) {
+                Log.warn("Failed to clear rename journal: %s", e.getMessage());
+            }
+        }
+        return resolved;
+    }
+
+    private Map<File, File> renameAll(List<Request> requests) {
+        Map<File, File> renamed = new LinkedHashMap<>();
+        // Names already taken per directory, including targets claimed earlier in this batch
+        Map<File, Set<String>> taken = new HashMap<>();
+
+        // A journal left by an aborted batch still holds an open transaction; undo it before appending,
+        // and keep the journal afterwards if that isn't possible yet
+        boolean keepJournal = !recover();
+
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND)) {
+            for (Request request : requests) {
+                File oldFile = request.track;
+                File target = planTarget(oldFile, request.newName, taken);
+                if (target == null) {
+                    continue;
+                }
+                if (applyTransaction(channel, moveSet(oldFile, target))) {
+                    renamed.put(oldFile, target);
+                    // Size and mtime survive the move, so the track keeps its cover entry
+                    ArtworkIndex.forDirectory(CacheLocations.artworkDir(oldFile.getParentFile()))
+                            .rename(oldFile.getName(), target.getName());
+                } else {
+                    // Free the name we claimed; the old one is still in use
+                    Set<String> names = taken.get(oldFile.getParentFile());
+                    names.remove(target.getName().toLowerCase(Locale.ROOT));
+                    names.add(oldFile.getName().toLowerCase(Locale.ROOT));
+                }
+            }
+        } catch (IOException e) {
+            // The journal is kept so recover() can finish the job before the next batch or on the next start
+            Log.error("Rename batch aborted: %s", e.getMessage());
+            keepJournal = true;
+        }
+
+        // Index entries of the tracks renamed so far are saved even if the batch was aborted
+        ArtworkIndex.saveAll();
+
+        // Every transaction in the batch is committed or rolled back, so the journal can go
+        if (!keepJournal) {
+            try {
+                Files.deleteIfExists(journal);
+            } catch (IOException e) {
+                Log.warn("Failed to clear rename journal: %s", e.getMessage());
+            }
+        }
+        return renamed;
+    }
+
+    /**
+     * Works out the final file for a rename: sanitized, with the original extension, and made unique
+     * within its folder by appending _1, _2, ... like the original in-cell rename did.
+     *
+     * @return The target file, or null if nothing needs to change
+     */
+    private File planTarget(File oldFile, String requestedName, Map<File, Set<String>> taken) {
+        String newName = sanitizeFileName(requestedName.trim());
+        if (newName.isEmpty()) {
+            return null;
+        }
+        String originalName = oldFile.getName();
+        String extension = "";
+        int dotIndex = originalName.lastIndexOf('.');
+        if (dotIndex > 0) {
+            extension = originalName.substring(dotIndex);
+        }
+        if (!newName.toLowerCase().endsWith(extension.toLowerCase())) {
+            newName = newName + extension;
+        }
+        if (newName.equals(originalName)) {
+            return null;
+        }
+
+        File dir = oldFile.getParentFile();
+        Set<String> names = taken.computeIfAbsent(dir, d -> {
+            Set<String> existing = new HashSet<>();
+            String[] list = d.list();
+            if (list != null) {
+                for (String name : list) {
+                    existing.add(name.toLowerCase(Locale.ROOT));
+                }
+            }
+            return existing;
+        });
+
+        String candidate = newName;
+        String nameWithoutExt = newName.substring(0, newName.length() - extension.length());
+        int counter = 1;
+        while (names.contains(candidate.toLowerCase(Locale.ROOT))
+                && !candidate.equalsIgnoreCase(originalName)) {
+            candidate = nameWithoutExt + "_" + counter + extension;
+            counter++;
+        }
+        if (candidate.equals(originalName)) {
+            return null;
+        }
+        names.add(candidate.toLowerCase(Locale.ROOT));
+        // A case-only rename keeps the same key, which stays taken
+        if (!candidate.equalsIgnoreCase(originalName)) {
+            names.remove(originalName.toLowerCase(Locale.ROOT));
+        }
+        return new File(dir, candidate);
+    }
+
+    /**
+     * Builds the moves for one track: the audio file plus each cache file that exists for it.
+     *
+     * Cache files already at a target belong to no track, since the new audio name is free; they are
+     * deleted so they neither block the move nor get picked up by the renamed track.
+     */
+    private static List<Path[]> moveSet(File oldFile, File newFile) {
+        List<Path[]> moves = new ArrayList<>();
+        moves.add(new Path[]{oldFile.toPath(), newFile.toPath()});
+
+        File oldArtwork = new File(CacheLocations.artworkDir(oldFile.getParentFile()), baseName(oldFile) + ".png");
+        File newArtwork = new File(oldArtwork.getParentFile(), baseName(newFile) + ".png");
+        addCacheMove(moves, oldArtwork, newArtwork);
+        addCacheMove(moves, ArtworkAnalysis.cacheFileFor(oldArtwork), ArtworkAnalysis.cacheFileFor(newArtwork));
+        addCacheMove(moves, WaveformData.cacheFileFor(oldFile), WaveformData.cacheFileFor(newFile));
+        return moves;
+    }
+
+    private static void addCacheMove(List<Path[]> moves, File from, File to) {
+        // On a case-insensitive file system a case-only rename's target is the source itself
+        if (to.exists() && !(from.exists() && isSameFile(from, to))) {
+            try {
+                Files.delete(to.toPath());
+                Log.debug("Deleted stale cache file %s", to);
+            } catch (IOException e) {
+                // The move below fails and rolls the transaction back
+                Log.warn("Could not delete stale cache file %s: %s", to, e.getMessage());
+            }
+        }
+        if (from.exists()) {
+            moves.add(new Path[]{from.toPath(), to.toPath()});
+        }
+    }
+
+    private static boolean isSameFile(File a, File b) {
+        try {
+            return Files.isSameFile(a.toPath(), b.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Journals and performs one transaction. On any failure the moves done so far are undone.
+     *
+     * @return Whether every move succeeded
+     * @throws IOException If the journal can't be written or a rollback fails, leaving the transaction open
+     */
+    private boolean applyTransaction(FileChannel channel, List<Path[]> moves) throws IOException {
+        long tx = nextTransaction++;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_BEGIN);
+        out.writeLong(tx);
+        for (Path[] move : moves) {
+            out.writeByte(RECORD_MOVE);
+            out.writeLong(tx);
+            out.writeUTF(move[0].toAbsolutePath().toString());
+            out.writeUTF(move[1].toAbsolutePath().toString());
+        }
+        writeDurably(channel, bytes.toByteArray());
+
+        int done = 0;
+        try {
+            for (Path[] move : moves) {
+                Files.move(move[0], move[1]);
+                done++;
+            }
+        } catch (IOException e) {
+            Log.warn("Rename failed, rolling back: %s", e.getMessage());
+            for (int i = done - 1; i >= 0; i--) {
+                try {
+                    Files.move(moves.get(i)[1], moves.get(i)[0]);
+                } catch (IOException rollbackError) {
+                    // Leave the transaction open so recover() retries on the next start
+                    throw new IOException("Rollback failed for " + moves.get(i)[1], rollbackError);
+                }
+            }
+            writeDurably(channel, endRecord(RECORD_ROLLBACK, tx));
+            return false;
+        }
+        writeDurably(channel, endRecord(RECORD_COMMIT, tx));
+        return true;
+    }
+
+    private static byte[] endRecord(byte type, long tx) {
+        return ByteBuffer.allocate(9).put(type).putLong(tx).array();
+    }
+
+    private static void writeDurably(FileChannel channel, byte[] record) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    private static String nameFromTags(File track, String pattern) {
+        try {
+            AudioFile f = AudioFileIO.read(track);
+            Tag tag = f.getTag();
+            if (tag == null) {
+                return null;
+            }
+            Matcher m = TOKEN.matcher(pattern);
+            StringBuilder sb = new StringBuilder();
+            while (m.find()) {
+                FieldKey key = switch (m.group(1)) {
+                    case "Artist" -> FieldKey.ARTIST;
+                    case "Title" -> FieldKey.TITLE;
+                    case "Album" -> FieldKey.ALBUM;
+                    case "Track" -> FieldKey.TRACK;
+                    default -> FieldKey.YEAR;
+                };
+                String value = tag.getFirst(key);
+                if (value == null || value.isBlank()) {
+                    return null;
+                }
+                m.appendReplacement(sb, Matcher.quoteReplacement(value.trim()));
+            }
+            m.appendTail(sb);
+            return sb.toString();
+        } catch (Exception e) {
+            Log.warn("Could not read tags from: %s", track.getAbsolutePath());
+            return null;
+        }
+    }
+
+    private static String baseName(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Replaces any character not allowed in file names with an underscore.
+     */
+    public static String sanitizeFileName(String input) {
+        return input.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+}
@@ -0,0 +1,168 @@
+import javafx.scene.Scene;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures what the UI costs while it runs, separately for normal and low-power mode, so switching modes
+ * reports the savings that were actually measured rather than assumed.
+ *
+ * Two numbers are tracked:
+ * - process CPU time, as a percentage of one core, from the OS (all threads: FX, render, media, workers)
+ * - frames (pulses) per second and FX-thread time per frame, measured from the scene's pre-layout to its
+ *   post-layout pulse listener (CSS, layout and listeners; rendering itself runs on the render thread)
+ *
+ * Pulse listeners only run on pulses that happen anyway, unlike an AnimationTimer, which would itself
+ * keep the scene rendering every frame. A daemon thread samples the counters every WINDOW_SECONDS; the
+ * first full window after a mode change is logged next to the last window of the other mode.
+ */
+public final class RenderMonitor {
+
+    private static final long WINDOW_SECONDS = 10;
+
+    /**
+     * Averages over one sampling window.
+     */
+    public static final class Sample {
+        public final double cpuPercent;
+        public final double framesPerSecond;
+        public final double millisPerFrame;
+
+        Sample(double cpuPercent, double framesPerSecond, double millisPerFrame) {
+            this.cpuPercent = cpuPercent;
+            this.framesPerSecond = framesPerSecond;
+            this.millisPerFrame = millisPerFrame;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("CPU %.1f%%, %.1f frames/s, %.2f ms per frame", cpuPercent, framesPerSecond,
+                    millisPerFrame);
+        }
+    }
+
+    private final com.sun.management.OperatingSystemMXBean os;
+
+    // Written on the FX thread, read by the sampler
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong frameNanos = new AtomicLong();
+    private long pulseStarted;
+
+    private final ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "render-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile boolean lowPower;
+    // Windows spanning a mode change are discarded; the next full one is compared
+    private volatile boolean switched;
+
+    // Sampler thread only
+    private long lastCpuNanos;
+    private long lastWallNanos;
+    private long lastFrames;
+    private long lastFrameNanos;
+    private boolean windowSwitched;
+    private final Sample[] latest = new Sample[2];
+
+    /**
+     * @param lowPower Mode the app starts in
+     */
+    public RenderMonitor(boolean lowPower) {
+        java.lang.management.OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+        this.os = bean instanceof com.sun.management.OperatingSystemMXBean sun ? sun : null;
+        this.lowPower = lowPower;
+    }
+
+    /**
+     * Starts measuring a scene. Call on the FX thread.
+     */
+    public void attach(Scene scene) {
+        scene.addPreLayoutPulseListener(() -> pulseStarted = System.nanoTime());
+        scene.addPostLayoutPulseListener(() -> {
+            frameNanos.addAndGet(System.nanoTime() - pulseStarted);
+            frames.incrementAndGet();
+        });
+        lastCpuNanos = cpuNanos();
+        lastWallNanos = System.nanoTime();
+        sampler.scheduleAtFixedRate(this::sample, WINDOW_SECONDS, WINDOW_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Records a mode change; the savings are logged once the new mode has run for a full window.
+     */
+    public void setLowPower(boolean lowPower) {
+        if (this.lowPower != lowPower) {
+            this.lowPower = lowPower;
+            switched = true;
+        }
+    }
+
+    /**
+     * @return The last full window measured in a mode, or null if it hasn't run for one yet
+     */
+    public synchronized Sample latest(boolean lowPower) {
+        return latest[lowPower ? 1 : 0];
+    }
+
+    /**
+     * @return The latest measurement of each mode, for the log on exit
+     */
+    public synchronized String describe() {
+        return String.format("Render cost: normal %s; low power %s", latest[0] == null ? "not measured" : latest[0],
+                latest[1] == null ? "not measured" : latest[1]);
+    }
+
+    private void sample() {
+        long cpu = cpuNanos();
+        long wall = System.nanoTime();
+        long frameCount = frames.get();
+        long frameTime = frameNanos.get();
+        double seconds = (wall - lastWallNanos) / 1e9;
+        long windowFrames = frameCount - lastFrames;
+        Sample sample = new Sample(cpu < 0 ? Double.NaN : (cpu - lastCpuNanos) / 1e7 / seconds,
+                windowFrames / seconds,
+                windowFrames == 0 ? 0 : (frameTime - lastFrameNanos) / 1e6 / windowFrames);
+        lastCpuNanos = cpu;
+        lastWallNanos = wall;
+        lastFrames = frameCount;
+        lastFrameNanos = frameTime;
+
+        boolean mode = lowPower;
+        if (switched) {
+            // The mode changed during this window, so it measured a mix of both
+            switched = false;
+            windowSwitched = true;
+            return;
+        }
+        Sample other;
+        synchronized (this) {
+            latest[mode ? 1 : 0] = sample;
+            other = latest[mode ? 0 : 1];
+        }
+        Log.debug("Render cost (%s): %s", mode ? "low power" : "normal", sample);
+        if (windowSwitched) {
+            windowSwitched = false;
+            if (other == null) {
+                Log.info("Render cost in %s mode: %s", mode ? "low-power" : "normal", sample);
+            } else {
+                Sample normal = mode ? other : sample;
+                Sample low = mode ? sample : other;
+                Log.info("Low-power mode %s: CPU %.1f%% vs %.1f%%, %.1f vs %.1f frames/s, %.2f vs %.2f ms per frame"
+                                + " (normal vs low power)", mode ? "on" : "off", normal.cpuPercent, low.cpuPercent,
+                        normal.framesPerSecond, low.framesPerSecond, normal.millisPerFrame, low.millisPerFrame);
+            }
+        }
+    }
+
+    /**
+     * @return CPU time used by the whole process so far, or -1 if the JVM doesn't report it
+     */
+    private long cpuNanos() {
+        return os == null ? -1 : os.getProcessCpuTime();
+    }
+}
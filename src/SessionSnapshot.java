@@ -0,0 +1,152 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The state restored on the next launch: queue, current index, playback position and theme color.
+ *
+ * Stored as a small binary file. Queue paths are front-coded (shared prefix length with the previous
+ * path plus the remaining suffix), so a queue from one music folder costs a few bytes per track.
+ */
+public class SessionSnapshot {
+
+    private static final int MAGIC = 0x4F4D5353; // "OMSS"
+    private static final int VERSION = 1;
+
+    // Marker for "no theme color", since any 24-bit RGB value is valid
+    public static final int NO_THEME = -1;
+
+    public final List<String> queue;
+    public final int currentIndex;
+    public final long positionMillis;
+    public final int themeRgb;
+
+    public SessionSnapshot(List<String> queue, int currentIndex, long positionMillis, int themeRgb) {
+        this.queue = queue;
+        this.currentIndex = currentIndex;
+        this.positionMillis = positionMillis;
+        this.themeRgb = themeRgb;
+    }
+
+    /**
+     * Writes the snapshot to a temp file and moves it into place, so a crash mid-write never
+     * leaves a truncated session behind.
+     *
+     * @param file Destination of the snapshot
+     * @throws IOException If the snapshot cannot be written
+     */
+    public void write(Path file) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            writeVarInt(out, queue.size());
+            writeVarInt(out, currentIndex + 1);
+            writeVarLong(out, Math.max(0, positionMillis));
+            out.writeInt(themeRgb);
+
+            byte[] previous = new byte[0];
+            for (String path : queue) {
+                byte[] bytes = path.getBytes(StandardCharsets.UTF_8);
+                int shared = 0;
+                int max = Math.min(previous.length, bytes.length);
+                while (shared < max && previous[shared] == bytes[shared]) {
+                    shared++;
+                }
+                writeVarInt(out, shared);
+                writeVarInt(out, bytes.length - shared);
+                out.write(bytes, shared, bytes.length - shared);
+                previous = bytes;
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot written by {@link #write(Path)}.
+     *
+     * @param file Snapshot file
+     * @return The snapshot, or null if there is none or it is from an unknown version
+     * @throws IOException If the file exists but cannot be read, or is truncated or corrupt
+     */
+    public static SessionSnapshot read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            // Every length is checked against the file size before it is used, so a corrupt or truncated
+            // file is reported as unreadable instead of failing with an unchecked exception
+            long size = Files.size(file);
+            int count = readVarInt(in);
+            if (count < 0 || count > size) {
+                throw new IOException("Corrupt session snapshot: queue of " + count + " tracks");
+            }
+            int currentIndex = readVarInt(in) - 1;
+            long positionMillis = readVarLong(in);
+            if (positionMillis < 0) {
+                throw new IOException("Corrupt session snapshot: position " + positionMillis);
+            }
+            int themeRgb = in.readInt();
+
+            List<String> queue = new ArrayList<>(count);
+            byte[] previous = new byte[0];
+            for (int i = 0; i < count; i++) {
+                int shared = readVarInt(in);
+                int suffix = readVarInt(in);
+                if (shared < 0 || shared > previous.length || suffix < 0 || suffix > size) {
+                    throw new IOException("Corrupt session snapshot: entry " + i + " of " + count);
+                }
+                byte[] bytes = new byte[shared + suffix];
+                System.arraycopy(previous, 0, bytes, 0, shared);
+                in.readFully(bytes, shared, suffix);
+                queue.add(new String(bytes, StandardCharsets.UTF_8));
+                previous = bytes;
+            }
+            return new SessionSnapshot(queue, currentIndex, positionMillis, themeRgb);
+        }
+    }
+
+    private static void writeVarInt(OutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    private static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static int readVarInt(InputStream in) throws IOException {
+        return (int) readVarLong(in);
+    }
+
+    private static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Truncated session snapshot");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed session snapshot");
+    }
+}
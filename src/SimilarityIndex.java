@@ -0,0 +1,391 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntPredicate;
+
+/**
+ * Nearest-neighbor index over per-track feature vectors, used by radio mode to pick a similar next track.
+ *
+ * A track's vector combines its cover palette (the two most common colors, in CIELAB) with cheap audio
+ * features from its {@link WaveformData}: loudness, duration and tempo. Each component is scaled and
+ * weighted so that plain Euclidean distance matches "sounds and looks alike" reasonably well.
+ *
+ * Vectors arrive one at a time as the background analysis reaches each track. They are kept in a small
+ * pending set that queries scan linearly, and once enough have piled up, a balanced k-d tree over all
+ * vectors is rebuilt on a background thread and swapped in. Queries therefore cost one tree descent
+ * plus a scan of at most {@link #REBUILD_THRESHOLD} pending vectors.
+ *
+ * All methods are thread-safe.
+ */
+public class SimilarityIndex {
+
+    public static final int DIMENSIONS = 9;
+
+    // Pending vectors that trigger a rebuild of the tree
+    private static final int REBUILD_THRESHOLD = 512;
+
+    // Relative weights of the feature groups (a unit of distance is roughly "clearly different")
+    private static final float PRIMARY_COLOR_WEIGHT = 1.0f;
+    private static final float SECONDARY_COLOR_WEIGHT = 0.5f;
+    private static final float LOUDNESS_WEIGHT = 0.6f;
+    private static final float DURATION_WEIGHT = 0.3f;
+    private static final float TEMPO_WEIGHT = 0.8f;
+
+    private final Map<Integer, float[]> vectors = new HashMap<>();
+    private final Map<Integer, float[]> pending = new HashMap<>();
+    private volatile KdTree tree = KdTree.build(new int[0], new float[0]);
+    private boolean rebuilding = false;
+    // Bumped by rebuildNow(), so a background build started before it doesn't replace its newer tree
+    private long generation = 0;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "similarity-index");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * Builds a track's feature vector. Missing parts get neutral values, so a track without a cover or
+     * without audio analysis is still comparable on the rest.
+     *
+     * @param artwork  Analysis of the track's cover, or null
+     * @param waveform The track's audio analysis, or null
+     * @return The vector, {@link #DIMENSIONS} long
+     */
+    public static float[] features(ArtworkAnalysis artwork, WaveformData waveform) {
+        float[] v = new float[DIMENSIONS];
+        int primary = 0x808080;
+        int secondary = 0x808080;
+        if (artwork != null && !artwork.palette.swatches.isEmpty()) {
+            List<AverageColorFinder.Swatch> swatches = artwork.palette.swatches;
+            primary = swatches.get(0).rgb;
+            secondary = swatches.size() > 1 ? swatches.get(1).rgb : primary;
+        }
+        toLab(primary, v, 0, PRIMARY_COLOR_WEIGHT);
+        toLab(secondary, v, 3, SECONDARY_COLOR_WEIGHT);
+
+        double loudness = WaveformData.TARGET_LUFS;
+        double seconds = 240;
+        double bpm = 120;
+        if (waveform != null) {
+            if (!Double.isInfinite(waveform.loudnessLufs) && !Double.isNaN(waveform.loudnessLufs)) {
+                loudness = waveform.loudnessLufs;
+            }
+            if (waveform.durationMillis > 0) {
+                seconds = waveform.durationMillis / 1000.0;
+            }
+            if (waveform.tempoBpm > 0) {
+                bpm = waveform.tempoBpm;
+            }
+        }
+        // 12 LU apart is as different as black and white; duration and tempo count in octaves
+        v[6] = (float) (Math.max(-2, Math.min(2, (loudness - WaveformData.TARGET_LUFS) / 12)) * LOUDNESS_WEIGHT);
+        v[7] = (float) (Math.max(-3, Math.min(3, log2(seconds / 240))) * DURATION_WEIGHT);
+        v[8] = (float) (log2(bpm / 120) * TEMPO_WEIGHT);
+        return v;
+    }
+
+    /**
+     * @return A copy of a vector with its cover colors (the first six, Lab) taken from another analysis,
+     *         e.g. once the cover of a track indexed without one has been extracted
+     */
+    public static float[] withArtwork(float[] vector, ArtworkAnalysis artwork) {
+        float[] v = vector.clone();
+        System.arraycopy(features(artwork, null), 0, v, 0, 6);
+        return v;
+    }
+
+    /**
+     * Adds or replaces a track's vector.
+     */
+    public synchronized void put(int id, float[] vector) {
+        vectors.put(id, vector);
+        pending.put(id, vector);
+        if (pending.size() >= REBUILD_THRESHOLD && !rebuilding) {
+            scheduleRebuild();
+        }
+    }
+
+    /**
+     * @return The track's vector, or null if it hasn't been indexed yet
+     */
+    public synchronized float[] get(int id) {
+        return vectors.get(id);
+    }
+
+    public synchronized int size() {
+        return vectors.size();
+    }
+
+    /**
+     * Finds the indexed track closest to a vector.
+     *
+     * @param query  Feature vector to compare against
+     * @param accept Which track IDs may be returned (e.g. not the current or recently played ones)
+     * @return The closest accepted track ID, or -1 if no accepted track is indexed
+     */
+    public int nearest(float[] query, IntPredicate accept) {
+        Map<Integer, float[]> unindexed;
+        synchronized (this) {
+            unindexed = new HashMap<>(pending);
+        }
+        Best best = new Best();
+        // The tree may hold an outdated vector for a pending track; the pending one wins
+        KdTree current = tree;
+        current.search(query, id -> !unindexed.containsKey(id) && accept.test(id), best);
+        for (Map.Entry<Integer, float[]> e : unindexed.entrySet()) {
+            if (accept.test(e.getKey())) {
+                best.offer(e.getKey(), distance(query, e.getValue(), 0));
+            }
+        }
+        return best.id;
+    }
+
+    /**
+     * Rebuilds the tree over every vector on the calling thread, so benchmarks can time the build and
+     * then query a fully built index. The app relies on the background rebuilds instead.
+     *
+     * @return Build time in milliseconds
+     */
+    synchronized double rebuildNow() {
+        int[] ids = new int[vectors.size()];
+        float[] coords = new float[vectors.size() * DIMENSIONS];
+        int n = 0;
+        for (Map.Entry<Integer, float[]> e : vectors.entrySet()) {
+            ids[n] = e.getKey();
+            System.arraycopy(e.getValue(), 0, coords, n * DIMENSIONS, DIMENSIONS);
+            n++;
+        }
+        long start = System.nanoTime();
+        tree = KdTree.build(ids, coords);
+        pending.clear();
+        generation++;
+        return (System.nanoTime() - start) / 1e6;
+    }
+
+    private void scheduleRebuild() {
+        rebuilding = true;
+        long startedAt = generation;
+        int[] ids = new int[vectors.size()];
+        float[] coords = new float[vectors.size() * DIMENSIONS];
+        List<float[]> snapshot = new ArrayList<>(vectors.size());
+        int n = 0;
+        for (Map.Entry<Integer, float[]> e : vectors.entrySet()) {
+            ids[n] = e.getKey();
+            System.arraycopy(e.getValue(), 0, coords, n * DIMENSIONS, DIMENSIONS);
+            snapshot.add(e.getValue());
+            n++;
+        }
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            // The build reorders its arrays, and ids must stay aligned with snapshot
+            KdTree built = KdTree.build(ids.clone(), coords);
+            synchronized (this) {
+                if (generation != startedAt) {
+                    // Superseded: the tree built meanwhile by rebuildNow() covers more vectors
+                    rebuilding = false;
+                    return;
+                }
+                tree = built;
+                // Vectors replaced while the tree was being built stay pending
+                for (int i = 0; i < ids.length; i++) {
+                    if (pending.get(ids[i]) == snapshot.get(i)) {
+                        pending.remove(ids[i]);
+                    }
+                }
+                rebuilding = false;
+                if (pending.size() >= REBUILD_THRESHOLD) {
+                    scheduleRebuild();
+                }
+            }
+            Log.debug("Similarity index rebuilt: %d tracks in %d ms", ids.length, (System.nanoTime() - start) / 1_000_000);
+        });
+    }
+
+    private static float distance(float[] query, float[] coords, int offset) {
+        float sum = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            float diff = query[d] - coords[offset + d];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    /**
+     * sRGB to CIELAB (D65), scaled to roughly [-1, 1] and weighted, written into v[offset..offset+2].
+     */
+    private static void toLab(int rgb, float[] v, int offset, float weight) {
+        double r = linearize((rgb >> 16) & 0xFF);
+        double g = linearize((rgb >> 8) & 0xFF);
+        double b = linearize(rgb & 0xFF);
+        double x = labCurve((0.4124 * r + 0.3576 * g + 0.1805 * b) / 0.95047);
+        double y = labCurve(0.2126 * r + 0.7152 * g + 0.0722 * b);
+        double z = labCurve((0.0193 * r + 0.1192 * g + 0.9505 * b) / 1.08883);
+        v[offset] = (float) ((116 * y - 16) / 100 * weight);
+        v[offset + 1] = (float) (500 * (x - y) / 100 * weight);
+        v[offset + 2] = (float) (200 * (y - z) / 100 * weight);
+    }
+
+    private static double linearize(int channel) {
+        double c = channel / 255.0;
+        return c <= 0.04045 ? c / 12.92 : Math.pow((c + 0.055) / 1.055, 2.4);
+    }
+
+    private static double labCurve(double t) {
+        return t > 216.0 / 24389 ? Math.cbrt(t) : (24389.0 / 27 * t + 16) / 116;
+    }
+
+    /**
+     * Closest candidate so far, by squared distance.
+     */
+    private static final class Best {
+        int id = -1;
+        float distance = Float.POSITIVE_INFINITY;
+
+        void offer(int candidate, float d) {
+            if (d < distance) {
+                distance = d;
+                id = candidate;
+            }
+        }
+    }
+
+    /**
+     * Immutable balanced k-d tree laid out implicitly in arrays: the node of a range is its middle element,
+     * split on the dimension with the widest spread in that range, with the two halves as children.
+     */
+    private static final class KdTree {
+        private static final int LEAF_SIZE = 8;
+
+        private final int[] ids;
+        private final float[] coords;
+        private final byte[] splitDim;
+
+        private KdTree(int[] ids, float[] coords, byte[] splitDim) {
+            this.ids = ids;
+            this.coords = coords;
+            this.splitDim = splitDim;
+        }
+
+        /**
+         * @param ids    Track IDs (reordered in place)
+         * @param coords Their vectors, {@link #DIMENSIONS} floats each (reordered in place)
+         */
+        static KdTree build(int[] ids, float[] coords) {
+            byte[] splitDim = new byte[ids.length];
+            KdTree tree = new KdTree(ids, coords, splitDim);
+            tree.build(0, ids.length);
+            return tree;
+        }
+
+        private void build(int lo, int hi) {
+            if (hi - lo <= LEAF_SIZE) {
+                return;
+            }
+            int dim = widestDimension(lo, hi);
+            int mid = (lo + hi) >>> 1;
+            select(lo, hi - 1, mid, dim);
+            splitDim[mid] = (byte) dim;
+            build(lo, mid);
+            build(mid + 1, hi);
+        }
+
+        void search(float[] query, IntPredicate accept, Best best) {
+            search(0, ids.length, query, accept, best);
+        }
+
+        private void search(int lo, int hi, float[] query, IntPredicate accept, Best best) {
+            if (hi - lo <= LEAF_SIZE) {
+                for (int i = lo; i < hi; i++) {
+                    float d = distance(query, coords, i * DIMENSIONS);
+                    if (d < best.distance && accept.test(ids[i])) {
+                        best.offer(ids[i], d);
+                    }
+                }
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            int dim = splitDim[mid];
+            float diff = query[dim] - coords[mid * DIMENSIONS + dim];
+            float d = distance(query, coords, mid * DIMENSIONS);
+            if (d < best.distance && accept.test(ids[mid])) {
+                best.offer(ids[mid], d);
+            }
+            if (diff < 0) {
+                search(lo, mid, query, accept, best);
+                if (diff * diff < best.distance) {
+                    search(mid + 1, hi, query, accept, best);
+                }
+            } else {
+                search(mid + 1, hi, query, accept, best);
+                if (diff * diff < best.distance) {
+                    search(lo, mid, query, accept, best);
+                }
+            }
+        }
+
+        private int widestDimension(int lo, int hi) {
+            int widest = 0;
+            float widestSpread = -1;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int i = lo; i < hi; i++) {
+                    float c = coords[i * DIMENSIONS + d];
+                    if (c < min) min = c;
+                    if (c > max) max = c;
+                }
+                if (max - min > widestSpread) {
+                    widestSpread = max - min;
+                    widest = d;
+                }
+            }
+            return widest;
+        }
+
+        /**
+         * Quickselect: reorders [lo, hi] so that element k has the value it would have if sorted on dim,
+         * with no larger values before it and no smaller ones after it.
+         */
+        private void select(int lo, int hi, int k, int dim) {
+            while (lo < hi) {
+                float pivot = coords[((lo + hi) >>> 1) * DIMENSIONS + dim];
+                int i = lo;
+                int j = hi;
+                while (i <= j) {
+                    while (coords[i * DIMENSIONS + dim] < pivot) i++;
+                    while (coords[j * DIMENSIONS + dim] > pivot) j--;
+                    if (i <= j) {
+                        swap(i++, j--);
+                    }
+                }
+                if (k <= j) {
+                    hi = j;
+                } else if (k >= i) {
+                    lo = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                float c = coords[a * DIMENSIONS + d];
+                coords[a * DIMENSIONS + d] = coords[b * DIMENSIONS + d];
+                coords[b * DIMENSIONS + d] = c;
+            }
+        }
+    }
+}
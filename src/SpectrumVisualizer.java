@@ -0,0 +1,242 @@
+import javafx.animation.AnimationTimer;
+import javafx.beans.value.ChangeListener;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.media.AudioSpectrumListener;
+import javafx.scene.media.MediaPlayer;
+import javafx.scene.paint.Color;
+
+/**
+ * Real-time spectrum bars driven by the MediaPlayer audio spectrum listener.
+ *
+ * Spectrum frames are copied into a preallocated ring buffer and drawn by an AnimationTimer at a capped
+ * frame rate. Nothing is allocated per frame: the listener, buffers and bar colors are all created up front
+ * (colors only change with the theme). If drawing takes longer than the per-frame CPU budget, the frame
+ * rate is lowered until it fits again.
+ *
+ * The timer only runs while spectrum frames arrive: it stops when the attached player pauses or stops, or
+ * when no new frame has come in since the last draw, and starts again with the next frame. A paused or
+ * detached visualizer therefore costs no redraws and doesn't keep the scene pulsing.
+ */
+public class SpectrumVisualizer extends Canvas {
+
+    public static final int BANDS = 48;
+
+    // Frames kept in the ring buffer; the bars show the average of the most recent SMOOTHING frames
+    private static final int HISTORY = 8;
+    private static final int SMOOTHING = 3;
+
+    // Spectrum floor in dB; anything quieter draws as an empty bar
+    private static final int THRESHOLD_DB = -60;
+
+    private static final int MAX_FPS = 30;
+    private static final int MIN_FPS = 10;
+
+    // Drawing time allowed per frame before the frame rate is reduced
+    private static final long FRAME_BUDGET_NANOS = 2_000_000;
+
+    private final float[] ring = new float[HISTORY * BANDS];
+    private final float[] levels = new float[BANDS];
+    private final Color[] barColors = new Color[BANDS];
+    private int writeFrame = 0;
+    private int framesWritten = 0;
+
+    private final AudioSpectrumListener listener = this::onSpectrum;
+    private final ChangeListener<MediaPlayer.Status> statusListener = (obs, oldStatus, status) -> onStatus(status);
+    private final AnimationTimer timer;
+
+    private MediaPlayer attached;
+    private boolean enabled = true;
+    private boolean running = false;
+    // Whether a spectrum frame has arrived since the last draw
+    private boolean fresh = false;
+    private long frameIntervalNanos = 1_000_000_000L / MAX_FPS;
+    private long lastFrameNanos = 0;
+    private long averageDrawNanos = 0;
+
+    public SpectrumVisualizer(double width, double height) {
+        super(width, height);
+        setMouseTransparent(true);
+        setColors(Color.WHITE, Color.WHITE);
+        timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (now - lastFrameNanos >= frameIntervalNanos) {
+                    if (!fresh) {
+                        // Nothing new to show; the next spectrum frame starts the timer again
+                        stopTimer();
+                        return;
+                    }
+                    fresh = false;
+                    lastFrameNanos = now;
+                    drawFrame();
+                }
+            }
+        };
+    }
+
+    /**
+     * Starts listening to the given player's spectrum and stops listening to the previous one.
+     *
+     * @param player The now playing player
+     */
+    public void attach(MediaPlayer player) {
+        if (attached != null && attached != player) {
+            attached.setAudioSpectrumListener(null);
+            attached.statusProperty().removeListener(statusListener);
+        }
+        if (player != null && player != attached) {
+            player.statusProperty().addListener(statusListener);
+        }
+        attached = player;
+        writeFrame = 0;
+        framesWritten = 0;
+        if (enabled && player != null) {
+            connect(player);
+        }
+    }
+
+    /**
+     * Turns the visualizer on or off. When disabled, no spectrum is computed by the player and no frames
+     * are drawn at all, which is what low-power mode relies on.
+     */
+    public void setEnabled(boolean enabled) {
+        if (this.enabled == enabled) {
+            return;
+        }
+        this.enabled = enabled;
+        setVisible(enabled);
+        if (enabled) {
+            if (attached != null) {
+                connect(attached);
+            }
+            startTimer();
+        } else {
+            if (attached != null) {
+                attached.setAudioSpectrumListener(null);
+            }
+            stopTimer();
+            getGraphicsContext2D().clearRect(0, 0, getWidth(), getHeight());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts drawing. Has no effect while the visualizer is disabled, and the timer stops again by itself
+     * while no spectrum frames arrive.
+     */
+    public void start() {
+        if (enabled) {
+            startTimer();
+        }
+    }
+
+    /**
+     * Recolors the bars with a gradient running from the lowest to the highest band.
+     *
+     * @param low  Color of the lowest band
+     * @param high Color of the highest band
+     */
+    public void setColors(Color low, Color high) {
+        for (int i = 0; i < BANDS; i++) {
+            barColors[i] = low.interpolate(high, (double) i / (BANDS - 1)).deriveColor(0, 1, 1, 0.75);
+        }
+    }
+
+    private void connect(MediaPlayer player) {
+        player.setAudioSpectrumNumBands(BANDS);
+        player.setAudioSpectrumInterval(1.0 / MAX_FPS);
+        player.setAudioSpectrumThreshold(THRESHOLD_DB);
+        player.setAudioSpectrumListener(listener);
+    }
+
+    private void onSpectrum(double timestamp, double duration, float[] magnitudes, float[] phases) {
+        int count = Math.min(BANDS, magnitudes.length);
+        System.arraycopy(magnitudes, 0, ring, writeFrame * BANDS, count);
+        writeFrame = (writeFrame + 1) % HISTORY;
+        if (framesWritten < HISTORY) {
+            framesWritten++;
+        }
+        fresh = true;
+        if (enabled && !running) {
+            startTimer();
+        }
+    }
+
+    private void onStatus(MediaPlayer.Status status) {
+        if (status == MediaPlayer.Status.PLAYING) {
+            if (enabled) {
+                startTimer();
+            }
+            return;
+        }
+        // Paused bars keep the last spectrum; a stopped player shows none
+        stopTimer();
+        if (status == MediaPlayer.Status.STOPPED || status == MediaPlayer.Status.HALTED) {
+            framesWritten = 0;
+            getGraphicsContext2D().clearRect(0, 0, getWidth(), getHeight());
+        }
+    }
+
+    private void startTimer() {
+        if (!running) {
+            running = true;
+            timer.start();
+        }
+    }
+
+    private void stopTimer() {
+        if (running) {
+            running = false;
+            timer.stop();
+        }
+    }
+
+    private void drawFrame() {
+        long started = System.nanoTime();
+
+        // Average the latest frames from the ring buffer into levels[] (0..1)
+        int frames = Math.min(SMOOTHING, framesWritten);
+        for (int b = 0; b < BANDS; b++) {
+            float sum = 0;
+            for (int f = 1; f <= frames; f++) {
+                int frame = (writeFrame - f + HISTORY) % HISTORY;
+                sum += ring[frame * BANDS + b];
+            }
+            float db = frames == 0 ? THRESHOLD_DB : sum / frames;
+            levels[b] = Math.max(0f, (db - THRESHOLD_DB) / -THRESHOLD_DB);
+        }
+
+        GraphicsContext g = getGraphicsContext2D();
+        double width = getWidth();
+        double height = getHeight();
+        double slot = width / BANDS;
+        double barWidth = Math.max(1, slot - 2);
+        g.clearRect(0, 0, width, height);
+        for (int b = 0; b < BANDS; b++) {
+            double barHeight = levels[b] * height;
+            g.setFill(barColors[b]);
+            g.fillRect(b * slot + 1, height - barHeight, barWidth, barHeight);
+        }
+
+        adaptFrameRate(System.nanoTime() - started);
+    }
+
+    /**
+     * Keeps drawing inside the CPU budget: halves the frame rate while the average draw time is over
+     * budget and restores it once there is plenty of headroom again.
+     */
+    private void adaptFrameRate(long drawNanos) {
+        averageDrawNanos = (averageDrawNanos * 7 + drawNanos) / 8;
+        long slowest = 1_000_000_000L / MIN_FPS;
+        long fastest = 1_000_000_000L / MAX_FPS;
+        if (averageDrawNanos > FRAME_BUDGET_NANOS && frameIntervalNanos < slowest) {
+            frameIntervalNanos = Math.min(slowest, frameIntervalNanos * 2);
+        } else if (averageDrawNanos < FRAME_BUDGET_NANOS / 4 && frameIntervalNanos > fastest) {
+            frameIntervalNanos = Math.max(fastest, frameIntervalNanos / 2);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+import javafx.scene.Parent;
+import javafx.scene.paint.Color;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The app's stylesheets, generated in code and handed to JavaFX as {@code data:} URLs.
+ *
+ * All static styling (sizes, shapes, hover and selection states) is in one base stylesheet, keyed by
+ * style class and pseudo-class, so hovering or selecting a node only flips a pseudo-class and never
+ * builds or parses CSS. Every color that follows the artwork is a looked-up color ({@code -om-...})
+ * defined on {@code .root}; a palette stylesheet redefines just those, so changing the theme is one
+ * stylesheet swap on the root (see {@link #apply}) instead of inline styles on each themed node.
+ *
+ * Palette stylesheets are cached by their colors, so tracks of the same album reuse the same URL and
+ * JavaFX its parsed stylesheet.
+ */
+public final class ThemeStylesheet {
+
+    private static final String BASE_CSS = """
+            .root {
+                -om-window-background: #01050a;
+                -om-window-border: #000408;
+                -om-top-bar: transparent;
+                -om-foreground: white;
+            }
+            .window {
+                -fx-background-color: -om-window-background;
+                -fx-border-color: -om-window-border;
+                -fx-border-width: 5;
+                -fx-border-radius: 49;
+                -fx-background-radius: 49;
+            }
+            .top-bar {
+                -fx-background-color: -om-top-bar;
+                -fx-padding: 15;
+                -fx-background-radius: 49 49 0 0;
+            }
+            .window-button {
+                -fx-background-color: transparent;
+                -fx-border-color: #9B9FB3;
+                -fx-border-width: 4;
+                -fx-border-radius: 20;
+                -fx-background-radius: 20;
+                -fx-min-width: 44;
+                -fx-min-height: 44;
+                -fx-max-width: 44;
+                -fx-max-height: 44;
+                -fx-text-fill: #9B9FB3;
+                -fx-opacity: 1.0;
+                -fx-font-size: 28px;
+                -fx-font-weight: bold;
+                -fx-padding: -3 0 0 0;
+                -fx-content-display: center;
+                -fx-alignment: top-center;
+            }
+            .window-button.minimize {
+                -fx-font-size: 36px;
+                -fx-padding: -5 0 0 0;
+                -fx-font-family: 'Courier New';
+            }
+            .window-button.window-control:hover {
+                -fx-background-color: rgba(178, 191, 230, 0.20);
+            }
+            .control-button, .play-button {
+                -fx-background-color: rgba(255, 255, 255, 0.1);
+                -fx-background-radius: 50;
+                -fx-min-width: 72;
+                -fx-min-height: 72;
+                -fx-max-width: 72;
+                -fx-max-height: 72;
+                -fx-text-fill: white;
+            }
+            .play-button {
+                -fx-min-width: 100;
+                -fx-min-height: 100;
+                -fx-max-width: 100;
+                -fx-max-height: 100;
+            }
+            .play-button:hover {
+                -fx-background-color: rgba(255, 255, 255, 0.16);
+            }
+            .control-icon {
+                -fx-font-size: 39px;
+                -fx-text-fill: white;
+            }
+            .control-icon.skip-back {
+                -fx-padding: 0 0 2 1;
+            }
+            .control-icon.skip-forward {
+                -fx-padding: 0 1 2 0;
+            }
+            .play-icon {
+                -fx-font-size: 100px;
+                -fx-text-fill: white;
+                -fx-padding: 2 0 0 2;
+            }
+            .play-icon.playing {
+                -fx-padding: 0 0 13 0;
+            }
+            .time-label {
+                -fx-text-fill: -om-foreground;
+                -fx-font-size: 18px;
+                -fx-font-weight: bold;
+                -fx-font-family: 'Consolas';
+            }
+            .seek-bar .track {
+                -fx-background-color: transparent;
+            }
+            .library-pane {
+                -fx-background-color: #0f0f0f;
+            }
+            .library-control {
+                -fx-background-color: rgba(255, 255, 255, 0.1);
+                -fx-text-fill: white;
+                -fx-font-size: 14px;
+            }
+            .list-summary {
+                -fx-text-fill: rgba(255, 255, 255, 0.6);
+                -fx-font-size: 14px;
+            }
+            .track-list {
+                -fx-control-inner-background: transparent;
+                -fx-background-color: transparent;
+            }
+            .track-cell {
+                -fx-background-color: #0f0f0f;
+                -fx-font-size: 16px;
+            }
+            .track-cell:odd {
+                -fx-background-color: #1a1a1a;
+            }
+            .track-cell:filled:hover {
+                -fx-background-color: #202020;
+            }
+            .track-cell:odd:filled:hover {
+                -fx-background-color: #323232;
+            }
+            .track-cell:filled:selected, .track-cell:odd:filled:selected {
+                -fx-background-color: #4a4a4a;
+            }
+            .track-edit-button {
+                -fx-background-color: transparent;
+                -fx-text-fill: white;
+                -fx-font-size: 20px;
+                -fx-padding: -6 0 -6 0;
+            }
+            .track-edit-field {
+                -fx-font-size: 18px;
+            }
+            .metrics-text {
+                -fx-font-family: 'Monospaced';
+                -fx-font-size: 13px;
+            }
+            """;
+
+    public static final String BASE_URL = toDataUrl(BASE_CSS);
+
+    // Keeps the base sheet's colors
+    private static final String DEFAULT_PALETTE_URL = toDataUrl(".root { }");
+
+    // Palette stylesheets by their colors, least recently used first
+    private static final int MAX_CACHED = 64;
+    private static final Map<String, String> paletteUrls = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+
+    private ThemeStylesheet() {
+    }
+
+    /**
+     * Sets up a root for theming: the base stylesheet plus the default (artwork-less) palette.
+     * Stylesheets added to the root later go after these.
+     */
+    public static void install(Parent root) {
+        root.getStylesheets().setAll(BASE_URL, DEFAULT_PALETTE_URL);
+    }
+
+    /**
+     * Swaps the root's palette stylesheet.
+     *
+     * @param root       Root set up with {@link #install}
+     * @param paletteUrl From {@link #paletteUrl}, or null for the default colors
+     */
+    public static void apply(Parent root, String paletteUrl) {
+        String url = paletteUrl == null ? DEFAULT_PALETTE_URL : paletteUrl;
+        if (!url.equals(root.getStylesheets().get(1))) {
+            root.getStylesheets().set(1, url);
+        }
+    }
+
+    /**
+     * @param window     Window background and border color
+     * @param topBar     Top bar background
+     * @param foreground Text drawn over the darkened artwork (time labels)
+     * @return URL of a stylesheet that redefines the looked-up colors
+     */
+    public static String paletteUrl(Color window, Color topBar, Color foreground) {
+        String windowHex = hex(window);
+        String topBarHex = hex(topBar);
+        String foregroundHex = hex(foreground);
+        String key = windowHex + topBarHex + foregroundHex;
+        synchronized (paletteUrls) {
+            return paletteUrls.computeIfAbsent(key, k -> toDataUrl(".root {"
+                    + " -om-window-background: " + windowHex + ";"
+                    + " -om-window-border: " + windowHex + ";"
+                    + " -om-top-bar: " + topBarHex + ";"
+                    + " -om-foreground: " + foregroundHex + "; }"));
+        }
+    }
+
+    private static String hex(Color color) {
+        return String.format(Locale.ROOT, "#%02X%02X%02X", (int) Math.round(color.getRed() * 255),
+                (int) Math.round(color.getGreen() * 255), (int) Math.round(color.getBlue() * 255));
+    }
+
+    private static String toDataUrl(String css) {
+        return "data:text/css;base64," + Base64.getEncoder().encodeToString(css.getBytes(StandardCharsets.UTF_8));
+    }
+}
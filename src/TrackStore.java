@@ -0,0 +1,357 @@
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.tag.FieldKey;
+import org.jaudiotagger.tag.Tag;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * In-memory library index. Every track gets a stable integer ID (its row) and its data is kept in
+ * parallel column arrays instead of one object per track, so a 100k-track library is a handful of
+ * arrays that can be scanned, sorted and filtered in milliseconds.
+ *
+ * Artist and album values are interned through a per-store pool, since most of them repeat.
+ * Not thread-safe: mutate on the JavaFX application thread only.
+ */
+public class TrackStore {
+
+    /**
+     * Columns the library can be sorted by.
+     */
+    public enum SortKey { NAME, TITLE, ARTIST, ALBUM, DURATION }
+
+    // Value of the int columns for "not known yet"
+    public static final int UNKNOWN = -1;
+
+    private int size = 0;
+    private String[] path = new String[1024];
+    private String[] name = new String[1024];
+    private String[] title = new String[1024];
+    private String[] artist = new String[1024];
+    private String[] album = new String[1024];
+    private String[] artworkKey = new String[1024];
+    private int[] durationMs = new int[1024];
+    private int[] themeRgb = new int[1024];
+
+    // Lower-cased "name title artist album" per track, rebuilt when any of them changes
+    private String[] searchText = new String[1024];
+
+    // Cached sort ranks per column, valid while rankVersion matches modCount
+    private final int[][] rankCache = new int[SortKey.values().length][];
+    private final long[] rankVersion = new long[SortKey.values().length];
+    private long modCount = 0;
+
+    private final Map<String, Integer> idByPath = new HashMap<>();
+    private final Map<String, String> stringPool = new HashMap<>();
+
+    // Lower-cased "artist\0title" to the lowest ID with those tags. Built on the first tag lookup, then
+    // kept up to date by setTags; only a track losing the entry for its old tags forces a rebuild
+    private Map<String, Integer> idByTags;
+    private boolean idByTagsStale = false;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds a track, or returns the existing ID if the file is already in the store.
+     *
+     * @param file Audio file
+     * @return The track's ID
+     */
+    public int add(File file) {
+        String p = file.getAbsolutePath();
+        Integer existing = idByPath.get(p);
+        if (existing != null) {
+            return existing;
+        }
+        if (size == path.length) {
+            grow();
+        }
+        int id = size++;
+        path[id] = p;
+        name[id] = file.getName();
+        title[id] = "";
+        artist[id] = "";
+        album[id] = "";
+        durationMs[id] = UNKNOWN;
+        themeRgb[id] = UNKNOWN;
+        idByPath.put(p, id);
+        updateSearchText(id);
+        return id;
+    }
+
+    /**
+     * @return The track's ID, or -1 if the file isn't in the store
+     */
+    public int idOf(File file) {
+        Integer id = idByPath.get(file.getAbsolutePath());
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Finds a track by its tags (case-insensitive), e.g. for a playlist entry whose file has moved.
+     *
+     * @param artist Artist, or empty to match tracks without one
+     * @param title  Title
+     * @return The ID of the first matching track, or -1 if there is none
+     */
+    public int idOfTags(String artist, String title) {
+        if (idByTags == null || idByTagsStale) {
+            idByTags = new HashMap<>(size * 2);
+            for (int id = 0; id < size; id++) {
+                if (!this.title[id].isEmpty()) {
+                    idByTags.putIfAbsent(tagKey(this.artist[id], this.title[id]), id);
+                }
+            }
+            idByTagsStale = false;
+        }
+        Integer id = idByTags.get(tagKey(artist, title));
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Points a track at a new file (after a rename or format conversion). The ID stays the same.
+     */
+    public void setFile(int id, File file) {
+        idByPath.remove(path[id]);
+        path[id] = file.getAbsolutePath();
+        name[id] = file.getName();
+        idByPath.put(path[id], id);
+        updateSearchText(id);
+    }
+
+    public void setTags(int id, String title, String artist, String album) {
+        String oldKey = this.title[id].isEmpty() ? null : tagKey(this.artist[id], this.title[id]);
+        this.title[id] = title == null ? "" : title;
+        this.artist[id] = intern(artist);
+        this.album[id] = intern(album);
+        updateSearchText(id);
+        if (idByTags != null && !idByTagsStale) {
+            updateTagIndex(id, oldKey);
+        }
+    }
+
+    public void setDuration(int id, int millis) {
+        durationMs[id] = millis;
+    }
+
+    public void setArtworkKey(int id, String key) {
+        artworkKey[id] = key;
+    }
+
+    public void setThemeRgb(int id, int rgb) {
+        themeRgb[id] = rgb;
+    }
+
+    public File getFile(int id) {
+        return new File(path[id]);
+    }
+
+    public String getPath(int id) {
+        return path[id];
+    }
+
+    public String getName(int id) {
+        return name[id];
+    }
+
+    public String getTitle(int id) {
+        return title[id];
+    }
+
+    public String getArtist(int id) {
+        return artist[id];
+    }
+
+    public String getAlbum(int id) {
+        return album[id];
+    }
+
+    public int getDuration(int id) {
+        return durationMs[id];
+    }
+
+    public String getArtworkKey(int id) {
+        return artworkKey[id];
+    }
+
+    public int getThemeRgb(int id) {
+        return themeRgb[id];
+    }
+
+    /**
+     * @return The IDs of all tracks in insertion order
+     */
+    public int[] allIds() {
+        int[] ids = new int[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = i;
+        }
+        return ids;
+    }
+
+    /**
+     * Finds the tracks whose file name, title, artist or album contains the query (case-insensitive).
+     *
+     * @param query Text to look for; blank matches everything
+     * @return Matching IDs in insertion order
+     */
+    public int[] filter(String query) {
+        if (query == null || query.isBlank()) {
+            return allIds();
+        }
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        int[] matches = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (searchText[i].contains(q)) {
+                matches[count++] = i;
+            }
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Sorts track IDs by a column. The sort is stable, so tracks with equal values keep their order.
+     *
+     * Each (rank, position) pair is packed into one long and sorted as a primitive array. String columns
+     * are turned into ranks once and cached until the store changes, so re-sorting while the user types
+     * a search is only the primitive sort.
+     *
+     * @param ids       IDs to sort (not modified)
+     * @param key       Column to sort by
+     * @param ascending Sort direction
+     * @return The sorted IDs
+     */
+    public int[] sort(int[] ids, SortKey key, boolean ascending) {
+        int[] rank = key == SortKey.DURATION ? durationMs : ranks(key);
+        long[] packed = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            long r = rank[ids[i]];
+            if (!ascending) {
+                r = -r;
+            }
+            packed[i] = (r << 32) | i;
+        }
+        Arrays.sort(packed);
+        int[] sorted = new int[ids.length];
+        for (int i = 0; i < packed.length; i++) {
+            sorted[i] = ids[(int) packed[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Reads title, artist and album from a file's tags.
+     *
+     * @param file Audio file
+     * @return {title, artist, album}, with empty strings for missing tags, or null if the tags can't be read
+     */
+    public static String[] readTags(File file) {
+        try {
+            AudioFile f = AudioFileIO.read(file);
+            Tag tag = f.getTag();
+            if (tag == null) {
+                return new String[]{"", "", ""};
+            }
+            return new String[]{
+                    tag.getFirst(FieldKey.TITLE),
+                    tag.getFirst(FieldKey.ARTIST),
+                    tag.getFirst(FieldKey.ALBUM)
+            };
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Case-insensitive rank of every track's value in a string column (empty values fall back to the
+     * file name). Recomputed only after the store has changed.
+     */
+    private int[] ranks(SortKey key) {
+        int k = key.ordinal();
+        if (rankCache[k] != null && rankVersion[k] == modCount) {
+            return rankCache[k];
+        }
+        String[] column = switch (key) {
+            case TITLE -> title;
+            case ARTIST -> artist;
+            case ALBUM -> album;
+            default -> name;
+        };
+        String[] keys = new String[size];
+        Map<String, Integer> distinct = new HashMap<>();
+        for (int id = 0; id < size; id++) {
+            String value = column[id].isEmpty() ? name[id] : column[id];
+            keys[id] = value.toLowerCase(Locale.ROOT);
+            distinct.put(keys[id], 0);
+        }
+        String[] order = distinct.keySet().toArray(new String[0]);
+        Arrays.sort(order);
+        for (int i = 0; i < order.length; i++) {
+            distinct.put(order[i], i);
+        }
+        int[] rank = new int[size];
+        for (int id = 0; id < size; id++) {
+            rank[id] = distinct.get(keys[id]);
+        }
+        rankCache[k] = rank;
+        rankVersion[k] = modCount;
+        return rank;
+    }
+
+    private String intern(String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+        return stringPool.computeIfAbsent(value, v -> v);
+    }
+
+    /**
+     * Moves a track from its old tags' entry to its new one in the tag lookup.
+     */
+    private void updateTagIndex(int id, String oldKey) {
+        String newKey = title[id].isEmpty() ? null : tagKey(artist[id], title[id]);
+        if (Objects.equals(oldKey, newKey)) {
+            return;
+        }
+        Integer owner = oldKey == null ? null : idByTags.get(oldKey);
+        if (owner != null && owner == id) {
+            // Another track may have the same old tags; finding it takes a full pass, done on the next lookup
+            idByTagsStale = true;
+            return;
+        }
+        if (newKey != null) {
+            idByTags.merge(newKey, id, Math::min);
+        }
+    }
+
+    private static String tagKey(String artist, String title) {
+        return (artist.trim() + '\u0000' + title.trim()).toLowerCase(Locale.ROOT);
+    }
+
+    private void updateSearchText(int id) {
+        modCount++;
+        searchText[id] = (name[id] + '\u0000' + title[id] + '\u0000' + artist[id] + '\u0000' + album[id])
+                .toLowerCase(Locale.ROOT);
+    }
+
+    private void grow() {
+        int capacity = path.length * 2;
+        path = Arrays.copyOf(path, capacity);
+        name = Arrays.copyOf(name, capacity);
+        title = Arrays.copyOf(title, capacity);
+        artist = Arrays.copyOf(artist, capacity);
+        album = Arrays.copyOf(album, capacity);
+        artworkKey = Arrays.copyOf(artworkKey, capacity);
+        durationMs = Arrays.copyOf(durationMs, capacity);
+        themeRgb = Arrays.copyOf(themeRgb, capacity);
+        searchText = Arrays.copyOf(searchText, capacity);
+    }
+}
@@ -0,0 +1,104 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Converts tracks JavaFX can't play (FLAC, M4A) to MP3 with ffmpeg, next to the original, which is then
+ * deleted. Used by the player window and the headless daemon when a track is about to be played.
+ *
+ * Runs on the caller's (background) thread; a conversion is tied to the request's {@link
+ * PlaybackScheduler.Cancellation}, so ffmpeg is killed as soon as the request is superseded.
+ */
+public final class Transcoder {
+
+    private static final Metrics.Histogram CONVERT_TIME = Metrics.histogram("transcode");
+    private static final Metrics.Counter REUSED = Metrics.counter("transcode.reused");
+    private static final Metrics.Counter FAILED = Metrics.counter("transcode.failed");
+    private static final Metrics.Counter CANCELLED = Metrics.counter("transcode.cancelled");
+
+    private Transcoder() {
+    }
+
+    /**
+     * @return The file to hand to the player: the track itself, or its MP3 conversion (made now, or
+     *         reused from earlier). The original is returned if the conversion fails or is cancelled.
+     */
+    public static File toPlayable(File file, PlaybackScheduler.Cancellation cancellation) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        if (name.endsWith(".flac")) {
+            return convertToMp3(file, "FLAC", cancellation, "-ab", "320k", "-map_metadata", "0", "-id3v2_version", "3");
+        } else if (name.endsWith(".m4a")) {
+            return convertToMp3(file, "M4A", cancellation, "-c:v", "copy", "-c:a", "libmp3lame", "-q:a", "4");
+        }
+        return file;
+    }
+
+    /**
+     * Converts a track to an MP3 next to it and deletes the original, or reuses an earlier conversion.
+     * If the request is superseded meanwhile, ffmpeg is killed and its partial output removed.
+     *
+     * @param format      Name of the source format, for the log
+     * @param ffmpegCodec Encoder options passed to ffmpeg between input and output
+     * @return The MP3, or the original file if the conversion failed
+     */
+    private static File convertToMp3(File originalFile, String format, PlaybackScheduler.Cancellation cancellation,
+                                     String... ffmpegCodec) {
+        File mp3File = new File(originalFile.getParent(),
+                originalFile.getName().substring(0, originalFile.getName().lastIndexOf(".")) + ".mp3");
+        if (mp3File.exists()) {
+            REUSED.increment();
+            return mp3File;
+        }
+        long start = System.nanoTime();
+        Log.info("Converting %s to MP3: %s", format, originalFile.getAbsolutePath());
+        List<String> command = new ArrayList<>(List.of("ffmpeg", "-i", originalFile.getAbsolutePath()));
+        command.addAll(List.of(ffmpegCodec));
+        command.add(mp3File.getAbsolutePath());
+        try {
+            ProcessBuilder pb = new ProcessBuilder(command);
+            pb.redirectErrorStream(true);
+            Process process = pb.start();
+            cancellation.attach(process);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            // FFmpeg's output is kept in memory and only logged if the conversion fails
+            StringBuilder output = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                output.append(line).append(System.lineSeparator());
+            }
+            int exitCode = process.waitFor();
+            cancellation.detach();
+            if (cancellation.isCancelled()) {
+                // Killed (or finished just as it was superseded); never keep a possibly truncated file
+                Files.deleteIfExists(mp3File.toPath());
+                Log.debug("Conversion cancelled: %s", originalFile.getAbsolutePath());
+                CANCELLED.increment();
+                return originalFile;
+            }
+            if (exitCode != 0) {
+                Log.warn("FFmpeg conversion failed with exit code %d:%n%s", exitCode, output);
+                FAILED.increment();
+                return originalFile;
+            }
+        } catch (IOException | InterruptedException ex) {
+            Log.error("FFmpeg conversion failed for %s", originalFile.getAbsolutePath(), ex);
+            FAILED.increment();
+            return originalFile;
+        }
+        CONVERT_TIME.recordSince(start);
+        Log.info("Conversion successful: %s", mp3File.getAbsolutePath());
+        // The cover came from the original file; point the new one at it too
+        AudioArtworkExtractor.carryOver(originalFile, mp3File);
+        if (originalFile.delete()) {
+            Log.debug("Deleted original %s file: %s", format, originalFile.getAbsolutePath());
+        } else {
+            Log.warn("Failed to delete original %s file: %s", format, originalFile.getAbsolutePath());
+        }
+        return mp3File;
+    }
+}
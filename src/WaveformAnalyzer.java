@@ -0,0 +1,458 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Background analysis stage that decodes each track once through an ffmpeg PCM pipe and computes its
+ * waveform peaks, integrated loudness (ITU-R BS.1770 K-weighting with EBU R128 gating) and a tempo estimate.
+ * Results are cached per track in {@link WaveformData} files, so playback never decodes audio itself.
+ *
+ * All decoding runs on one analysis thread, whoever asks for it: the playing track jumps the queue,
+ * and a library-wide pass only uses the device pools to read cached results, handing the misses over.
+ * Since one thread decodes, a track is never analyzed twice at once; the second request finds the cache.
+ */
+public class WaveformAnalyzer {
+
+    // Number of min/max peak pairs kept per track
+    public static final int BUCKETS = 600;
+
+    // Decode format: 16-bit little endian stereo at a reduced sample rate
+    private static final int SAMPLE_RATE = 22050;
+    private static final int CHANNELS = 2;
+    private static final int FRAME_BYTES = 2 * CHANNELS;
+
+    // Frames per raw peak chunk before the final downsampling to BUCKETS
+    private static final int PEAK_CHUNK = 512;
+
+    // Gating blocks are 400 ms with 75% overlap, i.e. four 100 ms sub-blocks
+    private static final int SUB_BLOCK = SAMPLE_RATE / 10;
+
+    // Tempo range searched by the estimate, and the tempo it prefers when several fit (one octave wide)
+    private static final double MIN_BPM = 50;
+    private static final double MAX_BPM = 220;
+    private static final double PREFERRED_BPM = 120;
+
+    // One worker so a library-wide pass never competes with playback for more than a core. Library
+    // tracks are queued at the back and the playing track at the front, through the deque itself.
+    private static final LinkedBlockingDeque<Runnable> queue = new LinkedBlockingDeque<>();
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS, queue, r -> {
+        Thread t = new Thread(r, "waveform-analyzer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    static {
+        // The worker must exist before tasks are put into the deque directly
+        executor.prestartCoreThread();
+    }
+
+    // Set once ffmpeg fails to start (it is optional); queued tracks are then skipped until the app restarts
+    private static volatile boolean decoderMissing = false;
+
+    /**
+     * Thrown when the ffmpeg process can't be started at all, as opposed to failing on one file.
+     */
+    private static class DecoderMissingException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        DecoderMissingException(IOException cause) {
+            super("ffmpeg could not be started: " + cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Returns the cached analysis of a track, or analyzes it next, ahead of any library-wide pass, and
+     * delivers the result later.
+     *
+     * @param audioFile Track to analyze
+     * @param callback  Receives the data on the analyzer thread; not called if analysis fails
+     */
+    public static void analyzeInBackground(File audioFile, Consumer<WaveformData> callback) {
+        queue.offerFirst(() -> {
+            WaveformData data = getOrAnalyze(audioFile);
+            if (data != null) {
+                callback.accept(data);
+            }
+        });
+    }
+
+    /**
+     * Queues every track that doesn't have up-to-date analysis data yet.
+     *
+     * @param tracks Tracks in the library
+     */
+    public static void analyzeAllInBackground(List<File> tracks) {
+        analyzeAllInBackground(tracks, executor, (track, data) -> { });
+    }
+
+    /**
+     * Queues every track, analyzing those without up-to-date data, and reports each track's data.
+     *
+     * @param tracks     Tracks in the library
+     * @param ioExecutor Where to read cached data, e.g. the worker pool of the tracks' device; tracks
+     *                   that need decoding are handed to the analysis thread
+     * @param callback   Receives every track's data (cached or new), on either thread, or null for a track
+     *                   that can't be analyzed, e.g. without ffmpeg
+     */
+    public static void analyzeAllInBackground(List<File> tracks, Executor ioExecutor, BiConsumer<File, WaveformData> callback) {
+        for (File track : tracks) {
+            ioExecutor.execute(() -> {
+                WaveformData cached = WaveformData.readCached(track);
+                if (cached != null) {
+                    callback.accept(track, cached);
+                    return;
+                }
+                executor.execute(() -> callback.accept(track, getOrAnalyze(track)));
+            });
+        }
+    }
+
+    private static WaveformData getOrAnalyze(File audioFile) {
+        WaveformData data = WaveformData.readCached(audioFile);
+        if (data != null || decoderMissing) {
+            return data;
+        }
+        try {
+            data = analyze(audioFile);
+            data.writeCache(audioFile);
+            return data;
+        } catch (DecoderMissingException e) {
+            // Reported once rather than for every track in the library
+            decoderMissing = true;
+            Log.warn("Waveform and loudness analysis is off: %s", e.getMessage());
+            return null;
+        } catch (IOException e) {
+            Log.warn("Waveform analysis failed for: %s (%s)", audioFile.getAbsolutePath(), e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Decodes a track with ffmpeg and computes its peaks and loudness.
+     *
+     * @param audioFile Track to decode
+     * @return The analysis result
+     * @throws IOException If ffmpeg can't be started or fails to decode the file
+     */
+    public static WaveformData analyze(File audioFile) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder(
+                "ffmpeg",
+                "-v", "error",
+                "-i", audioFile.getAbsolutePath(),
+                "-vn",
+                "-f", "s16le",
+                "-ac", String.valueOf(CHANNELS),
+                "-ar", String.valueOf(SAMPLE_RATE),
+                "-"
+        );
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process;
+        try {
+            process = pb.start();
+        } catch (IOException e) {
+            throw new DecoderMissingException(e);
+        }
+
+        Accumulator acc = new Accumulator();
+        try (InputStream in = process.getInputStream()) {
+            byte[] buffer = new byte[64 * 1024];
+            int carry = 0;
+            int read;
+            while ((read = in.read(buffer, carry, buffer.length - carry)) > 0) {
+                int available = carry + read;
+                int usable = available - (available % FRAME_BYTES);
+                for (int i = 0; i < usable; i += FRAME_BYTES) {
+                    short left = (short) ((buffer[i] & 0xFF) | (buffer[i + 1] << 8));
+                    short right = (short) ((buffer[i + 2] & 0xFF) | (buffer[i + 3] << 8));
+                    acc.add(left, right);
+                }
+                // Keep a partial frame for the next read
+                carry = available - usable;
+                System.arraycopy(buffer, usable, buffer, 0, carry);
+            }
+        }
+        int exitCode = process.waitFor();
+        if (exitCode != 0) {
+            throw new IOException("ffmpeg exited with code " + exitCode);
+        }
+        return acc.finish();
+    }
+
+    /**
+     * Streaming state for one decode: raw peak and energy chunks, K-weighting filters and 100 ms energy
+     * sub-blocks.
+     */
+    private static class Accumulator {
+        private short[] chunkMin = new short[1024];
+        private short[] chunkMax = new short[1024];
+        private float[] chunkEnergy = new float[1024];
+        private int chunks = 0;
+        private int framesInChunk = 0;
+        private short curMin = Short.MAX_VALUE;
+        private short curMax = Short.MIN_VALUE;
+        private double curEnergy = 0;
+        private long frames = 0;
+
+        private final KWeighting[] filters = {new KWeighting(SAMPLE_RATE), new KWeighting(SAMPLE_RATE)};
+        private double[] subBlockEnergy = new double[1024];
+        private int subBlocks = 0;
+        private int framesInSubBlock = 0;
+        private double energy = 0;
+
+        void add(short left, short right) {
+            short mono = (short) ((left + right) >> 1);
+            if (mono < curMin) curMin = mono;
+            if (mono > curMax) curMax = mono;
+            curEnergy += (double) mono * mono;
+            frames++;
+            if (++framesInChunk == PEAK_CHUNK) {
+                flushChunk();
+            }
+
+            double l = filters[0].process(left / 32768.0);
+            double r = filters[1].process(right / 32768.0);
+            energy += l * l + r * r;
+            if (++framesInSubBlock == SUB_BLOCK) {
+                flushSubBlock();
+            }
+        }
+
+        private void flushChunk() {
+            if (chunks == chunkMin.length) {
+                chunkMin = Arrays.copyOf(chunkMin, chunks * 2);
+                chunkMax = Arrays.copyOf(chunkMax, chunks * 2);
+                chunkEnergy = Arrays.copyOf(chunkEnergy, chunks * 2);
+            }
+            chunkMin[chunks] = curMin;
+            chunkMax[chunks] = curMax;
+            chunkEnergy[chunks] = (float) (curEnergy / framesInChunk);
+            chunks++;
+            framesInChunk = 0;
+            curMin = Short.MAX_VALUE;
+            curMax = Short.MIN_VALUE;
+            curEnergy = 0;
+        }
+
+        private void flushSubBlock() {
+            if (subBlocks == subBlockEnergy.length) {
+                subBlockEnergy = Arrays.copyOf(subBlockEnergy, subBlocks * 2);
+            }
+            subBlockEnergy[subBlocks++] = energy;
+            energy = 0;
+            framesInSubBlock = 0;
+        }
+
+        WaveformData finish() {
+            if (framesInChunk > 0) {
+                flushChunk();
+            }
+
+            byte[] min = new byte[BUCKETS];
+            byte[] max = new byte[BUCKETS];
+            for (int b = 0; b < BUCKETS && chunks > 0; b++) {
+                int from = (int) ((long) b * chunks / BUCKETS);
+                int to = Math.max(from + 1, (int) ((long) (b + 1) * chunks / BUCKETS));
+                short lo = Short.MAX_VALUE;
+                short hi = Short.MIN_VALUE;
+                for (int c = from; c < to && c < chunks; c++) {
+                    if (chunkMin[c] < lo) lo = chunkMin[c];
+                    if (chunkMax[c] > hi) hi = chunkMax[c];
+                }
+                min[b] = (byte) (lo >> 8);
+                max[b] = (byte) (hi >> 8);
+            }
+            return new WaveformData(min, max, integratedLoudness(), estimateTempo(),
+                    (int) (frames * 1000 / SAMPLE_RATE));
+        }
+
+        /**
+         * Estimates the tempo from the periodicity of note onsets: the onset envelope is the positive change
+         * in log energy between consecutive peak chunks (about 23 ms apart), and its autocorrelation is
+         * searched for the strongest beat period, weighted towards {@link #PREFERRED_BPM} to settle
+         * half/double tempo ambiguity. Cheap and approximate (a few percent), which is enough to tell
+         * slow tracks from fast ones.
+         *
+         * @return Tempo in BPM, or 0 if the track is too short or has no periodic onsets
+         */
+        private double estimateTempo() {
+            double chunkSeconds = (double) PEAK_CHUNK / SAMPLE_RATE;
+            int minLag = (int) Math.floor(60.0 / MAX_BPM / chunkSeconds);
+            int maxLag = (int) Math.ceil(60.0 / MIN_BPM / chunkSeconds);
+            if (chunks < maxLag * 4) {
+                return 0;
+            }
+
+            float[] onset = new float[chunks];
+            double mean = 0;
+            double previous = Math.log(chunkEnergy[0] + 1.0);
+            for (int i = 1; i < chunks; i++) {
+                double current = Math.log(chunkEnergy[i] + 1.0);
+                onset[i] = (float) Math.max(0, current - previous);
+                mean += onset[i];
+                previous = current;
+            }
+            mean /= chunks;
+            for (int i = 0; i < chunks; i++) {
+                onset[i] -= (float) mean;
+            }
+
+            // Smooth the envelope so beat periods between two whole chunk lags still line up
+            float[] smooth = new float[chunks];
+            for (int i = 1; i < chunks - 1; i++) {
+                smooth[i] = 0.25f * onset[i - 1] + 0.5f * onset[i] + 0.25f * onset[i + 1];
+            }
+
+            double[] autocorrelation = new double[2 * maxLag + 4];
+            for (int lag = 0; lag < autocorrelation.length; lag++) {
+                double sum = 0;
+                for (int i = lag; i < chunks; i++) {
+                    sum += smooth[i] * smooth[i - lag];
+                }
+                autocorrelation[lag] = sum;
+            }
+            if (autocorrelation[0] <= 0) {
+                return 0;
+            }
+
+            // A beat also repeats at twice its period; counting that repeat steadies the score between lags
+            double[] score = new double[maxLag + 2];
+            int best = -1;
+            for (int lag = minLag; lag <= maxLag + 1; lag++) {
+                double periodicity = autocorrelation[lag] + 0.5 * autocorrelation[2 * lag];
+                double octaves = Math.log(60.0 / (lag * chunkSeconds) / PREFERRED_BPM) / Math.log(2);
+                score[lag] = periodicity / autocorrelation[0] * Math.exp(-0.5 * octaves * octaves);
+                if (lag <= maxLag && (best < 0 || score[lag] > score[best])) {
+                    best = lag;
+                }
+            }
+            if (score[best] <= 0) {
+                return 0;
+            }
+            // Parabolic interpolation between neighboring lags for sub-chunk resolution
+            double lag = best;
+            if (best > minLag) {
+                double a = score[best - 1];
+                double b = score[best];
+                double c = score[best + 1];
+                double denominator = a - 2 * b + c;
+                if (denominator < 0) {
+                    lag += 0.5 * (a - c) / denominator;
+                }
+            }
+            return 60.0 / (lag * chunkSeconds);
+        }
+
+        /**
+         * EBU R128 integrated loudness: 400 ms blocks every 100 ms, an absolute gate at -70 LUFS and
+         * a relative gate 10 LU below the absolute-gated loudness.
+         */
+        private double integratedLoudness() {
+            int blocks = subBlocks - 3;
+            if (blocks <= 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+            double[] blockEnergy = new double[blocks];
+            for (int i = 0; i < blocks; i++) {
+                double sum = subBlockEnergy[i] + subBlockEnergy[i + 1] + subBlockEnergy[i + 2] + subBlockEnergy[i + 3];
+                blockEnergy[i] = sum / (4.0 * SUB_BLOCK);
+            }
+
+            double absoluteGate = energyFor(-70.0);
+            double sum = 0;
+            int count = 0;
+            for (double e : blockEnergy) {
+                if (e > absoluteGate) {
+                    sum += e;
+                    count++;
+                }
+            }
+            if (count == 0) {
+                return Double.NEGATIVE_INFINITY;
+            }
+
+            double relativeGate = energyFor(loudnessOf(sum / count) - 10.0);
+            sum = 0;
+            count = 0;
+            for (double e : blockEnergy) {
+                if (e > absoluteGate && e > relativeGate) {
+                    sum += e;
+                    count++;
+                }
+            }
+            return count == 0 ? Double.NEGATIVE_INFINITY : loudnessOf(sum / count);
+        }
+
+        private static double loudnessOf(double meanSquare) {
+            return -0.691 + 10 * Math.log10(meanSquare);
+        }
+
+        private static double energyFor(double lufs) {
+            return Math.pow(10, (lufs + 0.691) / 10);
+        }
+    }
+
+    /**
+     * The two-stage BS.1770 K-weighting filter (high shelf followed by a high pass), with coefficients
+     * derived for the decode sample rate.
+     */
+    private static class KWeighting {
+        private final double b0, b1, b2, a1, a2;
+        private final double c0, c1, c2, d1, d2;
+        private double x1, x2, y1, y2;
+        private double u1, u2, z1, z2;
+
+        KWeighting(double fs) {
+            // Stage 1: high shelf
+            double f0 = 1681.974450955533;
+            double g = 3.999843853973347;
+            double q = 0.7071752369554196;
+            double k = Math.tan(Math.PI * f0 / fs);
+            double vh = Math.pow(10, g / 20);
+            double vb = Math.pow(vh, 0.4996667741545416);
+            double a0 = 1 + k / q + k * k;
+            b0 = (vh + vb * k / q + k * k) / a0;
+            b1 = 2 * (k * k - vh) / a0;
+            b2 = (vh - vb * k / q + k * k) / a0;
+            a1 = 2 * (k * k - 1) / a0;
+            a2 = (1 - k / q + k * k) / a0;
+
+            // Stage 2: high pass
+            f0 = 38.13547087602444;
+            q = 0.5003270373238773;
+            k = Math.tan(Math.PI * f0 / fs);
+            a0 = 1 + k / q + k * k;
+            c0 = 1;
+            c1 = -2;
+            c2 = 1;
+            d1 = 2 * (k * k - 1) / a0;
+            d2 = (1 - k / q + k * k) / a0;
+        }
+
+        double process(double x) {
+            double y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+            x2 = x1;
+            x1 = x;
+            y2 = y1;
+            y1 = y;
+
+            double z = c0 * y + c1 * u1 + c2 * u2 - d1 * z1 - d2 * z2;
+            u2 = u1;
+            u1 = y;
+            z2 = z1;
+            z1 = z;
+            return z;
+        }
+    }
+}
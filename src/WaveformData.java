@@ -0,0 +1,133 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Precomputed per-track analysis: downsampled min/max waveform peaks, integrated loudness, tempo estimate
+ * and decoded duration.
+ *
+ * Each track's data lives in a compact binary file next to the artwork cache
+ * ({@code <music dir>/waveforms/<track name>.wave}, or under the central cache folder, see
+ * {@link CacheLocations}), tagged with the source file's size and modification time so a changed track
+ * is re-analyzed.
+ */
+public class WaveformData {
+
+    static final int MAGIC = 0x4F4D5746; // "OMWF"
+    static final int VERSION = 2;
+
+    // Loudness all tracks are normalized towards, ReplayGain 2.0 style
+    public static final double TARGET_LUFS = -18.0;
+
+    // Peaks per track, scaled to signed bytes
+    public final byte[] minPeaks;
+    public final byte[] maxPeaks;
+
+    // Integrated loudness in LUFS (Double.NEGATIVE_INFINITY for digital silence)
+    public final double loudnessLufs;
+
+    // Estimated tempo in beats per minute, or 0 if no beat was found
+    public final double tempoBpm;
+
+    // Length of the decoded audio
+    public final int durationMillis;
+
+    public WaveformData(byte[] minPeaks, byte[] maxPeaks, double loudnessLufs, double tempoBpm, int durationMillis) {
+        this.minPeaks = minPeaks;
+        this.maxPeaks = maxPeaks;
+        this.loudnessLufs = loudnessLufs;
+        this.tempoBpm = tempoBpm;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Linear gain that brings the track to {@link #TARGET_LUFS}. MediaPlayer volume can't go above 1.0,
+     * so loud tracks are turned down and quiet tracks are left at full volume.
+     *
+     * @return Gain in the range (0, 1]
+     */
+    public double getGain() {
+        if (Double.isInfinite(loudnessLufs) || Double.isNaN(loudnessLufs)) {
+            return 1.0;
+        }
+        double gain = Math.pow(10, (TARGET_LUFS - loudnessLufs) / 20.0);
+        return Math.max(0.05, Math.min(1.0, gain));
+    }
+
+    /**
+     * @param audioFile Track the data belongs to
+     * @return Location of the track's cached analysis file
+     */
+    public static File cacheFileFor(File audioFile) {
+        String name = audioFile.getName();
+        int dot = name.lastIndexOf('.');
+        String baseName = dot > 0 ? name.substring(0, dot) : name;
+        return new File(CacheLocations.waveformDir(audioFile.getParentFile()), baseName + ".wave");
+    }
+
+    /**
+     * Reads the cached analysis for a track if it exists and still matches the track on disk.
+     *
+     * @param audioFile Track to look up
+     * @return The cached data, or null if it is missing or stale
+     */
+    public static WaveformData readCached(File audioFile) {
+        File cacheFile = cacheFileFor(audioFile);
+        if (!cacheFile.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))) {
+            if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+                return null;
+            }
+            long sourceSize = in.readLong();
+            long sourceModified = in.readLong();
+            if (sourceSize != audioFile.length() || sourceModified != audioFile.lastModified()) {
+                return null;
+            }
+            double loudness = in.readFloat();
+            double tempo = in.readFloat();
+            int duration = in.readInt();
+            int buckets = in.readUnsignedShort();
+            byte[] min = new byte[buckets];
+            byte[] max = new byte[buckets];
+            in.readFully(min);
+            in.readFully(max);
+            return new WaveformData(min, max, loudness, tempo, duration);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes the analysis for a track to its cache file.
+     *
+     * @param audioFile Track the data was computed from
+     * @throws IOException If the cache file cannot be written
+     */
+    public void writeCache(File audioFile) throws IOException {
+        Path cacheFile = cacheFileFor(audioFile).toPath();
+        Files.createDirectories(cacheFile.getParent());
+        // Unique temp name, so two threads writing the same entry never write into one file
+        Path temp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeLong(audioFile.length());
+            out.writeLong(audioFile.lastModified());
+            out.writeFloat((float) loudnessLufs);
+            out.writeFloat((float) tempoBpm);
+            out.writeInt(durationMillis);
+            out.writeShort(minPeaks.length);
+            out.write(minPeaks);
+            out.write(maxPeaks);
+        }
+        Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,73 @@
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.paint.Color;
+
+/**
+ * Draws a track's precomputed waveform peaks behind the seek bar. The part that has already been
+ * played is drawn in the accent color, the rest dimmed.
+ */
+public class WaveformView extends Canvas {
+
+    private WaveformData data;
+    private double progress = 0;
+    private Color playedColor = Color.WHITE;
+    private Color remainingColor = Color.rgb(255, 255, 255, 0.3);
+
+    public WaveformView(double width, double height) {
+        super(width, height);
+    }
+
+    /**
+     * @param data Peaks to draw, or null to clear the waveform
+     */
+    public void setData(WaveformData data) {
+        this.data = data;
+        redraw();
+    }
+
+    /**
+     * @param progress Played fraction of the track in the range [0, 1]
+     */
+    public void setProgress(double progress) {
+        double clamped = Math.max(0, Math.min(1, progress));
+        // Only repaint when the played part moves by at least one bar
+        if (data != null && (int) (clamped * data.maxPeaks.length) == (int) (this.progress * data.maxPeaks.length)) {
+            this.progress = clamped;
+            return;
+        }
+        this.progress = clamped;
+        redraw();
+    }
+
+    public void setColor(Color color) {
+        playedColor = color;
+        remainingColor = color.deriveColor(0, 1, 1, 0.3);
+        redraw();
+    }
+
+    private void redraw() {
+        GraphicsContext g = getGraphicsContext2D();
+        double width = getWidth();
+        double height = getHeight();
+        g.clearRect(0, 0, width, height);
+        if (data == null || data.maxPeaks.length == 0) {
+            return;
+        }
+
+        int buckets = data.maxPeaks.length;
+        double mid = height / 2;
+        double scale = mid / 128.0;
+        double barWidth = width / buckets;
+        int played = (int) (progress * buckets);
+
+        g.setFill(playedColor);
+        for (int i = 0; i < buckets; i++) {
+            if (i == played) {
+                g.setFill(remainingColor);
+            }
+            double top = mid - data.maxPeaks[i] * scale;
+            double bottom = mid - data.minPeaks[i] * scale;
+            g.fillRect(i * barWidth, top, Math.max(1, barWidth), Math.max(1, bottom - top));
+        }
+    }
+}
@@ -0,0 +1,77 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Checks that covers are read from every format {@link LibraryFixtureGenerator} writes (MP3, FLAC and
+ * WAV, all with the same front cover), and that truncated files are reported as unreadable rather than
+ * with an unchecked exception.
+ *
+ * Usage: java -cp out/test:out:jaudiotagger.jar ArtworkExtractionTest
+ * Exits with status 1 on the first failure.
+ */
+public class ArtworkExtractionTest {
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("artwork-test");
+        try {
+            // The first three tracks are one MP3, one FLAC and one WAV from the same album
+            LibraryFixtureGenerator.generate(dir.toFile(), 3, 7);
+            File[] tracks = dir.toFile().listFiles(File::isFile);
+            Arrays.sort(tracks);
+            check(tracks.length == 3, "expected 3 fixtures, got " + tracks.length);
+
+            byte[] expected = null;
+            for (File track : tracks) {
+                byte[] picture = read(track);
+                check(picture != null && picture.length > 0, "no cover in " + track.getName());
+                check(expected == null || Arrays.equals(expected, picture), "different cover in " + track.getName());
+                expected = picture;
+                check(AudioArtworkExtractor.extractArtwork(track.getPath()) != null,
+                        "cover of " + track.getName() + " not stored");
+            }
+
+            for (File track : tracks) {
+                byte[] whole = Files.readAllBytes(track.toPath());
+                for (int length : new int[]{0, 4, 12, 64, whole.length / 2, whole.length - 1}) {
+                    File truncated = dir.resolve("truncated-" + track.getName()).toFile();
+                    Files.write(truncated.toPath(), Arrays.copyOf(whole, length));
+                    try {
+                        AudioArtworkExtractor.readEmbeddedPicture(truncated);
+                    } catch (RuntimeException e) {
+                        throw new AssertionError(track.getName() + " cut to " + length + " bytes threw " + e);
+                    } catch (Exception e) {
+                        // Expected: extractArtwork logs it and shows no cover
+                    }
+                }
+            }
+            System.out.println("ArtworkExtractionTest passed");
+        } catch (AssertionError e) {
+            System.err.println("ArtworkExtractionTest failed: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            Log.shutdown();
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static byte[] read(File track) {
+        try {
+            return AudioArtworkExtractor.readEmbeddedPicture(track);
+        } catch (Exception e) {
+            throw new AssertionError("reading " + track.getName() + " failed: " + e);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Checks that session snapshots survive a write/read round trip, and that a truncated or corrupted
+ * snapshot is always reported as an IOException (which the app ignores) and never as an unchecked one.
+ *
+ * Usage: java -ea SessionSnapshotTest
+ * Exits with status 1 on the first failure.
+ */
+public class SessionSnapshotTest {
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("session-test");
+        Path file = dir.resolve("session.bin");
+        try {
+            roundTrip(file);
+            emptyQueue(file);
+            corruption(file);
+            truncation(file);
+            System.out.println("SessionSnapshotTest passed");
+        } catch (AssertionError e) {
+            System.err.println("SessionSnapshotTest failed: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static SessionSnapshot sample() {
+        return new SessionSnapshot(List.of("/music/Artist/Album/01 Intro.mp3", "/music/Artist/Album/02 Song.mp3",
+                "/music/Other/Ünïcödé.flac", "/music/Artist/Album/02 Song.mp3"), 2, 123_456L, 0x12AB34);
+    }
+
+    private static void roundTrip(Path file) throws IOException {
+        SessionSnapshot written = sample();
+        written.write(file);
+        SessionSnapshot read = SessionSnapshot.read(file);
+        check(read != null, "round trip returned null");
+        check(read.queue.equals(written.queue), "queue differs: " + read.queue);
+        check(read.currentIndex == written.currentIndex, "index differs: " + read.currentIndex);
+        check(read.positionMillis == written.positionMillis, "position differs: " + read.positionMillis);
+        check(read.themeRgb == written.themeRgb, "theme differs: " + read.themeRgb);
+    }
+
+    private static void emptyQueue(Path file) throws IOException {
+        new SessionSnapshot(List.of(), -1, 0, SessionSnapshot.NO_THEME).write(file);
+        SessionSnapshot read = SessionSnapshot.read(file);
+        check(read != null && read.queue.isEmpty() && read.currentIndex == -1
+                && read.themeRgb == SessionSnapshot.NO_THEME, "empty session did not round trip");
+    }
+
+    /**
+     * Overwrites every byte of a valid snapshot in turn with values that break varints and lengths.
+     */
+    private static void corruption(Path file) throws IOException {
+        sample().write(file);
+        byte[] valid = Files.readAllBytes(file);
+        for (int position = 0; position < valid.length; position++) {
+            for (int value : new int[]{0x00, 0x7F, 0x80, 0xFF, valid[position] ^ 0x55}) {
+                byte[] corrupt = valid.clone();
+                corrupt[position] = (byte) value;
+                Files.write(file, corrupt);
+                readSafely(file, "byte " + position + " = 0x" + Integer.toHexString(value & 0xFF));
+            }
+        }
+    }
+
+    private static void truncation(Path file) throws IOException {
+        sample().write(file);
+        byte[] valid = Files.readAllBytes(file);
+        for (int length = 0; length < valid.length; length++) {
+            Files.write(file, java.util.Arrays.copyOf(valid, length));
+            readSafely(file, "truncated to " + length + " bytes");
+        }
+    }
+
+    private static void readSafely(Path file, String description) {
+        try {
+            SessionSnapshot.read(file);
+        } catch (IOException e) {
+            // Expected: the app logs it and starts without the session
+        } catch (RuntimeException e) {
+            throw new AssertionError(description + " threw " + e);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}